@@ -1,28 +1,49 @@
 /**
  * 该类实现了通过电话号码查询联系人信息的功能，包括：
  * 从联系人数据库中获取与特定电话号码相关联的显示名称。
- * 使用缓存机制减少数据库查询次数，提高性能。
+ * 使用有上限的LRU缓存减少数据库查询次数，缓存以号码的来电匹配后缀（min match）为键。
+ * 没有匹配联系人的号码同样缓存，但只在一段时间内有效，之后重新查询。
+ * 联系人数据库发生变化时清空缓存。
  * 根据电话号码格式化查询条件，并执行数据库查询操作。
- * 处理查询结果，将联系人名称添加到缓存中，以便下次查询时直接获取。
- * 记录日志以便跟踪查询过程中的问题。
+ * 记录缓存命中和未命中的次数，以及查询过程中的问题。
+ * 缓存可能同时被界面线程、后台加载线程和观察者回调访问，LruCache内部是同步的，查询本身不持有锁。
  */
 
 package net.micode.notes.data;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Contact {
-    // 缓存已查询过的电话号码和对应的联系人名称，以减少数据库查询次数。
-    private static HashMap<String, String> sContactCache;
     private static final String TAG = "Contact"; // 日志标签
 
+    // 缓存的最大条目数
+    private static final int CACHE_SIZE = 256;
+
+    // 没有匹配联系人的结果的有效时间
+    private static final long NEGATIVE_TTL = 5 * 60 * 1000L;
+
+    // 缓存已查询过的号码和对应的联系人名称，以减少数据库查询次数。
+    private static final LruCache<String, Entry> sContactCache = new LruCache<String, Entry>(CACHE_SIZE);
+
+    // 缓存命中和未命中的次数
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    // 联系人变化的观察者，第一次查询时注册
+    private static ContentObserver sContactObserver;
+
     // 用于查询具有完整国际号码格式的电话号码的selection字符串。
     private static final String CALLER_ID_SELECTION = "PHONE_NUMBERS_EQUAL(" + Phone.NUMBER
             + ",?) AND " + Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'"
@@ -31,27 +52,62 @@ public class Contact {
             + " FROM phone_lookup"
             + " WHERE min_match = '+')";
 
+    /*
+     * 缓存条目。name为null表示没有匹配的联系人，此时条目在expireTime之后失效。
+     */
+    private static class Entry {
+        final String name;
+        final long expireTime;
+
+        Entry(String name, long expireTime) {
+            this.name = name;
+            this.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * 判断电话号码是否已经查询过，查询过但没有匹配联系人且未过期的号码同样视为已缓存。
+     * 只读取缓存，不计入命中次数。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 已缓存返回true。
+     */
+    public static boolean isCached(String phoneNumber) {
+        return getEntry(phoneNumber) != null;
+    }
+
+    /**
+     * 只从缓存中获取联系人名称，不访问联系人数据库，可以在界面线程调用。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 缓存的联系人名称，没有缓存或没有匹配的联系人时返回null。
+     */
+    public static String getCachedContact(String phoneNumber) {
+        Entry entry = getEntry(phoneNumber);
+        return entry != null ? entry.name : null;
+    }
+
     /**
-     * 根据电话号码获取联系人名称。
+     * 根据电话号码获取联系人名称。没有缓存时查询联系人数据库，不应在界面线程调用。
      *
      * @param context     上下文对象，用于访问内容解析器。
      * @param phoneNumber 需要查询的电话号码。
      * @return 与电话号码相关联的联系人名称，如果找不到则返回null。
      */
     public static String getContact(Context context, String phoneNumber) {
-        // 初始化或获取联系人缓存
-        if (sContactCache == null) {
-            sContactCache = new HashMap<String, String>();
-        }
+        registerObserver(context);
 
         // 从缓存中直接获取联系人名称，如果存在。
-        if (sContactCache.containsKey(phoneNumber)) {
-            return sContactCache.get(phoneNumber);
+        Entry entry = getEntry(phoneNumber);
+        if (entry != null) {
+            sHitCount.incrementAndGet();
+            return entry.name;
         }
+        sMissCount.incrementAndGet();
 
         // 使用PhoneNumberUtils将电话号码格式化为适合查询的形式
-        String selection = CALLER_ID_SELECTION.replace("+",
-                PhoneNumberUtils.toCallerIDMinMatch(phoneNumber));
+        String minMatch = PhoneNumberUtils.toCallerIDMinMatch(phoneNumber);
+        String selection = CALLER_ID_SELECTION.replace("+", minMatch);
 
         // 执行查询以获取与电话号码相关联的联系人名称
         Cursor cursor = context.getContentResolver().query(
@@ -65,7 +121,7 @@ public class Contact {
             try {
                 // 从查询结果中获取联系人名称并加入缓存
                 String name = cursor.getString(0);
-                sContactCache.put(phoneNumber, name);
+                sContactCache.put(getCacheKey(phoneNumber), new Entry(name, Long.MAX_VALUE));
                 return name;
             } catch (IndexOutOfBoundsException e) {
                 // 处理查询结果异常
@@ -76,9 +132,81 @@ public class Contact {
                 cursor.close();
             }
         } else {
-            // 如果查询无结果，记录日志
+            // 如果查询无结果，记录日志，并在一段时间内缓存未匹配的结果，避免列表每次绑定都重新查询
             Log.d(TAG, "No contact matched with number:" + phoneNumber);
+            if (cursor != null) {
+                cursor.close();
+            }
+            sContactCache.put(getCacheKey(phoneNumber),
+                    new Entry(null, SystemClock.elapsedRealtime() + NEGATIVE_TTL));
             return null;
         }
     }
+
+    /**
+     * 清空缓存，联系人发生变化时调用。
+     */
+    public static void invalidate() {
+        sContactCache.evictAll();
+    }
+
+    /**
+     * 获取缓存命中的次数。
+     */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * 获取缓存未命中、需要查询联系人数据库的次数。
+     */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /*
+     * 获取未过期的缓存条目，过期的条目从缓存中移除。
+     */
+    private static Entry getEntry(String phoneNumber) {
+        if (TextUtils.isEmpty(phoneNumber)) {
+            return null;
+        }
+        String key = getCacheKey(phoneNumber);
+        Entry entry = sContactCache.get(key);
+        if (entry != null && entry.expireTime <= SystemClock.elapsedRealtime()) {
+            sContactCache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /*
+     * 以来电匹配后缀为缓存键，同一号码的不同写法（如带国家码）共用一个条目。
+     */
+    private static String getCacheKey(String phoneNumber) {
+        String minMatch = PhoneNumberUtils.toCallerIDMinMatch(phoneNumber);
+        return TextUtils.isEmpty(minMatch) ? phoneNumber : minMatch;
+    }
+
+    /*
+     * 注册联系人变化的观察者，回调在binder线程执行，只清空缓存。
+     */
+    private static synchronized void registerObserver(Context context) {
+        if (sContactObserver != null) {
+            return;
+        }
+        sContactObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        try {
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactsContract.Contacts.CONTENT_URI, true, sContactObserver);
+        } catch (SecurityException e) {
+            // 无法观察时缓存仍然有上限，正向结果只在被淘汰后才会更新
+            Log.w(TAG, "cannot observe contacts: " + e.toString());
+        }
+    }
 }
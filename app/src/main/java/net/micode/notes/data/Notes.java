@@ -36,6 +36,12 @@ public class Notes {
     public static final String INTENT_EXTRA_FOLDER_ID = "net.micode.notes.folder_id"; // 文件夹ID
     public static final String INTENT_EXTRA_CALL_DATE = "net.micode.notes.call_date"; // 通话日期
 
+    public static final String METHOD_CHECKPOINT = "checkpoint"; // 内容提供者的WAL检查点方法名
+    public static final String METHOD_UPDATE_SYNC_IDS = "update_sync_ids"; // 批量更新同步ID的方法名
+    public static final String EXTRA_NOTE_IDS = "note_ids"; // 批量更新同步ID时的笔记ID数组
+    public static final String EXTRA_SYNC_IDS = "sync_ids"; // 批量更新同步ID时对应的同步ID数组
+    public static final String QUERY_PARAMETER_LIMIT = "limit"; // 查询笔记时限制返回行数的URI参数
+
     public static final int TYPE_WIDGET_INVALIDE = -1; // 无效的小部件类型
     public static final int TYPE_WIDGET_2X = 0; // 2x小部件类型
     public static final int TYPE_WIDGET_4X = 1; // 4x小部件类型
@@ -45,6 +51,55 @@ public class Notes {
         public static final String CALL_NOTE = CallNote.CONTENT_ITEM_TYPE; // 通话记录的内容项类型
     }
 
+    /**
+     * 需要走索引的笔记查询条件和排序，调用方和NotesDatabaseHelper的执行计划检查共用这些常量。
+     */
+    public static class NoteSelections {
+        // 笔记列表的排序，ID作为修改时间相同时的决胜列，由(parent_id, type, modified_date)索引直接提供
+        public static final String LIST_ORDER = NoteColumns.TYPE + " DESC,"
+                + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+        // 笔记列表键集分页中排在上一页最后一行之后的行，按排序先后拆成三段，每段都是
+        // (parent_id, type, modified_date, _id)索引上的一个连续范围，依次查询直到填满一页。
+        // 修改时间与上一行相同、ID更小的行，参数为type、modified_date、id
+        public static final String LIST_AFTER_SAME_DATE = NoteColumns.TYPE + "=? AND "
+                + NoteColumns.MODIFIED_DATE + "=? AND " + NoteColumns.ID + "<?";
+
+        // 类型相同、修改时间更早的行，参数为type、modified_date
+        public static final String LIST_AFTER_OLDER = NoteColumns.TYPE + "=? AND "
+                + NoteColumns.MODIFIED_DATE + "<?";
+
+        // 类型排在后面的行，参数为type
+        public static final String LIST_AFTER_TYPE = NoteColumns.TYPE + "<?";
+
+        // 普通文件夹中的笔记列表，参数为文件夹ID
+        public static final String FOLDER_LIST = NoteColumns.PARENT_ID + "=?";
+
+        // 根文件夹中的笔记列表，参数为根文件夹ID。只按PARENT_ID过滤，不与通话记录文件夹合并成OR
+        public static final String ROOT_FOLDER_LIST = NoteColumns.TYPE + "<>"
+                + TYPE_SYSTEM + " AND " + NoteColumns.PARENT_ID + "=?";
+
+        // 根文件夹列表最前面的非空通话记录文件夹，按主键单独查询
+        public static final String CALL_RECORD_FOLDER = NoteColumns.ID + "="
+                + ID_CALL_RECORD_FOLDER + " AND " + NoteColumns.NOTES_COUNT + ">0";
+
+        // 同步时按类型查询不在回收站中的笔记或文件夹，参数为类型和回收站ID
+        public static final String SYNC_BY_TYPE = "(" + NoteColumns.TYPE + "=? AND "
+                + NoteColumns.PARENT_ID + "<>?)";
+
+        // 同步时查询回收站中的笔记和文件夹，参数为系统类型和回收站ID
+        public static final String SYNC_TRASH = "(" + NoteColumns.TYPE + "<>? AND "
+                + NoteColumns.PARENT_ID + "=?)";
+
+        // 开机时重新设置提醒，参数为当前时间
+        public static final String ALERTED_NOTES = NoteColumns.ALERTED_DATE + ">? AND "
+                + NoteColumns.TYPE + "=" + TYPE_NOTE;
+
+        // 小部件对应的笔记，参数为小部件ID和回收站ID
+        public static final String WIDGET_NOTE = NoteColumns.WIDGET_ID + "=? AND "
+                + NoteColumns.PARENT_ID + "<>?";
+    }
+
     /**
      * 查询所有笔记和文件夹的Uri
      */
@@ -93,6 +148,12 @@ public class Notes {
          */
         public static final String SNIPPET = "snippet";
 
+        /**
+         * 列表预览用的纯文本，由摘要去掉HTML标签和清单标记后截断得到，在写入时维护
+         * <P>类型: TEXT</P>
+         */
+        public static final String PREVIEW = "preview";
+
         /**
          * 笔记的小部件ID
          * <P>类型: INTEGER (long)</P>
@@ -158,6 +219,12 @@ public class Notes {
          * <P>类型: INTEGER (long)</P>
          */
         public static final String VERSION = "version";
+
+        /**
+         * 上次同步成功时笔记的文本内容，作为本地与远程同时修改时三方合并的共同版本，为空表示没有记录
+         * <P>类型: TEXT</P>
+         */
+        public static final String SYNC_BASE = "sync_base";
     }
 
     // 数据列接口
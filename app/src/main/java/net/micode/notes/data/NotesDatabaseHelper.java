@@ -18,13 +18,22 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.NotePreview;
+import net.micode.notes.tool.PreferenceUtils;
+import net.micode.notes.tool.SearchText;
+
+import java.io.File;
 
 
 public class NotesDatabaseHelper extends SQLiteOpenHelper {
@@ -32,13 +41,16 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "note.db";
 
     // 数据库版本号
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 9;
 
-    // 表接口，定义了数据库中的两个表名
+    // 表接口，定义了数据库中的表名
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        // 笔记内容的全文索引虚表，docid 与 data 表的 _id 一致
+        public static final String NOTE_FTS = "note_fts";
     }
 
     // 日志标签
@@ -47,6 +59,15 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     // 单例模式，确保数据库辅助类的唯一实例
     private static NotesDatabaseHelper mInstance;
 
+    // WAL文件超过这个大小时执行检查点，检查点之后也把WAL文件截断到这个大小
+    private static final long WAL_CHECKPOINT_SIZE = 4 * 1024 * 1024;
+
+    // 是否启用了预写日志模式
+    private boolean mWalEnabled;
+
+    // WAL模式下的同步级别，由用户在设置中选择
+    private String mWalSynchronous;
+
     // 创建NOTE表的SQL语句
     private static final String CREATE_NOTE_TABLE_SQL =
             "CREATE TABLE " + TABLE.NOTE + "(" +
@@ -66,7 +87,9 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," +
                     NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
                     NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," +
-                    NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+                    NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," +
+                    NoteColumns.SYNC_BASE + " TEXT," +
+                    NoteColumns.PREVIEW + " TEXT NOT NULL DEFAULT ''" +
                     ")";
 
     // 创建DATA表的SQL语句
@@ -90,6 +113,31 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             "CREATE INDEX IF NOT EXISTS note_id_index ON " +
                     TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    // 笔记列表查询：按PARENT_ID过滤，按TYPE、MODIFIED_DATE倒序排列，回收站查询也走这个索引
+    private static final String CREATE_NOTE_PARENT_ID_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_parent_type_modified_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + ");";
+
+    // 同步查询：按TYPE过滤并排除回收站中的PARENT_ID
+    private static final String CREATE_NOTE_TYPE_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_type_parent_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.TYPE + "," + NoteColumns.PARENT_ID + ");";
+
+    // 提醒查询：按TYPE过滤、ALERTED_DATE范围查找，索引自带rowid，可以覆盖(_id, alert_date)的投影
+    private static final String CREATE_NOTE_ALERT_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_type_alert_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.TYPE + "," + NoteColumns.ALERTED_DATE + ");";
+
+    // 小部件查询：按WIDGET_ID查找并排除回收站中的PARENT_ID
+    private static final String CREATE_NOTE_WIDGET_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_widget_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.WIDGET_ID + "," + NoteColumns.PARENT_ID + ");";
+
+    // 同步查询：按GTASK_ID查找本地笔记，note表的GTASK_ID列即持久化的gid到笔记ID的映射
+    private static final String CREATE_NOTE_GTASK_ID_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_gtask_id_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.GTASK_ID + ");";
+
     // 当更新NOTE表中的PARENT_ID字段时，增加目标文件夹的NOTE_COUNT
     private static final String NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER =
             "CREATE TRIGGER increase_folder_count_on_update " +
@@ -132,7 +180,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     "  AND " + NoteColumns.NOTES_COUNT + ">0;" +
                     " END";
 
-    // 当插入DATA时，如果类型为NOTE，则更新关联NOTE的内容
+    // 当插入DATA时，如果类型为NOTE，则更新关联NOTE的内容。预览需要去掉HTML，由NotesProvider在写入时更新
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER =
             "CREATE TRIGGER update_note_content_on_insert " +
                     " AFTER INSERT ON " + TABLE.DATA +
@@ -161,7 +209,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
                     " BEGIN" +
                     "  UPDATE " + TABLE.NOTE +
-                    "   SET " + NoteColumns.SNIPPET + "=''" +
+                    "   SET " + NoteColumns.SNIPPET + "=''," + NoteColumns.PREVIEW + "=''" +
                     "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
                     " END";
 
@@ -194,6 +242,22 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     "  WHERE " + NoteColumns.PARENT_ID + "=old." + NoteColumns.ID + ";" +
                     " END";
 
+    // 创建全文索引虚表的SQL语句，仅索引文本笔记的内容。内容是HTML，不能由触发器直接复制，
+    // 由NotesProvider写入SearchText.forIndex生成的纯文本
+    private static final String CREATE_NOTE_FTS_TABLE_SQL =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.NOTE_FTS +
+                    " USING fts4(" + DataColumns.CONTENT + ")";
+
+    // 当删除文本笔记DATA时，同步删除全文索引
+    private static final String DATA_DELETE_FTS_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER delete_fts_on_delete " +
+                    " AFTER DELETE ON " + TABLE.DATA +
+                    " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.NOTE_FTS +
+                    "   WHERE docid=old." + DataColumns.ID + ";" +
+                    " END";
+
     /**
      * 构造函数，私有化以防止外部实例化
      *
@@ -201,6 +265,90 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     public NotesDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        // 预写日志模式需要API 16的连接池支持，由用户在设置中开启
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && PreferenceUtils.isDatabaseWalEnabled(context)) {
+            // 启用后框架会为读操作维护一个连接池，读不再被同步线程的写事务阻塞
+            setWriteAheadLoggingEnabled(true);
+            mWalEnabled = true;
+            mWalSynchronous = PreferenceUtils.getDatabaseSynchronous(context);
+        }
+    }
+
+    /**
+     * 配置数据库连接，在WAL模式下设置同步级别，并限制检查点后WAL文件保留的大小。
+     * 自动检查点使用SQLite默认的1000页
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (mWalEnabled) {
+            execPragma(db, "synchronous=" + mWalSynchronous);
+            execPragma(db, "journal_size_limit=" + WAL_CHECKPOINT_SIZE);
+        }
+    }
+
+    /**
+     * 数据库打开后，如果上次运行留下的WAL文件过大则先执行检查点
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        checkpointIfLarge(db);
+    }
+
+    /**
+     * 在WAL模式下执行一次被动检查点，把WAL中的内容合并回主数据库文件。
+     * 被动检查点不会等待读者，适合在同步等大批量写入结束后调用，避免WAL文件持续增长。
+     */
+    public void checkpoint() {
+        if (mWalEnabled) {
+            execPragma(getWritableDatabase(), "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * WAL文件超过{@link #WAL_CHECKPOINT_SIZE}时执行一次被动检查点。只检查文件大小，
+     * 开销很小，可以在每次批量写入之后调用。
+     */
+    public void checkpointIfLarge() {
+        if (mWalEnabled) {
+            checkpointIfLarge(getWritableDatabase());
+        }
+    }
+
+    private void checkpointIfLarge(SQLiteDatabase db) {
+        if (!mWalEnabled) {
+            return;
+        }
+        File wal = new File(db.getPath() + "-wal");
+        if (wal.length() > WAL_CHECKPOINT_SIZE) {
+            Log.d(TAG, "Checkpoint WAL of " + wal.length() + " bytes");
+            execPragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    /**
+     * 执行可能返回结果行的PRAGMA语句，execSQL无法执行此类语句。
+     * 使用编译语句而不是rawQuery，保证语句在主连接上执行：WAL模式下rawQuery可能使用只读连接池中的连接，
+     * synchronous等按连接生效的设置不会作用到写入连接上。
+     *
+     * @param db     SQLiteDatabase 类型，数据库对象
+     * @param pragma 不带PRAGMA前缀的语句
+     */
+    private static void execPragma(SQLiteDatabase db, String pragma) {
+        SQLiteStatement statement = db.compileStatement("PRAGMA " + pragma);
+        try {
+            statement.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            // 设置类的PRAGMA不返回结果行
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -211,10 +359,24 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     public void createNoteTable(SQLiteDatabase db) {
         db.execSQL(CREATE_NOTE_TABLE_SQL);
         reCreateNoteTableTriggers(db);
+        createNoteIndexes(db);
         createSystemFolder(db);
         Log.d(TAG, "note table has been created");
     }
 
+    /**
+     * 创建NOTE表上按查询形态设计的复合索引
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createNoteIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_PARENT_ID_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_TYPE_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_ALERT_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_WIDGET_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_GTASK_ID_INDEX_SQL);
+    }
+
     /**
      * 重新创建笔记表的触发器
      *
@@ -279,6 +441,31 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         Log.d(TAG, "data table has been created");
     }
 
+    /**
+     * 创建全文索引虚表及其同步触发器
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    public void createNoteFtsTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_FTS_TABLE_SQL);
+        reCreateFtsTriggers(db);
+        Log.d(TAG, "note fts table has been created");
+    }
+
+    /**
+     * 重新创建全文索引的同步触发器。插入和更新由NotesProvider写入，只有删除由触发器处理
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void reCreateFtsTriggers(SQLiteDatabase db) {
+        // 删除旧的触发器
+        db.execSQL("DROP TRIGGER IF EXISTS insert_fts_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_fts_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_fts_on_delete");
+        // 创建新的触发器
+        db.execSQL(DATA_DELETE_FTS_ON_DELETE_TRIGGER);
+    }
+
     /**
      * 重新创建数据表的触发器
      *
@@ -317,6 +504,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         createNoteTable(db);
         createDataTable(db);
+        createNoteFtsTable(db);
     }
 
     /**
@@ -345,9 +533,31 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             upgradeToV4(db);
             oldVersion++;
         }
+        if (oldVersion == 4) {
+            upgradeToV5(db);
+            oldVersion++;
+        }
+        if (oldVersion == 5) {
+            upgradeToV6(db);
+            oldVersion++;
+        }
+        if (oldVersion == 6) {
+            upgradeToV7(db);
+            oldVersion++;
+        }
+        if (oldVersion == 7) {
+            upgradeToV8(db);
+            oldVersion++;
+        }
+        if (oldVersion == 8) {
+            upgradeToV9(db);
+            reCreateTriggers = true;
+            oldVersion++;
+        }
         if (reCreateTriggers) {
             reCreateNoteTableTriggers(db);
             reCreateDataTableTriggers(db);
+            reCreateFtsTriggers(db);
         }
         if (oldVersion != newVersion) {
             throw new IllegalStateException("Upgrade notes database to version " + newVersion
@@ -398,4 +608,94 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
-}
\ No newline at end of file
+
+    /**
+     * 从版本4升级到版本5
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV5(SQLiteDatabase db) {
+        // 创建全文索引虚表，并用已有文本笔记去掉HTML后的内容回填
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE.NOTE_FTS);
+        createNoteFtsTable(db);
+        Cursor c = db.query(TABLE.DATA, new String[]{DataColumns.ID, DataColumns.CONTENT},
+                DataColumns.MIME_TYPE + "=?", new String[]{DataConstants.NOTE}, null, null, null);
+        if (c == null) {
+            return;
+        }
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + TABLE.NOTE_FTS
+                + "(docid, " + DataColumns.CONTENT + ") VALUES (?, ?)");
+        try {
+            while (c.moveToNext()) {
+                statement.bindLong(1, c.getLong(0));
+                statement.bindString(2, SearchText.forIndex(c.getString(1)));
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+            c.close();
+        }
+    }
+
+    /**
+     * 从版本5升级到版本6
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV6(SQLiteDatabase db) {
+        // 为列表、回收站、同步、提醒和小部件查询添加复合索引
+        createNoteIndexes(db);
+    }
+
+    /**
+     * 从版本6升级到版本7
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV7(SQLiteDatabase db) {
+        // 为同步时按gid查找本地笔记添加索引
+        db.execSQL(CREATE_NOTE_GTASK_ID_INDEX_SQL);
+    }
+
+    /**
+     * 从版本7升级到版本8
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV8(SQLiteDatabase db) {
+        // 添加同步合并基准内容列，已有笔记没有记录，下次冲突时按两方合并处理
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.SYNC_BASE
+                + " TEXT");
+    }
+
+    /**
+     * 从版本8升级到版本9
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV9(SQLiteDatabase db) {
+        // 添加列表预览列，并根据已有笔记的摘要回填。文件夹的摘要是文件夹名称，原样作为预览
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.PREVIEW
+                + " TEXT NOT NULL DEFAULT ''");
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PREVIEW + "="
+                + NoteColumns.SNIPPET + " WHERE " + NoteColumns.TYPE + "<>" + Notes.TYPE_NOTE);
+        Cursor c = db.query(TABLE.NOTE, new String[]{NoteColumns.ID, NoteColumns.SNIPPET},
+                NoteColumns.SNIPPET + "<>'' AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE,
+                null, null, null, null);
+        if (c == null) {
+            return;
+        }
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.PREVIEW + "=? WHERE " + NoteColumns.ID + "=?");
+        try {
+            while (c.moveToNext()) {
+                statement.bindString(1, NotePreview.build(c.getString(1)));
+                statement.bindLong(2, c.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            statement.close();
+            c.close();
+        }
+    }
+}
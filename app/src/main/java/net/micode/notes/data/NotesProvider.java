@@ -4,28 +4,45 @@
  * - 查询：根据不同的URI进行查询，包括查询全部笔记、单个笔记、全部数据和单个数据。
  * - 插入：插入新的笔记或数据到数据库中，并返回插入数据的URI。
  * - 删除：删除符合条件的笔记或数据，并返回被删除的行数。
- * - 更新：更新符合条件的笔记或数据，并返回被更新的行数。更新笔记时会增加笔记的版本号。
+ * - 更新：更新符合条件的笔记或数据，并返回被更新的行数。更新笔记时在同一条语句中增加笔记的版本号。
+ * - 预览：写入笔记摘要或文本内容时同时更新列表预览列，列表不需要读取完整的内容。
  * - 数据通知：在数据改变时，通过ContentResolver发送通知，以便相关的观察者可以及时更新数据。
- * - 搜索建议：支持根据关键词模糊搜索笔记的标题和内容，并提供搜索建议功能。
+ * - 批量操作：applyBatch和bulkInsert在同一个事务中执行，变更通知在批量操作结束后合并发送。
+ * - 搜索建议：基于全文索引按关键词前缀搜索笔记内容，并提供搜索建议功能。
  */
 package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.NotePreview;
+import net.micode.notes.tool.SearchText;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
 
 public class NotesProvider extends ContentProvider {
     private static final UriMatcher mMatcher;
@@ -42,6 +59,9 @@ public class NotesProvider extends ContentProvider {
     private static final int URI_SEARCH = 5;
     private static final int URI_SEARCH_SUGGEST = 6;
 
+    // 批量操作期间暂存的变更通知，按线程隔离，为null表示当前不在批量操作中
+    private final ThreadLocal<HashSet<Uri>> mPendingNotifications = new ThreadLocal<HashSet<Uri>>();
+
     // 初始化UriMatcher，用于匹配不同的URI请求
     static {
         mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -59,8 +79,8 @@ public class NotesProvider extends ContentProvider {
      */
     private static final String NOTES_SEARCH_PROJECTION = NoteColumns.ID + ","
             + NoteColumns.ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA + ","
-            + "TRIM(REPLACE(" + NoteColumns.SNIPPET + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
-            + "TRIM(REPLACE(" + NoteColumns.SNIPPET + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
+            + "TRIM(REPLACE(" + NoteColumns.PREVIEW + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
+            + "TRIM(REPLACE(" + NoteColumns.PREVIEW + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
             + R.drawable.search_result + " AS " + SearchManager.SUGGEST_COLUMN_ICON_1 + ","
             + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
             + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
@@ -72,6 +92,31 @@ public class NotesProvider extends ContentProvider {
             + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
             + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
 
+    /**
+     * 全文检索使用的投影，列名需要带上表名以避免与data表的列冲突。
+     */
+    private static final String NOTES_FTS_SEARCH_PROJECTION = TABLE.NOTE + "." + NoteColumns.ID + ","
+            + TABLE.NOTE + "." + NoteColumns.ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA + ","
+            + "TRIM(REPLACE(" + TABLE.NOTE + "." + NoteColumns.PREVIEW + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
+            + "TRIM(REPLACE(" + TABLE.NOTE + "." + NoteColumns.PREVIEW + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
+            + R.drawable.search_result + " AS " + SearchManager.SUGGEST_COLUMN_ICON_1 + ","
+            + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
+            + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
+
+    /**
+     * 基于全文索引的搜索查询。FTS4没有内置的bm25函数，最后一列返回matchinfo()，
+     * 由{@link #rankSearchResults}在内存中按BM25得分排序；查询结果先按修改时间倒序，得分相同时保持该顺序。
+     */
+    private static final String NOTES_FTS_SEARCH_QUERY = "SELECT " + NOTES_FTS_SEARCH_PROJECTION + ","
+            + "matchinfo(" + TABLE.NOTE_FTS + ",'" + SearchText.MATCH_INFO_FORMAT + "')"
+            + " FROM " + TABLE.NOTE_FTS
+            + " JOIN " + TABLE.DATA + " ON " + TABLE.DATA + "." + DataColumns.ID + "=" + TABLE.NOTE_FTS + ".docid"
+            + " JOIN " + TABLE.NOTE + " ON " + TABLE.NOTE + "." + NoteColumns.ID + "=" + TABLE.DATA + "." + DataColumns.NOTE_ID
+            + " WHERE " + TABLE.NOTE_FTS + " MATCH ?"
+            + " AND " + TABLE.NOTE + "." + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+            + " AND " + TABLE.NOTE + "." + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+            + " ORDER BY " + TABLE.NOTE + "." + NoteColumns.MODIFIED_DATE + " DESC";
+
     /**
      * 当ContentProvider被创建时调用，用于初始化数据库帮助类。
      *
@@ -102,8 +147,9 @@ public class NotesProvider extends ContentProvider {
         // 根据URI匹配查询类型
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
+                // 分页加载列表时通过URI参数限制行数
                 c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+                        sortOrder, parseLimit(uri));
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
@@ -141,9 +187,16 @@ public class NotesProvider extends ContentProvider {
                 }
 
                 try {
-                    searchString = String.format("%%%s%%", searchString);
-                    c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-                            new String[]{searchString});
+                    String matchString = SearchText.toMatchQuery(searchString);
+                    if (matchString != null) {
+                        c = rankSearchResults(db.rawQuery(NOTES_FTS_SEARCH_QUERY,
+                                new String[]{matchString}));
+                    } else {
+                        // 关键词中没有文字和数字（如只有标点）时，全文索引无法匹配，退回到模糊匹配
+                        searchString = String.format("%%%s%%", searchString);
+                        c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
+                                new String[]{searchString});
+                    }
                 } catch (IllegalStateException ex) {
                     Log.e(TAG, "got exception: " + ex.toString());
                 }
@@ -171,7 +224,7 @@ public class NotesProvider extends ContentProvider {
         long dataId = 0, noteId = 0, insertedId = 0;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                insertedId = noteId = db.insert(TABLE.NOTE, null, values);
+                insertedId = noteId = db.insert(TABLE.NOTE, null, withPreview(values));
                 break;
             case URI_DATA:
                 if (values.containsKey(DataColumns.NOTE_ID)) {
@@ -180,19 +233,24 @@ public class NotesProvider extends ContentProvider {
                     Log.d(TAG, "Wrong data format without note id:" + values.toString());
                 }
                 insertedId = dataId = db.insert(TABLE.DATA, null, values);
+                if (dataId > 0 && values.containsKey(DataColumns.CONTENT)
+                        && DataConstants.NOTE.equals(values.getAsString(DataColumns.MIME_TYPE))) {
+                    updateSearchIndex(db, dataId, values.getAsString(DataColumns.CONTENT));
+                    if (noteId > 0) {
+                        updatePreview(db, noteId, values.getAsString(DataColumns.CONTENT));
+                    }
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         // 通知URI改变
         if (noteId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
         }
 
         if (dataId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
         }
 
         return ContentUris.withAppendedId(uri, insertedId);
@@ -245,9 +303,9 @@ public class NotesProvider extends ContentProvider {
         // 通知URI改变
         if (count > 0) {
             if (deleteData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return count;
     }
@@ -269,23 +327,28 @@ public class NotesProvider extends ContentProvider {
         boolean updateData = false;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                increaseNoteVersion(-1, selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, selection, selectionArgs);
+                count = updateNoteWithVersion(db, values, selection, selectionArgs);
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
-                increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
+                count = updateNoteWithVersion(db, values, NoteColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs);
                 break;
             case URI_DATA:
                 count = db.update(TABLE.DATA, values, selection, selectionArgs);
+                if (count > 0 && values.containsKey(DataColumns.CONTENT)) {
+                    refreshPreviews(db, selection, selectionArgs);
+                }
                 updateData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
                 count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs);
+                if (count > 0 && values.containsKey(DataColumns.CONTENT)) {
+                    // 附加条件可能依赖已经更新的列，重新查询时只按ID匹配
+                    refreshPreviews(db, DataColumns.ID + "=" + id, null);
+                }
                 updateData = true;
                 break;
             default:
@@ -295,13 +358,265 @@ public class NotesProvider extends ContentProvider {
         // 通知URI改变
         if (count > 0) {
             if (updateData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+    /**
+     * 插入笔记时同时写入由摘要生成的预览。没有指定类型时按数据库默认值视为普通笔记。
+     *
+     * @param values 插入笔记的数据，不会被修改。
+     * @return 需要写入的数据。
+     */
+    private static ContentValues withPreview(ContentValues values) {
+        if (values == null || !values.containsKey(NoteColumns.SNIPPET)
+                || values.containsKey(NoteColumns.PREVIEW)) {
+            return values;
+        }
+        Integer type = values.getAsInteger(NoteColumns.TYPE);
+        ContentValues result = new ContentValues(values);
+        result.put(NoteColumns.PREVIEW, buildPreview(type == null ? Notes.TYPE_NOTE : type,
+                values.getAsString(NoteColumns.SNIPPET)));
+        return result;
+    }
+
+    /**
+     * 根据摘要生成预览。只有普通笔记的摘要是HTML内容，文件夹的摘要是文件夹名称，原样保存。
+     *
+     * @param type    笔记类型。
+     * @param snippet 摘要。
+     * @return 预览文本，摘要为空时返回空字符串。
+     */
+    private static String buildPreview(int type, String snippet) {
+        if (type == Notes.TYPE_NOTE) {
+            return NotePreview.build(snippet);
+        }
+        return snippet == null ? "" : snippet;
+    }
+
+    /**
+     * 文本数据的内容更新后，重新生成所属笔记的预览和全文索引。触发器已将内容复制到摘要，
+     * 这里只需要写入去掉HTML后的预览和索引文本。
+     *
+     * @param db            可写数据库。
+     * @param selection     更新数据时使用的条件。
+     * @param selectionArgs 与条件配合使用的参数。
+     */
+    private void refreshPreviews(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        String where = DataColumns.MIME_TYPE + "=?" + parseSelection(selection);
+        String[] args = new String[1 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        args[0] = DataConstants.NOTE;
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        }
+        Cursor c = db.query(TABLE.DATA, new String[]{DataColumns.NOTE_ID, DataColumns.CONTENT,
+                DataColumns.ID}, where, args, null, null, null);
+        if (c == null) {
+            return;
+        }
+        try {
+            while (c.moveToNext()) {
+                updatePreview(db, c.getLong(0), c.getString(1));
+                updateSearchIndex(db, c.getLong(2), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 写入笔记的预览。预览由内容派生，不增加笔记版本。
+     *
+     * @param db      可写数据库。
+     * @param noteId  笔记ID。
+     * @param content 笔记的文本内容。
+     */
+    private void updatePreview(SQLiteDatabase db, long noteId, String content) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.PREVIEW + "=? WHERE " + NoteColumns.ID + "=?");
+        try {
+            statement.bindString(1, NotePreview.build(content));
+            statement.bindLong(2, noteId);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 写入文本数据的全文索引。索引的是去掉HTML后的纯文本，中文按字切分，
+     * 删除数据时由触发器删除对应的索引。
+     *
+     * @param db      可写数据库。
+     * @param dataId  数据ID，即索引的docid。
+     * @param content 数据的文本内容。
+     */
+    private void updateSearchIndex(SQLiteDatabase db, long dataId, String content) {
+        db.execSQL("DELETE FROM " + TABLE.NOTE_FTS + " WHERE docid=?", new Object[]{dataId});
+        db.execSQL("INSERT INTO " + TABLE.NOTE_FTS + "(docid, " + DataColumns.CONTENT
+                + ") VALUES (?, ?)", new Object[]{dataId, SearchText.forIndex(content)});
+    }
+
+    /**
+     * 按BM25得分对全文检索的结果排序。游标的最后一列是matchinfo()，不包含在返回的结果中。
+     *
+     * @param c 全文检索的结果，会被关闭。
+     * @return 排序后的结果。
+     */
+    private static Cursor rankSearchResults(Cursor c) {
+        if (c == null) {
+            return null;
+        }
+        try {
+            int columnCount = c.getColumnCount() - 1;
+            String[] columns = new String[columnCount];
+            System.arraycopy(c.getColumnNames(), 0, columns, 0, columnCount);
+            final ArrayList<Object[]> rows = new ArrayList<Object[]>(c.getCount());
+            final ArrayList<Double> scores = new ArrayList<Double>(c.getCount());
+            while (c.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = c.getType(i) == Cursor.FIELD_TYPE_INTEGER ? (Object) c.getLong(i)
+                            : c.getString(i);
+                }
+                rows.add(row);
+                scores.add(SearchText.bm25(SearchText.parseMatchInfo(c.getBlob(columnCount))));
+            }
+
+            Integer[] order = new Integer[rows.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // 排序是稳定的，得分相同的结果保持修改时间倒序
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer lhs, Integer rhs) {
+                    return Double.compare(scores.get(rhs), scores.get(lhs));
+                }
+            });
+            MatrixCursor result = new MatrixCursor(columns, order.length);
+            for (Integer index : order) {
+                result.addRow(rows.get(index));
+            }
+            return result;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 在同一个事务中执行一组操作。每个操作仍然按原有逻辑处理，但只提交一次事务，
+     * 各操作产生的变更通知会在事务提交后合并发送。
+     *
+     * @param operations 要执行的操作列表。
+     * @return 每个操作的执行结果。
+     * @throws OperationApplicationException 任一操作失败时抛出，整个批量操作回滚。
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean success = false;
+        ContentProviderResult[] results;
+        mPendingNotifications.set(new HashSet<Uri>());
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            flushNotifications(success);
         }
+        // 批量写入可能让WAL文件增长很多，超过阈值时合并回主数据库文件
+        mHelper.checkpointIfLarge();
+        return results;
+    }
+
+    /**
+     * 在同一个事务中插入多行数据，变更通知在事务提交后合并发送。
+     *
+     * @param uri    插入数据的URI。
+     * @param values 要插入的多行数据。
+     * @return 插入的行数。
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean success = false;
+        int count = 0;
+        mPendingNotifications.set(new HashSet<Uri>());
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insert(uri, value) != null) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            flushNotifications(success);
+        }
+        // 批量写入可能让WAL文件增长很多，超过阈值时合并回主数据库文件
+        mHelper.checkpointIfLarge();
         return count;
     }
 
+    /**
+     * 发送变更通知。批量操作期间只记录URI，等批量操作结束后统一发送。
+     *
+     * @param uri 发生变更的URI。
+     */
+    private void notifyChange(Uri uri) {
+        HashSet<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * 结束批量操作并发送暂存的变更通知。涉及多个URI时折叠为所属集合的URI，
+     * 观察单条记录的观察者同样会收到其祖先URI的通知，因此每个集合只需通知一次。
+     *
+     * @param committed 事务是否已提交，回滚时丢弃所有通知。
+     */
+    private void flushNotifications(boolean committed) {
+        HashSet<Uri> pending = mPendingNotifications.get();
+        mPendingNotifications.set(null);
+        if (!committed || pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        if (pending.size() > 1) {
+            HashSet<Uri> collections = new HashSet<Uri>();
+            for (Uri uri : pending) {
+                switch (mMatcher.match(uri)) {
+                    case URI_NOTE:
+                    case URI_NOTE_ITEM:
+                        collections.add(Notes.CONTENT_NOTE_URI);
+                        break;
+                    case URI_DATA:
+                    case URI_DATA_ITEM:
+                        collections.add(Notes.CONTENT_DATA_URI);
+                        break;
+                    default:
+                        collections.add(uri);
+                        break;
+                }
+            }
+            pending = collections;
+        }
+
+        for (Uri uri : pending) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
 
     /**
      * 解析选择条件，如果存在选择条件，则在条件前后添加" AND (" 和 ')'。
@@ -314,37 +629,162 @@ public class NotesProvider extends ContentProvider {
     }
 
     /**
-     * 增加指定笔记的版本号。
+     * 解析URI中的行数限制参数。
      *
-     * @param id            笔记的ID，如果为正数，则根据ID更新版本号；如果为0或负数，则根据selection参数更新版本号。
-     * @param selection     用于选择需要更新的笔记的条件字符串，可以为空。
-     * @param selectionArgs 与selection参数配合使用的参数数组，用于替换selection中的"?"。
+     * @param uri 查询的URI。
+     * @return 行数限制，没有或无效时返回null。
      */
-    private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
-        StringBuilder sql = new StringBuilder(120);
-        sql.append("UPDATE ");
-        sql.append(TABLE.NOTE);
-        sql.append(" SET ");
-        sql.append(NoteColumns.VERSION);
-        sql.append("=" + NoteColumns.VERSION + "+1 ");
-
-        // 根据ID或选择条件构建SQL的WHERE子句
-        if (id > 0 || !TextUtils.isEmpty(selection)) {
-            sql.append(" WHERE ");
-        }
-        if (id > 0) {
-            sql.append(NoteColumns.ID + "=" + String.valueOf(id));
-        }
-        if (!TextUtils.isEmpty(selection)) {
-            String selectString = id > 0 ? parseSelection(selection) : selection;
-            // 替换selection中的"?"为selectionArgs中的对应参数
-            for (String args : selectionArgs) {
-                selectString = selectString.replaceFirst("\\?", args);
+    private static String parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(Notes.QUERY_PARAMETER_LIMIT);
+        if (TextUtils.isEmpty(limit)) {
+            return null;
+        }
+        try {
+            return String.valueOf(Math.max(0, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid limit " + limit);
+            return null;
+        }
+    }
+
+    /**
+     * 更新笔记并在同一条UPDATE语句中增加其版本号。所有值和条件参数都以绑定参数传入，
+     * 相同列集合生成的SQL文本相同，可以复用连接中已编译的语句。
+     * 如果values中显式指定了版本号，则以指定的值为准，不再自增。
+     * 更新摘要时同时更新预览，values中没有类型时按每一行原有的类型决定是否生成预览。
+     *
+     * @param db            可写数据库。
+     * @param values        要更新到的数据。
+     * @param whereClause   更新条件，可以为空。
+     * @param whereArgs     与更新条件配合使用的参数。
+     * @return 返回被更新的行数。
+     */
+    private int updateNoteWithVersion(SQLiteDatabase db, ContentValues values, String whereClause,
+            String[] whereArgs) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        String snippet = null;
+        boolean previewByType = false;
+        if (values.containsKey(NoteColumns.SNIPPET) && !values.containsKey(NoteColumns.PREVIEW)) {
+            snippet = values.getAsString(NoteColumns.SNIPPET);
+            Integer type = values.getAsInteger(NoteColumns.TYPE);
+            if (type != null) {
+                values = new ContentValues(values);
+                values.put(NoteColumns.PREVIEW, buildPreview(type, snippet));
+            } else {
+                previewByType = true;
+            }
+        }
+
+        StringBuilder sql = new StringBuilder(160);
+        sql.append("UPDATE ").append(TABLE.NOTE).append(" SET ");
+        Object[] bindArgs = new Object[values.size() + (previewByType ? 2 : 0)
+                + (whereArgs == null ? 0 : whereArgs.length)];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            sql.append(i > 0 ? "," : "").append(entry.getKey()).append("=?");
+            bindArgs[i++] = entry.getValue();
+        }
+        if (previewByType) {
+            sql.append(",").append(NoteColumns.PREVIEW).append("=CASE WHEN ")
+                    .append(NoteColumns.TYPE).append("=").append(Notes.TYPE_NOTE)
+                    .append(" THEN ? ELSE ? END");
+            bindArgs[i++] = buildPreview(Notes.TYPE_NOTE, snippet);
+            bindArgs[i++] = buildPreview(Notes.TYPE_FOLDER, snippet);
+        }
+        if (!values.containsKey(NoteColumns.VERSION)) {
+            sql.append(",").append(NoteColumns.VERSION).append("=").append(NoteColumns.VERSION).append("+1");
+        }
+        if (!TextUtils.isEmpty(whereClause)) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        if (whereArgs != null) {
+            for (String arg : whereArgs) {
+                bindArgs[i++] = arg;
+            }
+        }
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (int index = 0; index < bindArgs.length; index++) {
+                bindArg(statement, index + 1, bindArgs[index]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 在一个事务中批量写入笔记的同步ID。同步ID只用于同步时判断远程是否有修改，
+     * 不增加笔记版本，也不发送变更通知。
+     *
+     * @param noteIds 笔记ID数组。
+     * @param syncIds 与笔记ID一一对应的同步ID数组。
+     */
+    private void updateSyncIds(long[] noteIds, long[] syncIds) {
+        if (noteIds == null || syncIds == null || noteIds.length != syncIds.length) {
+            throw new IllegalArgumentException("Mismatched sync id arrays");
+        }
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.SYNC_ID + "=? WHERE " + NoteColumns.ID + "=?");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < noteIds.length; i++) {
+                statement.bindLong(1, syncIds[i]);
+                statement.bindLong(2, noteIds[i]);
+                statement.executeUpdateDelete();
             }
-            sql.append(selectString);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * 按值的类型将参数绑定到已编译的语句上。
+     */
+    private static void bindArg(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
         }
+    }
 
-        mHelper.getWritableDatabase().execSQL(sql.toString());
+    /**
+     * 执行提供者自定义的方法。目前支持：
+     * {@link Notes#METHOD_CHECKPOINT}，用于在批量写入后合并WAL文件；
+     * {@link Notes#METHOD_UPDATE_SYNC_IDS}，用于同步结束后批量写入同步ID。
+     *
+     * @param method 方法名。
+     * @param arg    方法参数，未使用。
+     * @param extras 附加参数。
+     * @return 总是返回null。
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_CHECKPOINT.equals(method)) {
+            mHelper.checkpoint();
+        } else if (Notes.METHOD_UPDATE_SYNC_IDS.equals(method)) {
+            updateSyncIds(extras.getLongArray(Notes.EXTRA_NOTE_IDS),
+                    extras.getLongArray(Notes.EXTRA_SYNC_IDS));
+        } else {
+            Log.w(TAG, "Unknown method " + method);
+        }
+        return null;
     }
 
     /**
@@ -4,33 +4,58 @@
 package net.micode.notes.gtask.data;
 
 import android.database.Cursor;// 导入Android数据库Cursor类，用于操作数据库
+import android.text.TextUtils;
 import android.util.Log;// 导入Android日志类，用于记录日志信息
 
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.tool.GTaskStringUtils;// 导入应用程序自定义的工具类，可能包含一些字符串处理的工具方法
 
+import org.json.JSONArray;
 import org.json.JSONException;// 导入JSON异常类，用于处理JSON操作中的异常
 import org.json.JSONObject;// 导入JSON对象类，用于表示JSON格式的数据
 
+import java.util.Iterator;
+
 public class MetaData extends Task {// 定义MetaData类，继承自Task类
     private final static String TAG = MetaData.class.getSimpleName(); // 定义一个日志标签，用于日志输出时标识来源
 
     private String mRelatedGid = null; // 定义一个私有成员变量，用于存储与任务相关的全局ID
 
+    /*
+     * 紧凑格式中保留的笔记列。其余的列可以从任务本身得到（名称、修改时间、所在列表），
+     * 或者只在本机有意义（小部件、附件标志），不再上传。
+     */
+    private static final String[] COMPACT_NOTE_COLUMNS = new String[]{
+            NoteColumns.ID, NoteColumns.TYPE, NoteColumns.BG_COLOR_ID, NoteColumns.ALERTED_DATE,
+            NoteColumns.CREATED_DATE
+    };
+
     /**
-     * 设置元数据。
+     * 设置元数据。元信息以紧凑格式保存：笔记只保留任务无法表示的列，
+     * 数据项只保留ID和MIME类型，文本笔记的内容由任务名称表示。
      *
      * @param gid      任务的全局ID。
-     * @param metaInfo 元信息的JSON对象。
+     * @param metaInfo 元信息的JSON对象，格式与SqlNote.getContent()相同。
      */
     public void setMeta(String gid, JSONObject metaInfo) {
+        JSONObject compact;
+        try {
+            compact = compact(metaInfo);
+        } catch (JSONException e) {
+            // 无法压缩时按旧格式保存完整的元信息
+            Log.w(TAG, "failed to compact meta info: " + e.toString());
+            compact = metaInfo;
+        }
         try {// 将任务的全局ID添加到元信息的JSON对象中
-            metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid); // 将任务的全局ID添加到元信息中
+            compact.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid); // 将任务的全局ID添加到元信息中
         } catch (JSONException e) {
             // 如果添加失败，记录错误日志
             Log.e(TAG, "failed to put related gid");
         }
         // 将元信息的JSON对象字符串设置为任务的笔记字段
-        setNotes(metaInfo.toString()); 
+        setNotes(compact.toString());
         // 设置任务的名称为特定的元数据标志名称
         setName(GTaskStringUtils.META_NOTE_NAME);
     }
@@ -45,6 +70,110 @@ public class MetaData extends Task {// 定义MetaData类，继承自Task类
         return mRelatedGid;
     }
 
+    /**
+     * 解析元信息。旧格式直接返回完整的元信息；紧凑格式转换为旧格式的结构，
+     * 笔记的修改时间取自对应任务的修改时间，文本内容由Task根据任务名称填充。
+     *
+     * @param lastModified 元数据对应任务的修改时间。
+     * @return 元信息的JSON对象，解析失败时返回null。
+     */
+    public JSONObject getMetaInfo(long lastModified) {
+        if (getNotes() == null) {
+            return null;
+        }
+        try {
+            JSONObject metaInfo = new JSONObject(getNotes());
+            int version = metaInfo.optInt(GTaskStringUtils.META_HEAD_VERSION, 1);
+            if (version >= GTaskStringUtils.META_VERSION_COMPACT
+                    && metaInfo.has(GTaskStringUtils.META_HEAD_NOTE)) {
+                JSONObject note = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+                if (!note.has(NoteColumns.MODIFIED_DATE)) {
+                    note.put(NoteColumns.MODIFIED_DATE, lastModified);
+                }
+            }
+            return metaInfo;
+        } catch (JSONException e) {
+            Log.w(TAG, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 用本地笔记的值补全远程元信息中缺少的笔记列。紧凑格式不包含小部件等只在本机有意义的列，
+     * 用远程内容更新本地笔记时需要保留这些列原来的值。
+     *
+     * @param remote 远程元信息，会被直接修改。
+     * @param local  本地笔记的内容，格式与SqlNote.getContent()相同。
+     */
+    public static void fillMissingNoteColumns(JSONObject remote, JSONObject local) {
+        if (remote == null || local == null) {
+            return;
+        }
+        try {
+            if (!remote.has(GTaskStringUtils.META_HEAD_NOTE)
+                    || !local.has(GTaskStringUtils.META_HEAD_NOTE)) {
+                return;
+            }
+            JSONObject remoteNote = remote.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+            JSONObject localNote = local.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+            Iterator<String> keys = localNote.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!remoteNote.has(key)) {
+                    remoteNote.put(key, localNote.get(key));
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, e.toString());
+        }
+    }
+
+    /*
+     * 将SqlNote.getContent()格式的元信息转换为紧凑格式。
+     * 数据项的DATA1、DATA3为默认值时省略，非文本笔记的数据项保留内容。
+     */
+    private static JSONObject compact(JSONObject metaInfo) throws JSONException {
+        JSONObject compact = new JSONObject();
+        compact.put(GTaskStringUtils.META_HEAD_VERSION, GTaskStringUtils.META_VERSION_COMPACT);
+
+        JSONObject note = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        JSONObject compactNote = new JSONObject();
+        for (String column : COMPACT_NOTE_COLUMNS) {
+            if (note.has(column)) {
+                compactNote.put(column, note.get(column));
+            }
+        }
+        compact.put(GTaskStringUtils.META_HEAD_NOTE, compactNote);
+
+        JSONArray dataArray = metaInfo.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+        JSONArray compactArray = new JSONArray();
+        if (dataArray != null) {
+            for (int i = 0; i < dataArray.length(); i++) {
+                JSONObject data = dataArray.getJSONObject(i);
+                JSONObject compactData = new JSONObject();
+                if (data.has(DataColumns.ID)) {
+                    compactData.put(DataColumns.ID, data.getLong(DataColumns.ID));
+                }
+                String mimeType = data.optString(DataColumns.MIME_TYPE, DataConstants.NOTE);
+                compactData.put(DataColumns.MIME_TYPE, mimeType);
+                String content = data.optString(DataColumns.CONTENT);
+                if (!TextUtils.equals(mimeType, DataConstants.NOTE) && !TextUtils.isEmpty(content)) {
+                    compactData.put(DataColumns.CONTENT, content);
+                }
+                if (data.optLong(DataColumns.DATA1) != 0) {
+                    compactData.put(DataColumns.DATA1, data.getLong(DataColumns.DATA1));
+                }
+                String data3 = data.optString(DataColumns.DATA3);
+                if (!TextUtils.isEmpty(data3)) {
+                    compactData.put(DataColumns.DATA3, data3);
+                }
+                compactArray.put(compactData);
+            }
+        }
+        compact.put(GTaskStringUtils.META_HEAD_DATA, compactArray);
+        return compact;
+    }
+
     /**
      * 判断任务是否值得保存。
      *
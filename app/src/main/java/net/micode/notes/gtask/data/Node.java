@@ -6,6 +6,7 @@
 package net.micode.notes.gtask.data;// 定义了这个类所在的包名，表明这个类是net.micode.notes.gtask.data包下的一个类。
 
 import android.database.Cursor;// 导入了android数据库的Cursor类，用于操作数据库。
+import android.text.TextUtils;
 
 import org.json.JSONObject;// 导入了JSON工具类，用于处理JSON格式的数据。
 
@@ -22,11 +23,17 @@ public abstract class Node {
     public static final int SYNC_ACTION_UPDATE_CONFLICT = 7; // 更新冲突
     public static final int SYNC_ACTION_ERROR = 8; // 同步错误
 
+    // 以下是需要同步到远程的字段标志，更新动作只包含标记为已修改的字段。
+    public static final int FIELD_NAME = 0x1; // 名称
+    public static final int FIELD_NOTES = 0x2; // 备注
+    public static final int FIELD_DELETED = 0x4; // 删除标志
+
     // 定义节点的基本属性
     private String mGid; // 全局唯一标识符
     private String mName; // 节点名称
     private long mLastModified; // 最后修改时间
     private boolean mDeleted; // 节点是否被删除的标志
+    private int mDirtyFields; // 自上次与远程一致以来修改过的字段
 
     // 构造函数，初始化节点属性
     public Node() {
@@ -34,6 +41,7 @@ public abstract class Node {
         mName = "";
         mLastModified = 0;
         mDeleted = false;
+        mDirtyFields = 0;
     }
 
     // 生成创建节点的JSON动作
@@ -61,6 +69,9 @@ public abstract class Node {
 
     // 设置节点名称
     public void setName(String name) {
+        if (!TextUtils.equals(this.mName, name)) {
+            markFieldDirty(FIELD_NAME);
+        }
         this.mName = name;
     }
 
@@ -71,9 +82,32 @@ public abstract class Node {
 
     // 设置节点是否被删除
     public void setDeleted(boolean deleted) {
+        if (this.mDeleted != deleted) {
+            markFieldDirty(FIELD_DELETED);
+        }
         this.mDeleted = deleted;
     }
 
+    // 标记字段已修改，需要在下一次更新动作中发送
+    protected void markFieldDirty(int field) {
+        this.mDirtyFields |= field;
+    }
+
+    // 判断字段自上次与远程一致以来是否修改过
+    public boolean isFieldDirty(int field) {
+        return (this.mDirtyFields & field) != 0;
+    }
+
+    // 判断是否有需要发送到远程的修改
+    public boolean hasDirtyFields() {
+        return this.mDirtyFields != 0;
+    }
+
+    // 清除修改标志，在节点内容与远程一致（从远程加载或动作已加入队列）后调用
+    public void clearDirtyFields() {
+        this.mDirtyFields = 0;
+    }
+
     // 获取节点的全局唯一标识符
     public String getGid() {
         return this.mGid;
@@ -4,12 +4,12 @@
  */
 package net.micode.notes.gtask.data;
 // 导入了Android框架中的相关类，用于数据库操作、内容解析、日志记录等。
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
 import android.util.Log;
 // 导入了项目中自定义的类，用于数据操作和异常处理。
 import net.micode.notes.data.Notes;
@@ -43,9 +43,6 @@ public class SqlData {
     public static final int DATA_CONTENT_DATA_1_COLUMN = 3;
     public static final int DATA_CONTENT_DATA_3_COLUMN = 4;
 
-    // ContentResolver用于操作内容提供者
-    private ContentResolver mContentResolver;
-
     // 标记当前对象是创建状态还是更新状态
     private boolean mIsCreate;
 
@@ -69,11 +66,10 @@ public class SqlData {
 
     /*
      * SqlData 构造函数，用于创建新的数据项。
-     * @param context 上下文对象，用于获取ContentResolver。
+     * @param context 上下文对象，保留以与SqlNote的构造方式一致。
      */
     public SqlData(Context context) {
         // 初始化成员变量，设置默认的MIME类型和空内容。
-        mContentResolver = context.getContentResolver();
         mIsCreate = true;
         mDataId = INVALID_ID;
         mDataMimeType = DataConstants.NOTE;
@@ -85,12 +81,11 @@ public class SqlData {
 
     /*
      * SqlData 构造函数，用于加载现有数据项。
-     * @param context 上下文对象，用于获取ContentResolver。
+     * @param context 上下文对象，保留以与SqlNote的构造方式一致。
      * @param c 数据项的Cursor对象，用于加载数据。
      */
     public SqlData(Context context, Cursor c) {
         // 初始化成员变量，并通过Cursor加载数据。
-        mContentResolver = context.getContentResolver();
         mIsCreate = false;
         loadFromCursor(c);
         mDiffDataValues = new ContentValues();
@@ -170,48 +165,65 @@ public class SqlData {
     }
 
     /*
-     * 将数据项提交到数据库，如果是新数据项则插入，否则更新。
-     * @param noteId 符合此数据项的笔记ID。
+     * 构造将数据项写入数据库的操作，如果是新数据项则插入，否则更新。没有需要写入的内容时返回null。
+     * 操作与所属笔记的操作一起批量执行，执行结果通过onCommitted交回。
+     * @param noteId 所属笔记的ID，noteBackRef不小于0时忽略。
+     * @param noteBackRef 笔记插入操作在批量操作中的位置，数据项与笔记一起创建时使用，否则为-1。
      * @param validateVersion 是否验证版本号。
-     * @param version 数据项的版本号。
+     * @param version 笔记的版本号。
      */
-    public void commit(long noteId, boolean validateVersion, long version) {
-// 根据当前状态（创建或更新）执行不同的数据库操作。
+    ContentProviderOperation buildCommitOperation(long noteId, int noteBackRef,
+                                                  boolean validateVersion, long version) {
         if (mIsCreate) {
             // 处理新数据项的插入
             if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
                 mDiffDataValues.remove(DataColumns.ID);
             }
 
-            mDiffDataValues.put(DataColumns.NOTE_ID, noteId);
-            Uri uri = mContentResolver.insert(Notes.CONTENT_DATA_URI, mDiffDataValues);
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(Notes.CONTENT_DATA_URI);
+            if (noteBackRef >= 0) {
+                mDiffDataValues.remove(DataColumns.NOTE_ID);
+                builder.withValues(mDiffDataValues).withValueBackReference(DataColumns.NOTE_ID,
+                        noteBackRef);
+            } else {
+                mDiffDataValues.put(DataColumns.NOTE_ID, noteId);
+                builder.withValues(mDiffDataValues);
+            }
+            return builder.build();
+        }
+
+        // 处理现有数据项的更新
+        if (mDiffDataValues.size() == 0) {
+            return null;
+        }
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+                ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mDataId))
+                .withValues(mDiffDataValues);
+        if (validateVersion) {
+            // 验证版本号时条件更新
+            builder.withSelection(" ? in (SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                    + " WHERE " + NoteColumns.VERSION + "=?)", new String[]{
+                    String.valueOf(noteId), String.valueOf(version)
+            });
+        }
+        return builder.build();
+    }
+
+    /*
+     * 数据项的写入操作执行后调用，保存新数据项的ID并清理状态。
+     * @param result 写入操作的执行结果。
+     */
+    void onCommitted(ContentProviderResult result) {
+        if (mIsCreate) {
             try {
-                mDataId = Long.valueOf(uri.getPathSegments().get(1));
+                mDataId = Long.valueOf(result.uri.getPathSegments().get(1));
             } catch (NumberFormatException e) {
                 Log.e(TAG, "Get note id error :" + e.toString());
                 throw new ActionFailureException("create note failed");
             }
-        } else {
-            // 处理现有数据项的更新
-            if (mDiffDataValues.size() > 0) {
-                int result = 0;
-                if (!validateVersion) {
-                    // 不验证版本号时直接更新
-                    result = mContentResolver.update(ContentUris.withAppendedId(
-                            Notes.CONTENT_DATA_URI, mDataId), mDiffDataValues, null, null);
-                } else {
-                    // 验证版本号时条件更新
-                    result = mContentResolver.update(ContentUris.withAppendedId(
-                                    Notes.CONTENT_DATA_URI, mDataId), mDiffDataValues,
-                            " ? in (SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
-                                    + " WHERE " + NoteColumns.VERSION + "=?)", new String[]{
-                                    String.valueOf(noteId), String.valueOf(version)
-                            });
-                }
-                if (result == 0) {
-                    Log.w(TAG, "there is no update. maybe user updates note when syncing");
-                }
-            }
+        } else if (result.count != null && result.count == 0) {
+            Log.w(TAG, "there is no update. maybe user updates note when syncing");
         }
 
         // 清理并重置状态
@@ -17,11 +17,14 @@
 package net.micode.notes.gtask.data;
 
 import android.appwidget.AppWidgetManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
-import android.net.Uri;
+import android.os.RemoteException;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
@@ -56,7 +59,7 @@ public class SqlNote {
             NoteColumns.NOTES_COUNT, NoteColumns.PARENT_ID, NoteColumns.SNIPPET, NoteColumns.TYPE,
             NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE, NoteColumns.SYNC_ID,
             NoteColumns.LOCAL_MODIFIED, NoteColumns.ORIGIN_PARENT_ID, NoteColumns.GTASK_ID,
-            NoteColumns.VERSION
+            NoteColumns.VERSION, NoteColumns.SYNC_BASE
     };
 
     // 各查询列的索引
@@ -77,6 +80,7 @@ public class SqlNote {
     public static final int ORIGIN_PARENT_ID_COLUMN = 14;
     public static final int GTASK_ID_COLUMN = 15;
     public static final int VERSION_COLUMN = 16;
+    public static final int SYNC_BASE_COLUMN = 17;
 
     // 上下文和内容解析器，用于访问数据库
     private Context mContext;
@@ -100,6 +104,10 @@ public class SqlNote {
     private long mOriginParent;
     private long mVersion;
 
+    // 由触发器或并发修改改变、本地值可能已过期的列，在需要时才重新读取
+    private boolean mSnippetStale;
+    private boolean mVersionStale;
+
     // 用于存储两次更新之间差异的数据值
     private ContentValues mDiffNoteValues;
 
@@ -204,6 +212,29 @@ public class SqlNote {
         mVersion = c.getLong(VERSION_COLUMN);
     }
 
+    /**
+     * 重新读取由触发器生成或可能被并发修改的列。
+     */
+    private void reloadDerivedColumns() {
+        Cursor c = mContentResolver.query(Notes.CONTENT_NOTE_URI, new String[]{
+                NoteColumns.SNIPPET, NoteColumns.VERSION
+        }, "(_id=?)", new String[]{
+                String.valueOf(mId)
+        }, null);
+        if (c != null) {
+            try {
+                if (c.moveToFirst()) {
+                    mSnippet = c.getString(0);
+                    mVersion = c.getLong(1);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        mSnippetStale = false;
+        mVersionStale = false;
+    }
+
     /**
      * 加载数据内容。
      * 从数据库中查询特定note_id的数据，并将其加载到mDataList中。
@@ -328,11 +359,38 @@ public class SqlNote {
 
             JSONObject note = new JSONObject();
             // 根据笔记类型，填充不同的信息到note JSONObject中
-            // 该部分通过条件判断，根据mType选择需要填充的信息
-
-            // 将note和data信息添加到js中
-            js.put(GTaskStringUtils.META_HEAD_NOTE, note);
-            // 处理数据项数组，将其添加到js中
+            if (mType == Notes.TYPE_NOTE) {
+                note.put(NoteColumns.ID, mId);
+                note.put(NoteColumns.ALERTED_DATE, mAlertDate);
+                note.put(NoteColumns.BG_COLOR_ID, mBgColorId);
+                note.put(NoteColumns.CREATED_DATE, mCreatedDate);
+                note.put(NoteColumns.HAS_ATTACHMENT, mHasAttachment);
+                note.put(NoteColumns.MODIFIED_DATE, mModifiedDate);
+                note.put(NoteColumns.PARENT_ID, mParentId);
+                note.put(NoteColumns.SNIPPET, mSnippet);
+                note.put(NoteColumns.TYPE, mType);
+                note.put(NoteColumns.WIDGET_ID, mWidgetId);
+                note.put(NoteColumns.WIDGET_TYPE, mWidgetType);
+                note.put(NoteColumns.ORIGIN_PARENT_ID, mOriginParent);
+                // 将note和data信息添加到js中
+                js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+
+                // 处理数据项数组，将其添加到js中
+                JSONArray dataArray = new JSONArray();
+                for (SqlData sqlData : mDataList) {
+                    JSONObject data = sqlData.getContent();
+                    if (data != null) {
+                        dataArray.put(data);
+                    }
+                }
+                js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+            } else if (mType == Notes.TYPE_FOLDER || mType == Notes.TYPE_SYSTEM) {
+                // 文件夹只需要id、类型和名称
+                note.put(NoteColumns.ID, mId);
+                note.put(NoteColumns.TYPE, mType);
+                note.put(NoteColumns.SNIPPET, mSnippet);
+                js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+            }
 
             return js;
         } catch (JSONException e) {
@@ -371,6 +429,15 @@ public class SqlNote {
         mDiffNoteValues.put(NoteColumns.SYNC_ID, syncId);
     }
 
+    /**
+     * 设置同步合并基准内容。
+     *
+     * @param base 本次同步后本地与远程一致的笔记文本。
+     */
+    public void setSyncBase(String base) {
+        mDiffNoteValues.put(NoteColumns.SYNC_BASE, base);
+    }
+
     /**
      * 重置本地修改标志。
      */
@@ -397,11 +464,14 @@ public class SqlNote {
     }
 
     /**
-     * 获取snippet。
+     * 获取snippet。笔记的snippet由数据项的触发器生成，数据项提交后首次获取时重新读取。
      *
      * @return 笔记的snippet。
      */
     public String getSnippet() {
+        if (mSnippetStale) {
+            reloadDerivedColumns();
+        }
         return mSnippet;
     }
 
@@ -415,40 +485,25 @@ public class SqlNote {
     }
 
     /**
-     * 提交对笔记的更改或创建新的笔记。
+     * 提交对笔记的更改或创建新的笔记。笔记和其所有数据项在一次批量操作中写入，
+     * 提交后本地状态即为写入的内容，不再重新读取；由触发器生成的列在需要时才重新读取。
      *
      * @param validateVersion 是否验证版本号。如果为 true，则在更新笔记时会检查版本号以避免并发更新的问题。
      *                        如果为 false，则不进行版本号检查。
      *                        这个参数主要用于处理客户端在同步过程中可能同时更新同一笔记的情况。
      */
     public void commit(boolean validateVersion) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int noteOperation = -1;
         if (mIsCreate) { // 处理创建新笔记的逻辑
             // 在创建新笔记时，如果ID是无效的（即未指定），且包含了ID字段，则移除该字段
             if (mId == INVALID_ID && mDiffNoteValues.containsKey(NoteColumns.ID)) {
                 mDiffNoteValues.remove(NoteColumns.ID);
             }
 
-            // 使用ContentResolver插入新的笔记数据
-            Uri uri = mContentResolver.insert(Notes.CONTENT_NOTE_URI, mDiffNoteValues);
-            try {
-                // 从插入返回的URI中解析出新笔记的ID
-                mId = Long.valueOf(uri.getPathSegments().get(1));
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Get note id error :" + e.toString());
-                // 如果无法解析出ID，抛出异常
-                throw new ActionFailureException("create note failed");
-            }
-            // 检查解析出的ID是否有效
-            if (mId == 0) {
-                throw new IllegalStateException("Create thread id failed");
-            }
-
-            // 如果是创建笔记类型，提交关联数据
-            if (mType == Notes.TYPE_NOTE) {
-                for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, false, -1);
-                }
-            }
+            noteOperation = operations.size();
+            operations.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                    .withValues(mDiffNoteValues).build());
         } else { // 处理更新现有笔记的逻辑
             // 如果指定的笔记ID无效或不存在，抛出异常
             if (mId <= 0 && mId != Notes.ID_ROOT_FOLDER && mId != Notes.ID_CALL_RECORD_FOLDER) {
@@ -457,39 +512,82 @@ public class SqlNote {
             }
             // 如果有差异的数据需要更新，则进行更新
             if (mDiffNoteValues.size() > 0) {
+                if (validateVersion && mVersionStale) {
+                    reloadDerivedColumns();
+                }
                 mVersion++; // 更新版本号
-                int result = 0;
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newUpdate(Notes.CONTENT_NOTE_URI).withValues(mDiffNoteValues);
                 // 根据是否验证版本号，执行不同的更新逻辑
                 if (!validateVersion) {
-                    result = mContentResolver.update(Notes.CONTENT_NOTE_URI, mDiffNoteValues, "("
-                            + NoteColumns.ID + "=?)", new String[]{
+                    builder.withSelection("(" + NoteColumns.ID + "=?)", new String[]{
                             String.valueOf(mId)
                     });
                 } else {
-                    result = mContentResolver.update(Notes.CONTENT_NOTE_URI, mDiffNoteValues, "("
-                                    + NoteColumns.ID + "=?) AND (" + NoteColumns.VERSION + "<=?)",
-                            new String[]{
-                                    String.valueOf(mId), String.valueOf(mVersion)
-                            });
-                }
-                // 如果更新结果为0，说明没有进行任何更新，可能是由于同步时用户同时更新了笔记
-                if (result == 0) {
-                    Log.w(TAG, "there is no update. maybe user updates note when syncing");
+                    builder.withSelection("(" + NoteColumns.ID + "=?) AND (" + NoteColumns.VERSION
+                            + "<=?)", new String[]{
+                            String.valueOf(mId), String.valueOf(mVersion)
+                    });
                 }
+                noteOperation = operations.size();
+                operations.add(builder.build());
             }
+        }
 
-            // 如果是笔记类型，提交关联数据
-            if (mType == Notes.TYPE_NOTE) {
-                for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, validateVersion, mVersion);
+        // 如果是笔记类型，关联数据与笔记在同一批次中提交，新建笔记的数据项引用笔记插入操作的结果
+        int firstDataOperation = operations.size();
+        ArrayList<SqlData> committedData = new ArrayList<SqlData>();
+        if (mType == Notes.TYPE_NOTE) {
+            for (SqlData sqlData : mDataList) {
+                ContentProviderOperation operation = mIsCreate
+                        ? sqlData.buildCommitOperation(0, noteOperation, false, -1)
+                        : sqlData.buildCommitOperation(mId, -1, validateVersion, mVersion);
+                if (operation != null) {
+                    operations.add(operation);
+                    committedData.add(sqlData);
                 }
             }
         }
 
-        // 刷新本地信息，加载最新数据
-        loadFromCursor(mId);
-        if (mType == Notes.TYPE_NOTE)
-            loadDataContent();
+        if (!operations.isEmpty()) {
+            ContentProviderResult[] results;
+            try {
+                results = mContentResolver.applyBatch(Notes.AUTHORITY, operations);
+            } catch (RemoteException e) {
+                Log.e(TAG, e.toString());
+                throw new ActionFailureException("commit note failed");
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, e.toString());
+                throw new ActionFailureException("commit note failed");
+            }
+
+            if (mIsCreate) {
+                try {
+                    // 从插入返回的URI中解析出新笔记的ID
+                    mId = Long.valueOf(results[noteOperation].uri.getPathSegments().get(1));
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Get note id error :" + e.toString());
+                    // 如果无法解析出ID，抛出异常
+                    throw new ActionFailureException("create note failed");
+                }
+                // 检查解析出的ID是否有效
+                if (mId == 0) {
+                    throw new IllegalStateException("Create thread id failed");
+                }
+            } else if (noteOperation >= 0 && results[noteOperation].count == 0) {
+                // 如果更新结果为0，说明没有进行任何更新，可能是由于同步时用户同时更新了笔记，此时版本号需要重新读取
+                Log.w(TAG, "there is no update. maybe user updates note when syncing");
+                mVersionStale = true;
+            }
+
+            for (int i = 0; i < committedData.size(); i++) {
+                committedData.get(i).onCommitted(results[firstDataOperation + i]);
+            }
+            // 笔记的snippet由数据项的触发器生成
+            if (!committedData.isEmpty()) {
+                mSnippetStale = true;
+            }
+        }
 
         // 清空差异数据，重置创建状态
         mDiffNoteValues.clear();
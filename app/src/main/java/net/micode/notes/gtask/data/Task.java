@@ -144,13 +144,17 @@ public class Task extends Node {
             // 设置任务ID
             js.put(GTaskStringUtils.GTASK_JSON_ID, getGid());
 
-            // 设置任务实体信息
+            // 设置任务实体信息，只包含修改过的字段
             JSONObject entity = new JSONObject();
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            if (getNotes() != null) {
+            if (isFieldDirty(FIELD_NAME)) {
+                entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
+            }
+            if (isFieldDirty(FIELD_NOTES) && getNotes() != null) {
                 entity.put(GTaskStringUtils.GTASK_JSON_NOTES, getNotes());
             }
-            entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
+            if (isFieldDirty(FIELD_DELETED)) {
+                entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
+            }
             js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
 
         } catch (JSONException e) {
@@ -195,6 +199,9 @@ public class Task extends Node {
                 if (js.has(GTaskStringUtils.GTASK_JSON_COMPLETED)) {
                     setCompleted(js.getBoolean(GTaskStringUtils.GTASK_JSON_COMPLETED));
                 }
+
+                // 内容与远程一致
+                clearDirtyFields();
             } catch (JSONException e) {
                 Log.e(TAG, e.toString());
                 e.printStackTrace();
@@ -294,12 +301,7 @@ public class Task extends Node {
      */
     public void setMetaInfo(MetaData metaData) {
         if (metaData != null && metaData.getNotes() != null) {
-            try {
-                mMetaInfo = new JSONObject(metaData.getNotes());
-            } catch (JSONException e) {
-                Log.w(TAG, e.toString());
-                mMetaInfo = null;
-            }
+            mMetaInfo = metaData.getMetaInfo(getLastModified());
         }
     }
 
@@ -379,6 +381,9 @@ public class Task extends Node {
     }
 
     public void setNotes(String notes) {
+        if (!TextUtils.equals(this.mNotes, notes)) {
+            markFieldDirty(FIELD_NOTES);
+        }
         this.mNotes = notes;
     }
 
@@ -28,6 +28,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 
 /**
@@ -43,12 +45,20 @@ public class TaskList extends Node {
     // 存储子任务的列表
     private ArrayList<Task> mChildren;
 
+    // 子任务到其在列表中位置的索引，按对象identity比较
+    private IdentityHashMap<Task, Integer> mChildIndex;
+
+    // 子任务gid到子任务的索引，添加时还没有gid的子任务在查找未命中时再补充
+    private HashMap<String, Task> mChildByGid;
+
     /**
      * 构造函数，初始化任务列表。
      */
     public TaskList() {
         super();
         mChildren = new ArrayList<Task>();
+        mChildIndex = new IdentityHashMap<Task, Integer>();
+        mChildByGid = new HashMap<String, Task>();
         mIndex = 1;
     }
 
@@ -111,10 +121,14 @@ public class TaskList extends Node {
             // 设置任务列表ID
             js.put(GTaskStringUtils.GTASK_JSON_ID, getGid());
 
-            // 设置实体变化信息
+            // 设置实体变化信息，只包含修改过的字段
             JSONObject entity = new JSONObject();
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
+            if (isFieldDirty(FIELD_NAME)) {
+                entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
+            }
+            if (isFieldDirty(FIELD_DELETED)) {
+                entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
+            }
             js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
 
         } catch (JSONException e) {
@@ -150,6 +164,8 @@ public class TaskList extends Node {
                     setName(js.getString(GTaskStringUtils.GTASK_JSON_NAME));
                 }
 
+                // 内容与远程一致
+                clearDirtyFields();
             } catch (JSONException e) {
                 Log.e(TAG, e.toString());
                 e.printStackTrace();
@@ -277,19 +293,21 @@ public class TaskList extends Node {
     }
 
     /**
-     * 添加一个子任务到列表中。
+     * 添加一个子任务到列表末尾。
      *
      * @param task 要添加的子任务
      * @return 如果添加成功返回true，否则返回false
      */
     public boolean addChildTask(Task task) {
         boolean ret = false;
-        if (task != null && !mChildren.contains(task)) {
+        if (task != null && !mChildIndex.containsKey(task)) {
+            // 设置前置兄弟节点为原来的最后一个子任务
+            Task preTask = mChildren.isEmpty() ? null : mChildren.get(mChildren.size() - 1);
             ret = mChildren.add(task);
             if (ret) {
-                // 设置前置兄弟节点和父节点
-                task.setPriorSibling(mChildren.isEmpty() ? null : mChildren
-                        .get(mChildren.size() - 1));
+                mChildIndex.put(task, mChildren.size() - 1);
+                indexGid(task);
+                task.setPriorSibling(preTask);
                 task.setParent(this);
             }
         }
@@ -309,9 +327,10 @@ public class TaskList extends Node {
             return false;
         }
 
-        int pos = mChildren.indexOf(task);
-        if (task != null && pos == -1) {
+        if (task != null && !mChildIndex.containsKey(task)) {
             mChildren.add(index, task);
+            reindexFrom(index);
+            indexGid(task);
 
             // 更新任务列表
             Task preTask = null;
@@ -322,6 +341,7 @@ public class TaskList extends Node {
                 afterTask = mChildren.get(index + 1);
 
             task.setPriorSibling(preTask);
+            task.setParent(this);
             if (afterTask != null)
                 afterTask.setPriorSibling(task);
         }
@@ -337,20 +357,23 @@ public class TaskList extends Node {
      */
     public boolean removeChildTask(Task task) {
         boolean ret = false;
-        int index = mChildren.indexOf(task);
-        if (index != -1) {
-            ret = mChildren.remove(task);
+        Integer index = mChildIndex.remove(task);
+        if (index != null) {
+            mChildren.remove(index.intValue());
+            reindexFrom(index);
+            if (task.getGid() != null && mChildByGid.get(task.getGid()) == task) {
+                mChildByGid.remove(task.getGid());
+            }
+            ret = true;
 
-            if (ret) {
-                // 重置前置兄弟节点和父节点
-                task.setPriorSibling(null);
-                task.setParent(null);
-
-                // 更新任务列表
-                if (index != mChildren.size()) {
-                    mChildren.get(index).setPriorSibling(
-                            index == 0 ? null : mChildren.get(index - 1));
-                }
+            // 重置前置兄弟节点和父节点
+            task.setPriorSibling(null);
+            task.setParent(null);
+
+            // 更新任务列表
+            if (index != mChildren.size()) {
+                mChildren.get(index).setPriorSibling(
+                        index == 0 ? null : mChildren.get(index - 1));
             }
         }
         return ret;
@@ -369,8 +392,8 @@ public class TaskList extends Node {
             return false;
         }
 
-        int pos = mChildren.indexOf(task);
-        if (pos == -1) {
+        Integer pos = mChildIndex.get(task);
+        if (pos == null) {
             Log.e(TAG, "move child task: the task should in the list");
             return false;
         }
@@ -387,14 +410,20 @@ public class TaskList extends Node {
      * @return 如果找到匹配的子任务，则返回该任务对象；否则返回null。
      */
     public Task findChildTaskByGid(String gid) {
-        // 遍历子任务列表，查找gid匹配的子任务
-        for (int i = 0; i < mChildren.size(); i++) {
-            Task t = mChildren.get(i);
-            if (t.getGid().equals(gid)) {
-                return t;
-            }
+        if (gid == null) {
+            return null;
+        }
+        Task t = mChildByGid.get(gid);
+        if (t != null && gid.equals(t.getGid())) {
+            return t;
+        }
+
+        // 子任务可能在添加之后才取得或更换gid，重建索引后再查找
+        mChildByGid.clear();
+        for (Task task : mChildren) {
+            indexGid(task);
         }
-        return null;
+        return mChildByGid.get(gid);
     }
 
     /**
@@ -404,8 +433,8 @@ public class TaskList extends Node {
      * @return 子任务在列表中的索引位置；如果未找到该任务，则返回-1。
      */
     public int getChildTaskIndex(Task task) {
-        // 返回任务在子任务列表中的索引
-        return mChildren.indexOf(task);
+        Integer index = mChildIndex.get(task);
+        return index == null ? -1 : index;
     }
 
     /**
@@ -424,22 +453,31 @@ public class TaskList extends Node {
     }
 
     /**
-     * 通过遍历子任务列表，查找并返回匹配指定gid的子任务。
+     * 查找并返回匹配指定gid的子任务。
      *
      * @param gid 要查找的子任务的全局标识符
      * @return 如果找到匹配的子任务，则返回该任务对象；否则返回null。
      */
     public Task getChilTaskByGid(String gid) {
-        // 遍历子任务列表，查找gid匹配的子任务
-        for (Task task : mChildren) {
-            if (task.getGid().equals(gid))
-                return task;
+        return findChildTaskByGid(gid);
+    }
+
+    // 将有gid的子任务加入gid索引
+    private void indexGid(Task task) {
+        if (task.getGid() != null) {
+            mChildByGid.put(task.getGid(), task);
+        }
+    }
+
+    // 更新从指定位置开始的子任务的位置索引
+    private void reindexFrom(int start) {
+        for (int i = start; i < mChildren.size(); i++) {
+            mChildIndex.put(mChildren.get(i), i);
         }
-        return null;
     }
 
     /**
-     * 获取所有子任务的列表。
+     * 获取所有子任务的列表。返回的列表只应读取，修改子任务请使用添加、移除和移动方法。
      *
      * @return 子任务列表，作为一个ArrayList<Task>返回。
      */
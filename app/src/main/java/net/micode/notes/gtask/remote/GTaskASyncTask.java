@@ -17,7 +17,7 @@ import net.micode.notes.ui.NotesListActivity;
 import net.micode.notes.ui.NotesPreferenceActivity;
 
 
-public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
+public class GTaskASyncTask extends AsyncTask<Void, GTaskASyncTask.Progress, Integer> {
 
     // 同步通知的唯一ID
     private static int GTASK_SYNC_NOTIFICATION_ID = 5234235;
@@ -27,10 +27,25 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
         void onComplete();
     }
 
+    // 同步进度，total为0时表示没有可计算的总数
+    static class Progress {
+        final String message;
+        final int done;
+        final int total;
+
+        Progress(String message, int done, int total) {
+            this.message = message;
+            this.done = done;
+            this.total = total;
+        }
+    }
+
     private Context mContext; // 上下文对象，用于访问应用资源和通知管理器
     private NotificationManager mNotifiManager; // 通知管理器
     private GTaskManager mTaskManager; // Google任务管理器，用于执行实际的同步操作
     private OnCompleteListener mOnCompleteListener; // 同步完成的监听器
+    private int mResult = GTaskManager.STATE_INTERNAL_ERROR; // 同步操作的状态码
+    private boolean mShowNotification = true; // 是否在通知栏显示同步进度和结果
 
     /*
      * 构造函数
@@ -45,6 +60,16 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
         mTaskManager = GTaskManager.getInstance();
     }
 
+    // 获取同步操作的状态码，在完成监听器中调用
+    public int getResult() {
+        return mResult;
+    }
+
+    // 设置是否显示同步通知，调度的后台同步不打扰用户，在执行前调用
+    public void setShowNotification(boolean show) {
+        mShowNotification = show;
+    }
+
     // 取消同步操作的方法
     public void cancelSync() {
         mTaskManager.cancelSync();
@@ -52,9 +77,12 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
 
     // 发布进度更新的方法
     public void publishProgess(String message) {
-        publishProgress(new String[]{
-                message
-        });
+        publishProgess(message, 0, 0);
+    }
+
+    // 发布带有已完成数和总数的进度更新，通知中同时显示进度条
+    public void publishProgess(String message, int done, int total) {
+        publishProgress(new Progress(message, done, total));
     }
 
     /*
@@ -63,6 +91,20 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
      * @param content 通知的内容文本
      */
     private void showNotification(int tickerId, String content) {
+        showNotification(tickerId, content, 0, 0);
+    }
+
+    /*
+     * 显示带进度条的通知
+     * @param tickerId 通知的Ticker文本资源ID
+     * @param content 通知的内容文本
+     * @param done 已完成数
+     * @param total 总数，为0时不显示进度条
+     */
+    private void showNotification(int tickerId, String content, int done, int total) {
+        if (!mShowNotification) {
+            return;
+        }
         PendingIntent pendingIntent;
         // 根据不同的通知状态设置不同的Intent
         if (tickerId != R.string.ticker_success) {
@@ -82,6 +124,9 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
                 .setContentIntent(pendingIntent)
                 .setWhen(System.currentTimeMillis())
                 .setOngoing(true);
+        if (total > 0) {
+            builder.setProgress(total, done, false);
+        }
         Notification notification = builder.getNotification();
         mNotifiManager.notify(GTASK_SYNC_NOTIFICATION_ID, notification);
     }
@@ -103,13 +148,12 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
      * @param progress 进度更新的内容
      */
     @Override
-    protected void onProgressUpdate(String... progress) {
+    protected void onProgressUpdate(Progress... progress) {
         // 显示当前同步进度
-        showNotification(R.string.ticker_syncing, progress[0]);
-        // 如果上下文是一个GTaskSyncService实例，发送广播更新进度
-        if (mContext instanceof GTaskSyncService) {
-            ((GTaskSyncService) mContext).sendBroadcast(progress[0]);
-        }
+        showNotification(R.string.ticker_syncing, progress[0].message, progress[0].done,
+                progress[0].total);
+        // 发送广播更新进度，服务和GTaskSyncJobService执行的同步都需要
+        GTaskSyncService.sendBroadcast(mContext, progress[0].message);
     }
 
     /*
@@ -118,6 +162,7 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
      */
     @Override
     protected void onPostExecute(Integer result) {
+        mResult = result;
         // 根据不同的状态显示不同的通知
         if (result == GTaskManager.STATE_SUCCESS) {
             showNotification(R.string.ticker_success, mContext.getString(
@@ -20,9 +20,12 @@ import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.accounts.AccountManagerFuture;
 import android.app.Activity;
+import android.content.Context;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.Task;
@@ -30,32 +33,30 @@ import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
-import net.micode.notes.ui.NotesPreferenceActivity;
+import net.micode.notes.tool.PreferenceUtils;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.cookie.Cookie;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -78,11 +79,17 @@ public class GTaskClient {
     // 用于提交任务信息的URL
     private static final String GTASK_POST_URL = "https://mail.google.com/tasks/r/ig";
 
+    // 连接池中每个主机的最大连接数，决定了可以并发执行的请求数
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+
     // 单例模式实例
     private static GTaskClient mInstance = null;
 
-    // HTTP客户端
-    private DefaultHttpClient mHttpClient;
+    // HTTP客户端，连接池在登录之间复用
+    private final GTaskHttpClient mHttpClient;
+
+    // 替代Google服务器的服务地址，为null时使用Google服务器
+    private String mServerUrl;
 
     // GET请求URL
     private String mGetUrl;
@@ -105,15 +112,151 @@ public class GTaskClient {
     // 用户账户信息
     private Account mAccount;
 
-    // 用于存储更新数据的JSON数组
+    // 用于存储排队动作的JSON数组
     private JSONArray mUpdateArray;
 
+    // 排队动作按UTF-8编码的总字节数
+    private int mUpdateBytes;
+
+    // 当前批次中等待创建的节点
+    private ArrayList<PendingCreate> mPendingCreates;
+
+    // 当前批次中修改远程节点的动作ID及其节点，提交后用响应中的修改时间更新节点
+    private HashMap<Integer, Node> mActionNodes;
+
+    // 一次请求中最多包含的动作数
+    private int mMaxBatchActions;
+
+    // 已发送的POST请求数
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    // 已接收的响应字节数（解压前）
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+
+    // 一次请求中动作的默认最大数量
+    public static final int DEFAULT_MAX_BATCH_ACTIONS = 50;
+
+    // 一次请求中动作按UTF-8编码的最大总字节数
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * 节点创建完成的监听器，在节点所在批次提交并取得gid后回调。
+     */
+    public interface OnNodeCreatedListener {
+        void onNodeCreated(Node node) throws NetworkFailureException;
+    }
+
+    /**
+     * 流式解析响应时逐个处理数组元素的处理器。
+     */
+    public interface JSONObjectHandler {
+        void handle(JSONObject js);
+    }
+
+    // 根据动作ID构造动作，使动作ID在决定批次之后分配
+    private interface ActionFactory {
+        JSONObject create(int actionId);
+    }
+
+    // 等待创建的节点及其动作ID和监听器
+    private static class PendingCreate {
+        final int actionId;
+        final Node node;
+        final OnNodeCreatedListener listener;
+
+        PendingCreate(int actionId, Node node, OnNodeCreatedListener listener) {
+            this.actionId = actionId;
+            this.node = node;
+            this.listener = listener;
+        }
+    }
+
+    // 读取POST请求的响应，streamArray不为null时将其中的元素逐个交给handler
+    private class PostResponseReader extends GTaskHttpClient.ResponseReader<JSONObject> {
+        private final String mStreamArray;
+        private final JSONObjectHandler mHandler;
+
+        // 已经交给handler的元素不能重复处理，此后失败时不再重试
+        private boolean mHandled;
+
+        PostResponseReader(String streamArray, JSONObjectHandler handler) {
+            mStreamArray = streamArray;
+            mHandler = handler;
+        }
+
+        @Override
+        public JSONObject read(HttpEntity entity) throws IOException, JSONException {
+            JsonReader reader = openResponseReader(entity);
+            try {
+                if (mStreamArray == null) {
+                    return readJSONObject(reader);
+                }
+
+                JSONObject jsResponse = new JSONObject();
+                boolean found = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals(mStreamArray)) {
+                        found = true;
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            JSONObject js = readJSONObject(reader);
+                            mHandled = true;
+                            mHandler.handle(js);
+                        }
+                        reader.endArray();
+                    } else {
+                        jsResponse.put(name, readJSONValue(reader));
+                    }
+                }
+                reader.endObject();
+                if (!found) {
+                    throw new JSONException("no " + mStreamArray + " in response");
+                }
+                return jsResponse;
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        public boolean canRetry() {
+            return !mHandled;
+        }
+    }
+
+    // 统计读取字节数的输入流
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mReceivedBytes.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                mReceivedBytes.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
     /**
      * GTaskClient的私有构造方法，初始化各种属性。
      */
     private GTaskClient() {
         // 初始化客户端
-        mHttpClient = null;
+        mHttpClient = new GTaskHttpClient(MAX_CONNECTIONS_PER_ROUTE);
         mGetUrl = GTASK_GET_URL;
         mPostUrl = GTASK_POST_URL;
         mClientVersion = -1;
@@ -122,6 +265,10 @@ public class GTaskClient {
         mActionId = 1;
         mAccount = null;
         mUpdateArray = null;
+        mUpdateBytes = 0;
+        mPendingCreates = new ArrayList<PendingCreate>();
+        mActionNodes = new HashMap<Integer, Node>();
+        mMaxBatchActions = DEFAULT_MAX_BATCH_ACTIONS;
     }
 
     /**
@@ -140,10 +287,11 @@ public class GTaskClient {
     /**
      * 用户登录函数。
      *
-     * @param activity 当前活动，用于获取账户信息和上下文。
+     * @param context  上下文，用于获取账户信息。
+     * @param activity 当前活动，用于在需要时请求用户授权；后台同步时为null，需要授权时由系统发出通知。
      * @return 登录成功返回true，失败返回false。
      */
-    public boolean login(Activity activity) {
+    public boolean login(Context context, Activity activity) {
         // 检查登录是否过期
         final long interval = 1000 * 60 * 5; // 5分钟
         if (mLastLoginTime + interval < System.currentTimeMillis()) {
@@ -152,8 +300,8 @@ public class GTaskClient {
 
         // 检查账户是否切换，需要重新登录
         if (mLoggedin
-                && !TextUtils.equals(getSyncAccount().name, NotesPreferenceActivity
-                .getSyncAccountName(activity))) {
+                && !TextUtils.equals(getSyncAccount().name, PreferenceUtils
+                .getSyncAccountName(context))) {
             mLoggedin = false;
         }
 
@@ -166,12 +314,23 @@ public class GTaskClient {
         // 记录当前登录时间
         mLastLoginTime = System.currentTimeMillis();
         // 尝试登录Google账户
-        String authToken = loginGoogleAccount(activity, false);
+        String authToken = loginGoogleAccount(context, activity, false);
         if (authToken == null) {
             Log.e(TAG, "login google account failed");
             return false;
         }
 
+        // 使用替代的服务地址时不尝试其他地址
+        if (mServerUrl != null) {
+            mGetUrl = mServerUrl + "ig";
+            mPostUrl = mServerUrl + "r/ig";
+            if (!tryToLoginGtask(context, activity, authToken)) {
+                return false;
+            }
+            mLoggedin = true;
+            return true;
+        }
+
         // 如果是自定义域名邮箱，则尝试使用自定义域名登录
         if (!(mAccount.name.toLowerCase().endsWith("gmail.com") || mAccount.name.toLowerCase()
                 .endsWith("googlemail.com"))) {
@@ -184,7 +343,7 @@ public class GTaskClient {
             mPostUrl = url.toString() + "r/ig";
 
             // 尝试使用自定义域名登录
-            if (tryToLoginGtask(activity, authToken)) {
+            if (tryToLoginGtask(context, activity, authToken)) {
                 mLoggedin = true;
             }
         }
@@ -193,7 +352,7 @@ public class GTaskClient {
         if (!mLoggedin) {
             mGetUrl = GTASK_GET_URL;
             mPostUrl = GTASK_POST_URL;
-            if (!tryToLoginGtask(activity, authToken)) {
+            if (!tryToLoginGtask(context, activity, authToken)) {
                 return false;
             }
         }
@@ -207,14 +366,15 @@ public class GTaskClient {
     /**
      * 使用Google账户登录，获取授权令牌。
      *
-     * @param activity        当前活动，用于获取账户管理器。
+     * @param context         上下文，用于获取账户管理器。
+     * @param activity        当前活动，可以为null。
      * @param invalidateToken 是否吊销之前的令牌并重新获取。
      * @return 返回获取到的授权令牌，如果失败或没有可用账户返回null。
      */
-    private String loginGoogleAccount(Activity activity, boolean invalidateToken) {
+    private String loginGoogleAccount(Context context, Activity activity, boolean invalidateToken) {
         String authToken;
         // 获取账户管理器和所有Google账户
-        AccountManager accountManager = AccountManager.get(activity);
+        AccountManager accountManager = AccountManager.get(context);
         Account[] accounts = accountManager.getAccountsByType("com.google");
 
         // 检查是否有可用的Google账户
@@ -224,7 +384,7 @@ public class GTaskClient {
         }
 
         // 根据设置中的账户名选择账户
-        String accountName = NotesPreferenceActivity.getSyncAccountName(activity);
+        String accountName = PreferenceUtils.getSyncAccountName(context);
         Account account = null;
         for (Account a : accounts) {
             if (a.name.equals(accountName)) {
@@ -240,16 +400,22 @@ public class GTaskClient {
             return null;
         }
 
-        // 获取授权令牌
-        AccountManagerFuture<Bundle> accountManagerFuture = accountManager.getAuthToken(account,
-                "goanna_mobile", null, activity, null, null);
+        // 获取授权令牌，没有Activity时不弹出界面，需要用户授权时由系统发出通知
+        AccountManagerFuture<Bundle> accountManagerFuture;
+        if (activity != null) {
+            accountManagerFuture = accountManager.getAuthToken(account, "goanna_mobile", null,
+                    activity, null, null);
+        } else {
+            accountManagerFuture = accountManager.getAuthToken(account, "goanna_mobile", null,
+                    true, null, null);
+        }
         try {
             Bundle authTokenBundle = accountManagerFuture.getResult();
             authToken = authTokenBundle.getString(AccountManager.KEY_AUTHTOKEN);
             // 如果需要，吊销令牌并重新获取
-            if (invalidateToken) {
+            if (invalidateToken && authToken != null) {
                 accountManager.invalidateAuthToken("com.google", authToken);
-                loginGoogleAccount(activity, false);
+                authToken = loginGoogleAccount(context, activity, false);
             }
         } catch (Exception e) {
             Log.e(TAG, "get auth token failed");
@@ -262,15 +428,16 @@ public class GTaskClient {
     /**
      * 尝试使用授权令牌登录Gtask。
      *
-     * @param activity  当前活动，用于登录过程中的UI交互。
+     * @param context   上下文，用于获取账户管理器。
+     * @param activity  当前活动，用于登录过程中的UI交互，可以为null。
      * @param authToken 授权令牌。
      * @return 如果登录成功返回true，否则返回false。
      */
-    private boolean tryToLoginGtask(Activity activity, String authToken) {
+    private boolean tryToLoginGtask(Context context, Activity activity, String authToken) {
         // 首次尝试登录Gtask
         if (!loginGtask(authToken)) {
             // 如果失败，尝试吊销令牌并重新获取后再次登录
-            authToken = loginGoogleAccount(activity, true);
+            authToken = loginGoogleAccount(context, activity, true);
             if (authToken == null) {
                 Log.e(TAG, "login google account failed");
                 return false;
@@ -292,28 +459,36 @@ public class GTaskClient {
      * @return 登录成功返回true，失败返回false。
      */
     private boolean loginGtask(String authToken) {
-        // 设置HTTP连接参数
-        int timeoutConnection = 10000;
-        int timeoutSocket = 15000;
-        HttpParams httpParameters = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(httpParameters, timeoutConnection);
-        HttpConnectionParams.setSoTimeout(httpParameters, timeoutSocket);
-        mHttpClient = new DefaultHttpClient(httpParameters);
-        BasicCookieStore localBasicCookieStore = new BasicCookieStore();
-        mHttpClient.setCookieStore(localBasicCookieStore);
-        HttpProtocolParams.setUseExpectContinue(mHttpClient.getParams(), false);
+        // 重新登录时只清除Cookie，连接池中的连接继续复用
+        mHttpClient.clearCookies();
 
         // 使用授权令牌登录Gtask
         try {
             String loginUrl = mGetUrl + "?auth=" + authToken;
             HttpGet httpGet = new HttpGet(loginUrl);
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
+            mClientVersion = mHttpClient.execute(httpGet, true,
+                    new GTaskHttpClient.ResponseReader<Long>() {
+                        public Long read(HttpEntity entity) throws IOException, JSONException {
+                            // 解析响应，获取客户端版本
+                            JsonReader reader = openSetupReader(entity);
+                            try {
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    if (reader.nextName().equals("v")) {
+                                        return reader.nextLong();
+                                    }
+                                    reader.skipValue();
+                                }
+                                throw new JSONException("no client version in setup object");
+                            } finally {
+                                reader.close();
+                            }
+                        }
+                    });
 
             // 检查是否获取到授权Cookie
-            List<Cookie> cookies = mHttpClient.getCookieStore().getCookies();
             boolean hasAuthCookie = false;
-            for (Cookie cookie : cookies) {
+            for (Cookie cookie : mHttpClient.getCookies()) {
                 if (cookie.getName().contains("GTL")) {
                     hasAuthCookie = true;
                 }
@@ -321,19 +496,6 @@ public class GTaskClient {
             if (!hasAuthCookie) {
                 Log.w(TAG, "it seems that there is no auth cookie");
             }
-
-            // 解析响应，获取客户端版本
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
-            }
-            JSONObject js = new JSONObject(jsString);
-            mClientVersion = js.getLong("v");
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -346,13 +508,37 @@ public class GTaskClient {
         return true;
     }
 
+    /**
+     * 设置替代Google服务器的服务地址，用于连接实现相同协议的本地服务器，测量同步的耗时和流量。
+     * 地址以"/"结尾，登录页面为地址加"ig"，动作请求为地址加"r/ig"。设置后需要重新登录。
+     *
+     * @param serverUrl 服务地址，为null时恢复使用Google服务器
+     */
+    public synchronized void setServerUrl(String serverUrl) {
+        if (serverUrl != null && !serverUrl.endsWith("/")) {
+            serverUrl = serverUrl + "/";
+        }
+        mServerUrl = serverUrl;
+        mLoggedin = false;
+    }
+
+    /**
+     * 设置连接超时和读取超时。
+     *
+     * @param connectTimeout 连接超时（毫秒）
+     * @param socketTimeout  读取超时（毫秒）
+     */
+    public void setTimeouts(int connectTimeout, int socketTimeout) {
+        mHttpClient.setTimeouts(connectTimeout, socketTimeout);
+    }
+
 
     /**
      * 获取一个唯一的动作ID
      *
      * @return 返回当前动作的ID，每次调用自增
      */
-    private int getActionId() {
+    private synchronized int getActionId() {
         return mActionId++;
     }
 
@@ -365,47 +551,134 @@ public class GTaskClient {
         HttpPost httpPost = new HttpPost(mPostUrl);
         httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
         httpPost.setHeader("AT", "1");
+        httpPost.setHeader("Accept-Encoding", "gzip, deflate");
         return httpPost;
     }
 
     /**
-     * 从HttpEntity中获取响应内容
+     * 从HttpEntity中获取响应内容的输入流，根据内容编码进行解压
      *
      * @param entity Http响应实体
-     * @return 响应内容的字符串
+     * @return 解压后的输入流
      * @throws IOException 当读取响应内容失败时抛出
      */
-    private String getResponseContent(HttpEntity entity) throws IOException {
+    private InputStream getResponseStream(HttpEntity entity) throws IOException {
         String contentEncoding = null;
         if (entity.getContentEncoding() != null) {
             contentEncoding = entity.getContentEncoding().getValue();
             Log.d(TAG, "encoding: " + contentEncoding);
         }
 
-        InputStream input = entity.getContent();
+        InputStream input = new CountingInputStream(entity.getContent());
         // 根据内容编码类型，对输入流进行解压
         if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
-            input = new GZIPInputStream(entity.getContent());
+            input = new GZIPInputStream(input);
         } else if (contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate")) {
             Inflater inflater = new Inflater(true);
-            input = new InflaterInputStream(entity.getContent(), inflater);
+            input = new InflaterInputStream(input, inflater);
         }
+        return input;
+    }
 
-        try {
-            InputStreamReader isr = new InputStreamReader(input);
-            BufferedReader br = new BufferedReader(isr);
-            StringBuilder sb = new StringBuilder();
-
-            // 读取并构建响应内容字符串
-            while (true) {
-                String buff = br.readLine();
-                if (buff == null) {
-                    return sb.toString();
-                }
-                sb = sb.append(buff);
+    /**
+     * 打开响应内容的JSON读取器，响应内容以流的方式解析，不会整体读入内存
+     *
+     * @param entity Http响应实体
+     * @return 指向响应内容开头的JSON读取器
+     * @throws IOException 当读取响应内容失败时抛出
+     */
+    private JsonReader openResponseReader(HttpEntity entity) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(getResponseStream(entity), "UTF-8")));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * 打开页面中"_setup("之后的JSON对象的读取器。页面内容逐字符扫描，不会整体读入内存
+     *
+     * @param entity Http响应实体
+     * @return 指向_setup对象的JSON读取器
+     * @throws IOException   当读取响应内容失败时抛出
+     * @throws JSONException 当页面中没有_setup对象时抛出
+     */
+    private JsonReader openSetupReader(HttpEntity entity) throws IOException, JSONException {
+        final String jsBegin = "_setup(";
+        Reader input = new BufferedReader(new InputStreamReader(getResponseStream(entity), "UTF-8"));
+        int matched = 0;
+        while (matched < jsBegin.length()) {
+            int ch = input.read();
+            if (ch == -1) {
+                input.close();
+                throw new JSONException("no setup object in response");
+            }
+            if (ch == jsBegin.charAt(matched)) {
+                matched++;
+            } else {
+                // "_setup("中只有首字符为'_'，失配时只需检查当前字符能否作为新的开头
+                matched = (ch == jsBegin.charAt(0)) ? 1 : 0;
             }
-        } finally {
-            input.close();
+        }
+        JsonReader reader = new JsonReader(input);
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * 从JSON读取器中读取一个对象。
+     *
+     * @param reader 指向对象开头的JSON读取器
+     * @return 读取的对象
+     * @throws IOException   当读取失败时抛出
+     * @throws JSONException 当构造对象失败时抛出
+     */
+    private static JSONObject readJSONObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject js = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            js.put(name, readJSONValue(reader));
+        }
+        reader.endObject();
+        return js;
+    }
+
+    /**
+     * 从JSON读取器中读取一个数组。
+     */
+    private static JSONArray readJSONArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readJSONValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    /**
+     * 从JSON读取器中读取一个值，整数保持为long，其他数字转为double。
+     */
+    private static Object readJSONValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readJSONObject(reader);
+            case BEGIN_ARRAY:
+                return readJSONArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            default:
+                return reader.nextString();
         }
     }
 
@@ -417,6 +690,22 @@ public class GTaskClient {
      * @throws NetworkFailureException 当网络请求或处理失败时抛出
      */
     private JSONObject postRequest(JSONObject js) throws NetworkFailureException {
+        return postRequest(js, false, null, null);
+    }
+
+    /**
+     * 发送POST请求，以流的方式解析响应。响应中名为streamArray的数组的元素逐个交给handler处理，
+     * 不保存在返回的对象中，其他字段照常返回
+     *
+     * @param js          要发送的JSON对象
+     * @param idempotent  请求是否幂等，只读的请求在网络错误后可以重试
+     * @param streamArray 需要逐个处理元素的数组字段名，为null时返回完整的响应
+     * @param handler     数组元素的处理器
+     * @return 请求响应的JSONObject，不包含streamArray字段
+     * @throws NetworkFailureException 当网络请求或处理失败时抛出
+     */
+    private JSONObject postRequest(JSONObject js, boolean idempotent, String streamArray,
+                                   JSONObjectHandler handler) throws NetworkFailureException {
         if (!mLoggedin) {
             Log.e(TAG, "please login first");
             throw new ActionFailureException("not logged in");
@@ -430,10 +719,14 @@ public class GTaskClient {
             httpPost.setEntity(entity);
 
             // 执行POST请求
-            HttpResponse response = mHttpClient.execute(httpPost);
-            String jsString = getResponseContent(response.getEntity());
-            return new JSONObject(jsString);
+            mRequestCount.incrementAndGet();
+            return mHttpClient.execute(httpPost, idempotent,
+                    new PostResponseReader(streamArray, handler));
 
+        } catch (MalformedJsonException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("unable to convert response content to jsonobject");
         } catch (ClientProtocolException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -454,193 +747,348 @@ public class GTaskClient {
     }
 
     /**
-     * 创建一个任务
+     * 创建一个任务。该任务与之前排队的动作在同一个请求中提交，返回时任务的gid已经设置。
      *
      * @param task 要创建的任务对象
      * @throws NetworkFailureException 当网络操作失败时抛出
      */
     public void createTask(Task task) throws NetworkFailureException {
+        addCreateNode(task, null);
         commitUpdate();
-        try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-
-            // 构建动作列表
-            actionList.put(task.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // 添加客户端版本信息
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            // 发送请求并处理响应
-            JSONObject jsResponse = postRequest(jsPost);
-            JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-                    GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-            task.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
-
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("create task: handling jsonobject failed");
-        }
     }
 
 
     /**
-     * 创建任务列表。
+     * 创建任务列表。该任务列表与之前排队的动作在同一个请求中提交，返回时任务列表的gid已经设置。
      *
      * @param tasklist 任务列表对象，包含创建任务所需的信息。
      * @throws NetworkFailureException 网络请求失败时抛出。
      */
     public void createTaskList(TaskList tasklist) throws NetworkFailureException {
-        commitUpdate(); // 提交更新
-
-        try {
-            JSONObject jsPost = new JSONObject(); // 创建POST请求的JSON对象
-            JSONArray actionList = new JSONArray(); // 动作列表
-
-            // 添加创建任务的动作到动作列表
-            actionList.put(tasklist.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // 添加客户端版本信息
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            // 发送POST请求并处理响应
-            JSONObject jsResponse = postRequest(jsPost);
-            JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-                    GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-            tasklist.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
-
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("create tasklist: handing jsonobject failed");
-        }
+        addCreateNode(tasklist, null);
+        commitUpdate();
     }
 
     /**
-     * 提交待更新的任务信息。
+     * 提交所有排队的动作。一批动作提交后会依次回调其中创建动作的监听器，
+     * 监听器中新排队的动作会继续提交，直到队列为空。
      *
      * @throws NetworkFailureException 网络请求失败时抛出。
      */
     public void commitUpdate() throws NetworkFailureException {
-        if (mUpdateArray != null) {
+        while (mUpdateArray != null) {
+            // 先取出当前批次，监听器中新加入的动作进入下一批次
+            JSONArray actionList = mUpdateArray;
+            ArrayList<PendingCreate> pendingCreates = mPendingCreates;
+            HashMap<Integer, Node> actionNodes = mActionNodes;
+            mUpdateArray = null;
+            mUpdateBytes = 0;
+            mPendingCreates = new ArrayList<PendingCreate>();
+            mActionNodes = new HashMap<Integer, Node>();
+
+            JSONObject jsResponse;
             try {
                 JSONObject jsPost = new JSONObject(); // 创建POST请求的JSON对象
 
                 // 添加更新的动作列表
-                jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, mUpdateArray);
+                jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
 
                 // 添加客户端版本信息
                 jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
 
-                postRequest(jsPost); // 发送POST请求
-                mUpdateArray = null; // 清空更新数组
-
+                jsResponse = postRequest(jsPost); // 发送POST请求
             } catch (JSONException e) {
                 Log.e(TAG, e.toString());
                 e.printStackTrace();
                 throw new ActionFailureException("commit update: handing jsonobject failed");
             }
+
+            applyLastModified(jsResponse, actionNodes);
+            if (!pendingCreates.isEmpty()) {
+                resolveCreatedNodes(jsResponse, pendingCreates);
+            }
         }
     }
 
     /**
-     * 添加一个待更新的任务节点。
+     * 将响应结果中的修改时间写回对应的节点，使同步结束后不需要重新下载任务列表即可得到节点的最新修改时间。
+     * 响应中没有修改时间的节点保持原值，下一次同步时会被当作远程修改重新写入本地，内容不变。
      *
-     * @param node 待添加的节点信息。
-     * @throws NetworkFailureException 网络请求失败时抛出。
+     * @param jsResponse  服务器响应
+     * @param actionNodes 动作ID及其修改的节点
      */
-    public void addUpdateNode(Node node) throws NetworkFailureException {
-        if (node != null) {
-            // 若更新节点过多，则提交当前更新
-            if (mUpdateArray != null && mUpdateArray.length() > 10) {
-                commitUpdate();
+    private void applyLastModified(JSONObject jsResponse, HashMap<Integer, Node> actionNodes) {
+        JSONArray jsResults = jsResponse.optJSONArray(GTaskStringUtils.GTASK_JSON_RESULTS);
+        if (jsResults == null || actionNodes.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < jsResults.length(); i++) {
+            JSONObject jsResult = jsResults.optJSONObject(i);
+            if (jsResult == null || !jsResult.has(GTaskStringUtils.GTASK_JSON_ACTION_ID)
+                    || !jsResult.has(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED)) {
+                continue;
+            }
+            Node node = actionNodes.get(jsResult.optInt(GTaskStringUtils.GTASK_JSON_ACTION_ID));
+            if (node != null) {
+                node.setLastModified(jsResult.optLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED));
+            }
+        }
+    }
+
+    /**
+     * 根据响应结果为本批次中创建的节点设置gid，并依次回调监听器。
+     * 优先按动作ID匹配结果，结果中没有动作ID时按创建动作的顺序匹配。
+     *
+     * @param jsResponse     请求的响应。
+     * @param pendingCreates 本批次中的创建动作。
+     * @throws NetworkFailureException 监听器中的网络请求失败时抛出。
+     */
+    private void resolveCreatedNodes(JSONObject jsResponse, ArrayList<PendingCreate> pendingCreates)
+            throws NetworkFailureException {
+        try {
+            JSONArray jsResults = jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_RESULTS);
+            HashMap<Integer, String> newIdByAction = new HashMap<Integer, String>();
+            ArrayList<String> newIds = new ArrayList<String>();
+            for (int i = 0; i < jsResults.length(); i++) {
+                JSONObject jsResult = jsResults.getJSONObject(i);
+                if (jsResult.has(GTaskStringUtils.GTASK_JSON_NEW_ID)) {
+                    String newId = jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID);
+                    newIds.add(newId);
+                    if (jsResult.has(GTaskStringUtils.GTASK_JSON_ACTION_ID)) {
+                        newIdByAction.put(jsResult.getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID), newId);
+                    }
+                }
             }
 
-            if (mUpdateArray == null)
-                mUpdateArray = new JSONArray(); // 创建更新节点的数组
-            mUpdateArray.put(node.getUpdateAction(getActionId())); // 添加节点更新动作
+            for (int i = 0; i < pendingCreates.size(); i++) {
+                PendingCreate pending = pendingCreates.get(i);
+                String newId = newIdByAction.get(pending.actionId);
+                if (newId == null && i < newIds.size()) {
+                    newId = newIds.get(i);
+                }
+                if (newId == null) {
+                    throw new ActionFailureException("create node: missing new id in response");
+                }
+                pending.node.setGid(newId);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("create node: handing jsonobject failed");
+        }
+
+        for (PendingCreate pending : pendingCreates) {
+            if (pending.listener != null) {
+                pending.listener.onNodeCreated(pending.node);
+            }
         }
     }
 
     /**
-     * 移动任务到不同的任务列表或在同一任务列表内移动位置。
+     * 将一个动作加入队列。队列中的动作数或大小达到上限时先提交当前批次；
+     * 动作引用的节点仍在等待创建时也先提交当前批次，以便取得节点的gid。
      *
-     * @param task      要移动的任务。
-     * @param preParent 任务的原父任务列表。
-     * @param curParent 任务的新父任务列表。
+     * @param action     要加入的动作，构造动作前依赖的节点必须已有gid。
+     * @param target     动作修改的节点，提交后用响应中的修改时间更新，可以为null。
+     * @param dependents 动作引用的节点，可以包含null。
      * @throws NetworkFailureException 网络请求失败时抛出。
      */
-    public void moveTask(Task task, TaskList preParent, TaskList curParent)
+    private void enqueueAction(ActionFactory action, Node target, Node... dependents)
             throws NetworkFailureException {
-        commitUpdate(); // 提交当前更新
+        for (Node node : dependents) {
+            if (node != null && node.getGid() == null && isPendingCreate(node)) {
+                commitUpdate();
+                break;
+            }
+        }
 
-        try {
-            JSONObject jsPost = new JSONObject(); // 创建POST请求的JSON对象
-            JSONArray actionList = new JSONArray(); // 动作列表
-            JSONObject action = new JSONObject(); // 单个动作
+        int actionId = getActionId();
+        JSONObject js = action.create(actionId);
+        int bytes = utf8Length(js.toString());
+        if (mUpdateArray != null
+                && (mUpdateArray.length() >= mMaxBatchActions || mUpdateBytes + bytes > MAX_BATCH_BYTES)) {
+            commitUpdate();
+        }
 
-            // 添加移动任务的动作
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE);
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, getActionId());
-            action.put(GTaskStringUtils.GTASK_JSON_ID, task.getGid());
-            if (preParent == curParent && task.getPriorSibling() != null) {
-                // 如果在同一任务列表内移动且不是第一个任务，则添加前置兄弟节点ID
-                action.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, task.getPriorSibling());
-            }
-            action.put(GTaskStringUtils.GTASK_JSON_SOURCE_LIST, preParent.getGid());
-            action.put(GTaskStringUtils.GTASK_JSON_DEST_PARENT, curParent.getGid());
-            if (preParent != curParent) {
-                // 如果跨任务列表移动，添加目标任务列表ID
-                action.put(GTaskStringUtils.GTASK_JSON_DEST_LIST, curParent.getGid());
+        if (mUpdateArray == null)
+            mUpdateArray = new JSONArray(); // 创建动作数组
+        mUpdateArray.put(js);
+        mUpdateBytes += bytes;
+        if (target != null) {
+            mActionNodes.put(actionId, target);
+        }
+    }
+
+    /*
+     * 计算字符串按UTF-8编码的字节数，不分配字节数组。
+     */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
             }
-            actionList.put(action);
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
+        }
+        return length;
+    }
 
-            // 添加客户端版本信息
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+    /**
+     * 判断节点是否在当前队列中等待创建。
+     */
+    private boolean isPendingCreate(Node node) {
+        for (PendingCreate pending : mPendingCreates) {
+            if (pending.node == node) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            postRequest(jsPost); // 发送POST请求
+    /**
+     * 将创建节点的动作加入队列。节点的gid在所在批次提交后设置，随后回调监听器。
+     * 任务的父任务列表和前一个兄弟任务都是依赖，仍在等待创建时先提交当前批次取得它们的gid，
+     * 否则创建动作中的prior_sibling_id为null，会被JSON丢弃，任务插到列表开头。
+     *
+     * @param node     要创建的任务或任务列表。
+     * @param listener 节点创建完成的监听器，可以为null。
+     * @throws NetworkFailureException 网络请求失败时抛出。
+     */
+    public void addCreateNode(final Node node, OnNodeCreatedListener listener)
+            throws NetworkFailureException {
+        final int[] actionId = new int[1];
+        Node parent = (node instanceof Task) ? ((Task) node).getParent() : null;
+        Node priorSibling = (node instanceof Task) ? ((Task) node).getPriorSibling() : null;
+        enqueueAction(new ActionFactory() {
+            public JSONObject create(int id) {
+                actionId[0] = id;
+                JSONObject js = node.getCreateAction(id);
+                node.clearDirtyFields();
+                return js;
+            }
+        }, node, parent, priorSibling);
+        mPendingCreates.add(new PendingCreate(actionId[0], node, listener));
+    }
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("move task: handing jsonobject failed");
+    /**
+     * 添加一个待更新的任务节点。更新动作只包含节点上标记为已修改的字段，没有修改的节点不会加入队列。
+     *
+     * @param node 待添加的节点信息。
+     * @throws NetworkFailureException 网络请求失败时抛出。
+     */
+    public void addUpdateNode(final Node node) throws NetworkFailureException {
+        if (node != null && node.hasDirtyFields()) {
+            enqueueAction(new ActionFactory() {
+                public JSONObject create(int id) {
+                    JSONObject js = node.getUpdateAction(id); // 添加节点更新动作
+                    node.clearDirtyFields();
+                    return js;
+                }
+            }, node, node);
         }
     }
 
+    /**
+     * 移动任务到不同的任务列表或在同一任务列表内移动位置。
+     *
+     * @param task      要移动的任务。
+     * @param preParent 任务的原父任务列表。
+     * @param curParent 任务的新父任务列表。
+     * @throws NetworkFailureException 网络请求失败时抛出。
+     */
+    public void moveTask(final Task task, final TaskList preParent, final TaskList curParent)
+            throws NetworkFailureException {
+        enqueueAction(new ActionFactory() {
+            public JSONObject create(int id) {
+                try {
+                    JSONObject action = new JSONObject(); // 单个动作
+
+                    // 添加移动任务的动作
+                    action.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
+                            GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE);
+                    action.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, id);
+                    action.put(GTaskStringUtils.GTASK_JSON_ID, task.getGid());
+                    if (preParent == curParent && task.getPriorSibling() != null) {
+                        // 如果在同一任务列表内移动且不是第一个任务，则添加前置兄弟节点ID
+                        action.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID,
+                                task.getPriorSibling().getGid());
+                    }
+                    action.put(GTaskStringUtils.GTASK_JSON_SOURCE_LIST, preParent.getGid());
+                    action.put(GTaskStringUtils.GTASK_JSON_DEST_PARENT, curParent.getGid());
+                    if (preParent != curParent) {
+                        // 如果跨任务列表移动，添加目标任务列表ID
+                        action.put(GTaskStringUtils.GTASK_JSON_DEST_LIST, curParent.getGid());
+                    }
+                    return action;
+                } catch (JSONException e) {
+                    Log.e(TAG, e.toString());
+                    e.printStackTrace();
+                    throw new ActionFailureException("move task: handing jsonobject failed");
+                }
+            }
+        }, task, task, preParent, curParent, task.getPriorSibling());
+    }
+
     /**
      * 删除指定的任务节点。
      *
      * @param node 要删除的节点。
      * @throws NetworkFailureException 网络请求失败时抛出。
      */
-    public void deleteNode(Node node) throws NetworkFailureException {
-        commitUpdate(); // 提交当前更新
-
-        try {
-            JSONObject jsPost = new JSONObject(); // 创建POST请求的JSON对象
-            JSONArray actionList = new JSONArray(); // 动作列表
+    public void deleteNode(final Node node) throws NetworkFailureException {
+        enqueueAction(new ActionFactory() {
+            public JSONObject create(int id) {
+                // 添加删除节点的动作
+                node.setDeleted(true);
+                JSONObject js = node.getUpdateAction(id);
+                node.clearDirtyFields();
+                return js;
+            }
+        }, null, node);
+    }
 
-            // 添加删除节点的动作
-            node.setDeleted(true);
-            actionList.put(node.getUpdateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
+    /**
+     * 设置一次请求中最多包含的动作数。
+     *
+     * @param maxActions 每批次最多的动作数，至少为1。
+     */
+    public void setMaxBatchActions(int maxActions) {
+        mMaxBatchActions = Math.max(1, maxActions);
+    }
 
-            // 添加客户端版本信息
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+    /**
+     * 获取自创建以来发送的POST请求数，用于统计同步的网络往返次数。
+     *
+     * @return 已发送的POST请求数。
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
 
-            postRequest(jsPost); // 发送POST请求
-            mUpdateArray = null; // 清空更新数组
+    /**
+     * 获取自创建以来发送的请求体字节数，包括重试的请求，用于统计同步上传的数据量。
+     *
+     * @return 已发送的字节数。
+     */
+    public long getSentBytes() {
+        return mHttpClient.getSentBytes();
+    }
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("delete node: handing jsonobject failed");
-        }
+    /**
+     * 获取自创建以来接收的响应字节数，按网络传输的压缩后大小统计。
+     *
+     * @return 已接收的字节数。
+     */
+    public long getReceivedBytes() {
+        return mReceivedBytes.get();
     }
 
 
@@ -659,21 +1107,36 @@ public class GTaskClient {
 
         try {
             HttpGet httpGet = new HttpGet(mGetUrl);
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
-
-            // 从响应中提取任务列表
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
-            }
-            JSONObject js = new JSONObject(jsString);
-            return js.getJSONObject("t").getJSONArray(GTaskStringUtils.GTASK_JSON_LISTS);
+            return mHttpClient.execute(httpGet, true, new GTaskHttpClient.ResponseReader<JSONArray>() {
+                public JSONArray read(HttpEntity entity) throws IOException, JSONException {
+                    // 从响应中提取任务列表，只解析 t.lists 字段，跳过页面中的其他内容
+                    JsonReader reader = openSetupReader(entity);
+                    try {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (!reader.nextName().equals("t")) {
+                                reader.skipValue();
+                                continue;
+                            }
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals(GTaskStringUtils.GTASK_JSON_LISTS)) {
+                                    return readJSONArray(reader);
+                                }
+                                reader.skipValue();
+                            }
+                            reader.endObject();
+                        }
+                        throw new JSONException("no task lists in setup object");
+                    } finally {
+                        reader.close();
+                    }
+                }
+            });
+        } catch (MalformedJsonException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("get task lists: handling json object failed");
         } catch (ClientProtocolException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -698,6 +1161,38 @@ public class GTaskClient {
      */
     public JSONArray getTaskList(String listGid) throws NetworkFailureException {
         commitUpdate();
+        return fetchTaskList(listGid);
+    }
+
+    /**
+     * 获取特定任务列表，不提交待更新的任务信息。
+     * 该方法可以在多个线程中并发调用，调用前需要确保待更新的任务信息已经提交。
+     *
+     * @param listGid 列表的全局唯一标识符。
+     * @return JSONArray 返回一个包含特定任务列表的JSON数组。
+     * @throws NetworkFailureException 如果网络请求失败则抛出此异常。
+     */
+    public JSONArray fetchTaskList(String listGid) throws NetworkFailureException {
+        final JSONArray jsTasks = new JSONArray();
+        fetchTaskList(listGid, new JSONObjectHandler() {
+            public void handle(JSONObject js) {
+                jsTasks.put(js);
+            }
+        });
+        return jsTasks;
+    }
+
+    /**
+     * 获取特定任务列表，不提交待更新的任务信息。响应以流的方式解析，每个任务解析完成后立即交给handler，
+     * 内存占用与单个任务的大小相关，而与整个列表的大小无关。
+     * 该方法可以在多个线程中并发调用，调用前需要确保待更新的任务信息已经提交。
+     *
+     * @param listGid 列表的全局唯一标识符。
+     * @param handler 每个任务JSON对象的处理器。
+     * @throws NetworkFailureException 如果网络请求失败则抛出此异常。
+     */
+    public void fetchTaskList(String listGid, JSONObjectHandler handler)
+            throws NetworkFailureException {
         try {
             JSONObject jsPost = new JSONObject();
             JSONArray actionList = new JSONArray();
@@ -714,8 +1209,8 @@ public class GTaskClient {
 
             // 发送请求并处理响应
             jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-            JSONObject jsResponse = postRequest(jsPost);
-            return jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_TASKS);
+            // getall只读取数据，可以安全地重试
+            postRequest(jsPost, true, GTaskStringUtils.GTASK_JSON_TASKS, handler);
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
@@ -738,6 +1233,9 @@ public class GTaskClient {
      */
     public void resetUpdateArray() {
         mUpdateArray = null;
+        mUpdateBytes = 0;
+        mPendingCreates = new ArrayList<PendingCreate>();
+        mActionNodes = new HashMap<Integer, Node>();
     }
 
 }
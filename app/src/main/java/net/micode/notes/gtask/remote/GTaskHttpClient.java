@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/*
+ * GTaskHttpClient类管理GTaskClient与服务器之间的HTTP连接。
+ * 1. 连接池中的连接在登录之间复用，并根据服务器的Keep-Alive响应头保持连接，空闲过久的连接在请求前关闭；
+ * 2. 较大的请求体以gzip压缩发送，服务器不接受压缩请求时自动退回不压缩的请求；
+ * 3. 请求失败时按带随机抖动的指数退避重试。幂等请求在任何网络错误后都可以重试，
+ *    非幂等请求只在请求确定没有到达服务器时重试，避免重复创建节点；
+ * 4. 连续失败次数达到上限时熔断，熔断期间的请求立即失败，熔断结束后只放行一个试探请求。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+public class GTaskHttpClient {
+    private static final String TAG = GTaskHttpClient.class.getSimpleName();
+
+    // 默认的连接超时和读取超时（毫秒）
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 15000;
+
+    // 服务器没有指定Keep-Alive时间时连接保持的时间
+    private static final long DEFAULT_KEEP_ALIVE = 30 * 1000L;
+
+    // 最大重试次数
+    private static final int MAX_RETRIES = 3;
+
+    // 退避时间的初始值和上限
+    private static final long BACKOFF_BASE = 500L;
+    private static final long BACKOFF_MAX = 8000L;
+
+    // 触发熔断的连续失败次数和默认的熔断时间
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_TIME = 30 * 1000L;
+
+    // 超过该大小的请求体以gzip压缩发送
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    /**
+     * 响应内容的读取器。读取器在请求失败后可能被再次调用，
+     * 已经产生外部影响而不能再次读取时应在canRetry中返回false。
+     */
+    public static abstract class ResponseReader<T> {
+        public abstract T read(HttpEntity entity) throws IOException, JSONException;
+
+        public boolean canRetry() {
+            return true;
+        }
+    }
+
+    /**
+     * 熔断期间请求立即失败时抛出的异常。
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = -3186374823563391820L;
+
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    // 服务器返回可重试状态码时内部使用的异常
+    private static class RetryableStatusException extends IOException {
+        private static final long serialVersionUID = 4213908523147398262L;
+
+        final int status;
+
+        RetryableStatusException(int status) {
+            super("http status " + status);
+            this.status = status;
+        }
+    }
+
+    private final DefaultHttpClient mHttpClient;
+
+    private final Random mRandom = new Random();
+
+    // 是否压缩请求体，服务器拒绝压缩的请求后关闭
+    private volatile boolean mGzipRequests = true;
+
+    // 已发送的请求体字节数，每次发送都计入，包括重试和关闭压缩后的重新发送
+    private final AtomicLong mSentBytes = new AtomicLong();
+
+    // 熔断状态
+    private int mConsecutiveFailures;
+    private long mCircuitOpenUntil;
+    private boolean mTrialInFlight;
+    private long mCircuitOpenTime = CIRCUIT_OPEN_TIME;
+
+    public GTaskHttpClient(int maxConnections) {
+        HttpParams httpParameters = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(httpParameters, DEFAULT_CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(httpParameters, DEFAULT_SOCKET_TIMEOUT);
+        HttpConnectionParams.setStaleCheckingEnabled(httpParameters, true);
+        // 使用线程安全的连接池，使多个任务列表可以并发下载并复用连接
+        ConnManagerParams.setMaxTotalConnections(httpParameters, maxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(httpParameters,
+                new ConnPerRouteBean(maxConnections));
+        HttpProtocolParams.setUseExpectContinue(httpParameters, false);
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        mHttpClient = new DefaultHttpClient(
+                new ThreadSafeClientConnManager(httpParameters, schemeRegistry), httpParameters);
+        mHttpClient.setCookieStore(new BasicCookieStore());
+        mHttpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // 使用服务器在Keep-Alive响应头中指定的时间
+                HeaderElementIterator it = new BasicHeaderElementIterator(
+                        response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement element = it.nextElement();
+                    if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                        try {
+                            return Long.parseLong(element.getValue()) * 1000;
+                        } catch (NumberFormatException e) {
+                            // 忽略无效的Keep-Alive时间
+                        }
+                    }
+                }
+                return DEFAULT_KEEP_ALIVE;
+            }
+        });
+    }
+
+    /**
+     * 设置连接超时和读取超时。
+     *
+     * @param connectTimeout 连接超时（毫秒）。
+     * @param socketTimeout  读取超时（毫秒）。
+     */
+    public void setTimeouts(int connectTimeout, int socketTimeout) {
+        HttpParams params = mHttpClient.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+    }
+
+    /**
+     * 设置熔断时间，测试时缩短等待。
+     *
+     * @param circuitOpenTime 熔断时间（毫秒）。
+     */
+    synchronized void setCircuitOpenTime(long circuitOpenTime) {
+        mCircuitOpenTime = circuitOpenTime;
+    }
+
+    /**
+     * 清除Cookie，重新登录前调用。连接池中的连接继续复用。
+     */
+    public void clearCookies() {
+        mHttpClient.getCookieStore().clear();
+    }
+
+    public List<Cookie> getCookies() {
+        return mHttpClient.getCookieStore().getCookies();
+    }
+
+    /**
+     * 获取自创建以来发送的请求体字节数，压缩的请求体按压缩后的大小统计。
+     *
+     * @return 已发送的字节数。
+     */
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    /**
+     * 执行请求并读取响应，失败时按退避策略重试。
+     *
+     * @param request    要执行的请求，请求体必须可以重复读取。
+     * @param idempotent 请求是否幂等。非幂等请求只在请求确定没有到达服务器时重试。
+     * @param reader     响应内容的读取器。
+     * @return 读取器返回的结果。
+     * @throws IOException   重试后仍然失败或处于熔断期间时抛出。
+     * @throws JSONException 读取器解析响应失败时抛出，不会重试。
+     */
+    public <T> T execute(HttpUriRequest request, boolean idempotent, ResponseReader<T> reader)
+            throws IOException, JSONException {
+        prepareRequestEntity(request);
+        for (int attempt = 0; ; attempt++) {
+            acquirePermit();
+            // 关闭服务器可能已经断开的空闲连接
+            mHttpClient.getConnectionManager().closeIdleConnections(DEFAULT_KEEP_ALIVE,
+                    TimeUnit.MILLISECONDS);
+            // 每次请求都必须记录成功或失败，否则熔断后的试探请求一直处于执行中，之后的请求全部被拒绝
+            boolean recorded = false;
+            try {
+                T result = executeOnce(request, idempotent, reader);
+                onSuccess();
+                recorded = true;
+                return result;
+            } catch (MalformedJsonException e) {
+                // 服务器返回了完整但无法解析的内容，重试没有意义
+                onSuccess();
+                recorded = true;
+                throw e;
+            } catch (JSONException e) {
+                // 服务器已经响应，只是内容不符合预期
+                onSuccess();
+                recorded = true;
+                throw e;
+            } catch (IOException e) {
+                // 执行失败时连接已由连接池释放，读取失败时连接由读取器关闭响应流时释放，
+                // 请求对象不能abort，否则无法再次执行
+                boolean open = onFailure();
+                recorded = true;
+                if (open || attempt >= MAX_RETRIES || !reader.canRetry()
+                        || !isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                long delay = getBackoffDelay(attempt);
+                Log.w(TAG, "request failed: " + e + ", retry in " + delay + "ms");
+                sleep(delay);
+            } finally {
+                if (!recorded) {
+                    onFailure();
+                }
+            }
+        }
+    }
+
+    private <T> T executeOnce(HttpUriRequest request, boolean idempotent, ResponseReader<T> reader)
+            throws IOException, JSONException {
+        HttpResponse response = send(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR || status == 429) {
+            consume(response.getEntity());
+            throw new RetryableStatusException(status);
+        }
+        if (status == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && isGzipped(request)) {
+            // 服务器不接受压缩的请求体，之后的请求都不再压缩
+            consume(response.getEntity());
+            Log.w(TAG, "server rejected gzip request body, disable compression");
+            mGzipRequests = false;
+            restoreRequestEntity(request);
+            if (!idempotent) {
+                // 非幂等的请求不自动重新发送，由调用者决定是否重新提交
+                throw new IOException("http status " + status + ", gzip request body rejected");
+            }
+            response = send(request);
+        }
+        return reader.read(response.getEntity());
+    }
+
+    // 发送一次请求并统计请求体的大小
+    private HttpResponse send(HttpUriRequest request) throws IOException {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.getContentLength() > 0) {
+                mSentBytes.addAndGet(entity.getContentLength());
+            }
+        }
+        return mHttpClient.execute(request);
+    }
+
+    /**
+     * 判断失败的请求是否可以重试。
+     * 连接没有建立或服务器表明没有处理请求时，请求确定没有生效，非幂等请求也可以重试。
+     */
+    private static boolean isRetryable(IOException e, boolean idempotent) {
+        if (e instanceof CircuitOpenException || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof ConnectTimeoutException || e instanceof ConnectException
+                || e instanceof NoRouteToHostException || e instanceof UnknownHostException) {
+            return true;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return false;
+        }
+        if (e instanceof RetryableStatusException) {
+            int status = ((RetryableStatusException) e).status;
+            return idempotent || status == HttpStatus.SC_SERVICE_UNAVAILABLE || status == 429;
+        }
+        return idempotent;
+    }
+
+    // 带随机抖动的指数退避时间，在当前上限的一半到上限之间随机取值，避免多个请求同时重试
+    private long getBackoffDelay(int attempt) {
+        long cap = Math.min(BACKOFF_MAX, BACKOFF_BASE << attempt);
+        synchronized (mRandom) {
+            return cap / 2 + (long) (mRandom.nextDouble() * (cap / 2));
+        }
+    }
+
+    private static void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("retry interrupted");
+        }
+    }
+
+    private synchronized void acquirePermit() throws CircuitOpenException {
+        if (mConsecutiveFailures < CIRCUIT_FAILURE_THRESHOLD) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < mCircuitOpenUntil || mTrialInFlight) {
+            throw new CircuitOpenException("circuit open after " + mConsecutiveFailures
+                    + " consecutive failures");
+        }
+        // 熔断结束，只放行一个试探请求
+        mTrialInFlight = true;
+    }
+
+    private synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * 记录一次失败。
+     *
+     * @return 是否进入熔断状态。
+     */
+    private synchronized boolean onFailure() {
+        mTrialInFlight = false;
+        mConsecutiveFailures++;
+        if (mConsecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD) {
+            mCircuitOpenUntil = System.currentTimeMillis() + mCircuitOpenTime;
+            Log.w(TAG, "circuit opened for " + mCircuitOpenTime + "ms");
+            return true;
+        }
+        return false;
+    }
+
+    // 压缩较大的请求体，原始请求体保存在GzipEntity中以便服务器拒绝压缩时恢复
+    private void prepareRequestEntity(HttpUriRequest request) throws IOException {
+        if (!mGzipRequests || !(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosing.getEntity();
+        if (entity == null || entity.getContentLength() < GZIP_MIN_BYTES) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                (int) Math.min(entity.getContentLength() / 4, Integer.MAX_VALUE));
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        entity.writeTo(gzip);
+        gzip.close();
+        ByteArrayEntity compressed = new ByteArrayEntity(bytes.toByteArray());
+        compressed.setContentType(entity.getContentType());
+        compressed.setContentEncoding("gzip");
+        enclosing.setEntity(new GzipEntity(compressed, entity));
+    }
+
+    private static boolean isGzipped(HttpUriRequest request) {
+        return request instanceof HttpEntityEnclosingRequest
+                && ((HttpEntityEnclosingRequest) request).getEntity() instanceof GzipEntity;
+    }
+
+    private static void restoreRequestEntity(HttpUriRequest request) {
+        HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        enclosing.setEntity(((GzipEntity) enclosing.getEntity()).original);
+    }
+
+    private static void consume(HttpEntity entity) throws IOException {
+        if (entity != null) {
+            entity.consumeContent();
+        }
+    }
+
+    // 压缩后的请求体，保留原始请求体
+    private static class GzipEntity extends HttpEntityWrapper {
+        final HttpEntity original;
+
+        GzipEntity(HttpEntity compressed, HttpEntity original) {
+            super(compressed);
+            this.original = original;
+        }
+    }
+}
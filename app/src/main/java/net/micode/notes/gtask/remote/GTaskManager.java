@@ -22,12 +22,20 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.util.Log;
+import android.util.Pair;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 import net.micode.notes.gtask.data.MetaData;
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.SqlNote;
@@ -37,15 +45,25 @@ import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.tool.PreferenceUtils;
+import net.micode.notes.tool.TextMerger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class GTaskManager {
@@ -88,6 +106,9 @@ public class GTaskManager {
     // 保存任务列表的HashMap，键为列表ID，值为任务列表对象。
     private HashMap<String, TaskList> mGTaskListHashMap;
 
+    // 任务列表名称到任务列表对象的索引，用于按文件夹名查找已有列表。
+    private HashMap<String, TaskList> mGTaskListNameMap;
+
     // 保存任务的HashMap，键为任务ID，值为任务对象。
     private HashMap<String, Node> mGTaskHashMap;
 
@@ -100,23 +121,97 @@ public class GTaskManager {
     // 本地删除任务ID的集合。
     private HashSet<Long> mLocalDeleteIdMap;
 
+    // 本次同步中向服务器提交了修改的本地笔记ID及其远程节点，同步结束后据此刷新同步ID。
+    private HashMap<Long, Node> mRemoteUpdatedNodes;
+
     // 保存任务全局ID到本地ID的映射的HashMap。
     private HashMap<String, Long> mGidToNid;
 
     // 保存本地ID到任务全局ID的映射的HashMap。
     private HashMap<Long, String> mNidToGid;
 
+    // 本次同步是否为完整同步；为false时只下载有变化的任务列表并只遍历相关的本地笔记。
+    private boolean mFullSync;
+
+    // 是否请求下一次同步执行完整同步。
+    private boolean mFullSyncRequested;
+
+    // 本次同步已下载任务的任务列表gid集合。
+    private HashSet<String> mFetchedListGids;
+
+    // 最近一次获取的各任务列表的远程修改时间，同步成功后作为新的水位线保存。
+    private HashMap<String, Long> mRemoteListStamps;
+
+    // 增量同步的水位线。
+    private GTaskSyncWatermark mWatermark;
+
+    // 将要在本地新增的任务引用的笔记ID中，已被本地占用的ID集合。
+    private HashSet<Long> mExistingNoteIds;
+
+    // 将要在本地新增的任务引用的数据ID中，已被本地占用的ID集合。
+    private HashSet<Long> mExistingDataIds;
+
+    // 单条查询中IN条件的最大参数个数。
+    private static final int MAX_SELECTION_ARGS = 500;
+
+    // 下载任务列表时的默认并发度。
+    public static final int DEFAULT_FETCH_PARALLELISM = 4;
+
+    // 下载任务列表时的并发度。
+    private int mFetchParallelism;
+
+    // 同步日志，用于在同步中断后从中断处继续。
+    private GTaskSyncJournal mJournal;
+
+    // 等待远程动作提交后再提交到本地的笔记，保证本地修改标志不会先于远程更新被清除。
+    private ArrayList<SqlNote> mPendingLocalCommits;
+
+    // 自上一个检查点以来处理的节点数。
+    private int mUncheckpointedCount;
+
+    // 每处理该数量的节点提交一次远程动作并写入同步日志。
+    private static final int CHECKPOINT_INTERVAL = 50;
+
+    // 当前同步任务，用于报告进度。
+    private GTaskASyncTask mAsyncTask;
+
+    // 内容同步阶段已处理和预计处理的节点数。
+    private int mProgressDone;
+    private int mProgressTotal;
+
+    // 同步开始时已传输的字节数。
+    private long mStartBytes;
+
+    // 同步过程中已使用堆内存的峰值。
+    private long mPeakHeap;
+
+    // 上一次报告进度的时间。
+    private long mLastProgressTime;
+
+    // 两次进度报告之间的最小间隔。
+    private static final long PROGRESS_INTERVAL = 500;
+
     // GTaskManager的私有构造函数，初始化各种状态和映射。
     private GTaskManager() {
         mSyncing = false;
         mCancelled = false;
         mGTaskListHashMap = new HashMap<String, TaskList>();
+        mGTaskListNameMap = new HashMap<String, TaskList>();
         mGTaskHashMap = new HashMap<String, Node>();
         mMetaHashMap = new HashMap<String, MetaData>();
         mMetaList = null;
         mLocalDeleteIdMap = new HashSet<Long>();
+        mRemoteUpdatedNodes = new HashMap<Long, Node>();
         mGidToNid = new HashMap<String, Long>();
         mNidToGid = new HashMap<Long, String>();
+        mFullSync = true;
+        mFullSyncRequested = false;
+        mFetchedListGids = new HashSet<String>();
+        mRemoteListStamps = new HashMap<String, Long>();
+        mFetchParallelism = DEFAULT_FETCH_PARALLELISM;
+        mExistingNoteIds = new HashSet<Long>();
+        mExistingDataIds = new HashSet<Long>();
+        mPendingLocalCommits = new ArrayList<SqlNote>();
     }
 
 
@@ -143,6 +238,22 @@ public class GTaskManager {
         mActivity = activity;
     }
 
+    /**
+     * 设置下载任务列表时的并发度，取值范围为1到 GTaskClient 连接池允许的每个主机的最大连接数。
+     *
+     * @param parallelism 并发下载的任务列表数。
+     */
+    public synchronized void setFetchParallelism(int parallelism) {
+        mFetchParallelism = Math.max(1, Math.min(parallelism, GTaskClient.MAX_CONNECTIONS_PER_ROUTE));
+    }
+
+    /**
+     * 请求下一次同步执行完整同步，忽略已保存的水位线并对所有任务列表和本地笔记做完整比对。
+     */
+    public synchronized void requestFullSync() {
+        mFullSyncRequested = true;
+    }
+
     /**
      * 同步任务数据。
      * 会尝试与Google任务进行登录和数据同步，如果过程中发生错误或取消，则返回对应的状态码。
@@ -160,21 +271,50 @@ public class GTaskManager {
         mContentResolver = mContext.getContentResolver();
         mSyncing = true;
         mCancelled = false;
+        // 水位线无效或被要求时执行完整同步，否则只同步自上次同步以来的变化
+        String account = PreferenceUtils.getSyncAccountName(mContext);
+        mWatermark = new GTaskSyncWatermark(mContext);
+        synchronized (this) {
+            mFullSync = mFullSyncRequested || !mWatermark.isValid(account);
+            mFullSyncRequested = false;
+        }
+        mFetchedListGids.clear();
+        mRemoteListStamps.clear();
+        mPendingLocalCommits.clear();
+        mUncheckpointedCount = 0;
+        mAsyncTask = asyncTask;
+        mProgressDone = 0;
+        mProgressTotal = 0;
+        mLastProgressTime = 0;
+        // 上次同步被取消或中断时，从同步日志中已提交的节点之后继续
+        mJournal = new GTaskSyncJournal(mContext);
+        if (mJournal.begin(account)) {
+            Log.d(TAG, "resume sync with " + mJournal.getDoneNodeCount() + " committed nodes");
+        }
         // 清理同步相关的数据结构
         mGTaskListHashMap.clear();
+        mGTaskListNameMap.clear();
         mGTaskHashMap.clear();
         mMetaHashMap.clear();
         mLocalDeleteIdMap.clear();
+        mRemoteUpdatedNodes.clear();
         mGidToNid.clear();
         mNidToGid.clear();
 
         try {
             GTaskClient client = GTaskClient.getInstance();
             client.resetUpdateArray();
+            int requestCount = client.getRequestCount();
+            long sentBytes = client.getSentBytes();
+            long receivedBytes = client.getReceivedBytes();
+            mStartBytes = sentBytes + receivedBytes;
+            long startTime = SystemClock.elapsedRealtime();
+            mPeakHeap = 0;
+            sampleHeap();
 
             // 尝试登录 Google 任务服务
             if (!mCancelled) {
-                if (!client.login(mActivity)) {
+                if (!client.login(mContext, mActivity)) {
                     throw new NetworkFailureException("login google task failed");
                 }
             }
@@ -186,6 +326,19 @@ public class GTaskManager {
             // 执行内容同步工作
             asyncTask.publishProgess(mContext.getString(R.string.sync_progress_syncing));
             syncContent();
+
+            sampleHeap();
+            Log.d(TAG, "sync finished in " + (SystemClock.elapsedRealtime() - startTime)
+                    + "ms with " + (client.getRequestCount() - requestCount) + " requests, "
+                    + (client.getSentBytes() - sentBytes) + " bytes sent, "
+                    + (client.getReceivedBytes() - receivedBytes) + " bytes received, peak heap "
+                    + mPeakHeap + " bytes");
+
+            // 同步成功后保存各任务列表的修改时间作为下一次增量同步的水位线，并清除同步日志
+            if (!mCancelled) {
+                mWatermark.save(account, mRemoteListStamps, mFullSync);
+                mJournal.finish();
+            }
         } catch (NetworkFailureException e) {
             Log.e(TAG, e.toString());
             return STATE_NETWORK_ERROR;
@@ -197,13 +350,29 @@ public class GTaskManager {
             e.printStackTrace();
             return STATE_INTERNAL_ERROR;
         } finally {
+            // 取消时提交已处理的节点，使下一次同步从这里继续
+            if (mCancelled) {
+                try {
+                    checkpoint();
+                } catch (Exception e) {
+                    Log.w(TAG, "failed to checkpoint cancelled sync: " + e.toString());
+                }
+            }
             // 无论成功或失败，最后都清理数据结构
+            mPendingLocalCommits.clear();
+            mAsyncTask = null;
             mGTaskListHashMap.clear();
+            mGTaskListNameMap.clear();
             mGTaskHashMap.clear();
             mMetaHashMap.clear();
             mLocalDeleteIdMap.clear();
+            mRemoteUpdatedNodes.clear();
             mGidToNid.clear();
             mNidToGid.clear();
+            mFetchedListGids.clear();
+            mRemoteListStamps.clear();
+            // 同步写入大量数据后合并WAL文件，避免其无限增长拖慢后续读取
+            mContentResolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_CHECKPOINT, null, null);
             mSyncing = false;
         }
 
@@ -213,6 +382,8 @@ public class GTaskManager {
     /**
      * 初始化 GTask 列表。
      * 该方法首先检查操作是否已被取消，然后从 GTaskClient 获取任务列表信息，并初始化元数据列表和任务列表。
+     * 完整同步时下载所有任务列表中的任务；增量同步时只下载远程修改时间与水位线不一致、
+     * 或者包含本地修改的任务列表。如果本地修改无法在已下载的任务中找到对应节点，则退回完整同步。
      * 如果过程中发生网络错误，可能会抛出 NetworkFailureException 异常。
      *
      * @throws NetworkFailureException 如果网络操作失败，则抛出此异常。
@@ -226,72 +397,65 @@ public class GTaskManager {
         try {
             JSONArray jsTaskLists = client.getTaskLists(); // 从客户端获取任务列表数组
 
-            // 初始化元数据列表
-            mMetaList = null;
+            // 初始化除元数据之外的其他任务列表，并确定需要下载任务的列表
+            HashSet<String> dirtyListGids = mFullSync ? null : getLocalDirtyListGids();
+            HashSet<String> fetchListGids = new HashSet<String>();
+            JSONObject jsMetaList = null;
+            mRemoteListStamps.clear();
             for (int i = 0; i < jsTaskLists.length(); i++) {
                 JSONObject object = jsTaskLists.getJSONObject(i);
                 String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
                 String name = object.getString(GTaskStringUtils.GTASK_JSON_NAME);
 
-                // 寻找并初始化元数据列表
-                if (name
-                        .equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_META)) {
-                    mMetaList = new TaskList();
-                    mMetaList.setContentByRemoteJSON(object);
-
-                    // 加载元数据
-                    JSONArray jsMetas = client.getTaskList(gid);
-                    for (int j = 0; j < jsMetas.length(); j++) {
-                        object = (JSONObject) jsMetas.getJSONObject(j);
-                        MetaData metaData = new MetaData();
-                        metaData.setContentByRemoteJSON(object);
-                        if (metaData.isWorthSaving()) {
-                            mMetaList.addChildTask(metaData);
-                            if (metaData.getGid() != null) {
-                                mMetaHashMap.put(metaData.getRelatedGid(), metaData);
-                            }
-                        }
+                if (name.equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_META)) {
+                    jsMetaList = object;
+                } else if (name.startsWith(GTaskStringUtils.MIUI_FOLDER_PREFFIX)) {
+                    TaskList tasklist = new TaskList();
+                    tasklist.setContentByRemoteJSON(object);
+                    mGTaskListHashMap.put(gid, tasklist);
+                    mGTaskListNameMap.put(name, tasklist);
+                    mGTaskHashMap.put(gid, tasklist);
+                    mRemoteListStamps.put(gid, tasklist.getLastModified());
+
+                    if (mFullSync || mFetchedListGids.contains(gid) || dirtyListGids.contains(gid)
+                            || mWatermark.getListStamp(gid) != tasklist.getLastModified()) {
+                        fetchListGids.add(gid);
                     }
                 }
             }
 
-            // 如果元数据列表不存在，则创建新的元数据列表
-            if (mMetaList == null) {
+            // 初始化元数据列表，只有需要下载任务时才加载元数据
+            mMetaList = null;
+            boolean metaLoaded = false;
+            if (jsMetaList != null) {
+                mMetaList = new TaskList();
+                mMetaList.setContentByRemoteJSON(jsMetaList);
+            } else {
+                // 如果元数据列表不存在，则创建新的元数据列表
                 mMetaList = new TaskList();
                 mMetaList.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX
                         + GTaskStringUtils.FOLDER_META);
                 GTaskClient.getInstance().createTaskList(mMetaList);
+                metaLoaded = true;
             }
 
-            // 初始化任务列表
-            for (int i = 0; i < jsTaskLists.length(); i++) {
-                JSONObject object = jsTaskLists.getJSONObject(i);
-                String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
-                String name = object.getString(GTaskStringUtils.GTASK_JSON_NAME);
-
-                // 创建并初始化除元数据之外的其他任务列表
-                if (name.startsWith(GTaskStringUtils.MIUI_FOLDER_PREFFIX)
-                        && !name.equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX
-                        + GTaskStringUtils.FOLDER_META)) {
-                    TaskList tasklist = new TaskList();
-                    tasklist.setContentByRemoteJSON(object);
-                    mGTaskListHashMap.put(gid, tasklist);
-                    mGTaskHashMap.put(gid, tasklist);
+            // 并行加载元数据和任务
+            if (!fetchListGids.isEmpty()) {
+                loadTaskLists(fetchListGids, !metaLoaded);
+                metaLoaded = true;
+            }
 
-                    // 加载任务
-                    JSONArray jsTasks = client.getTaskList(gid);
-                    for (int j = 0; j < jsTasks.length(); j++) {
-                        object = (JSONObject) jsTasks.getJSONObject(j);
-                        gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
-                        Task task = new Task();
-                        task.setContentByRemoteJSON(object);
-                        if (task.isWorthSaving()) {
-                            task.setMetaInfo(mMetaHashMap.get(gid));
-                            tasklist.addChildTask(task);
-                            mGTaskHashMap.put(gid, task);
-                        }
+            // 本地修改引用了未下载的任务（例如笔记被移动到新建的文件夹），退回完整同步
+            if (!mFullSync && hasUnresolvedLocalChanges()) {
+                Log.d(TAG, "local changes refer to unloaded task lists, fall back to full sync");
+                mFullSync = true;
+                HashSet<String> remainingListGids = new HashSet<String>();
+                for (String gid : mGTaskListHashMap.keySet()) {
+                    if (!fetchListGids.contains(gid)) {
+                        remainingListGids.add(gid);
                     }
                 }
+                loadTaskLists(remainingListGids, !metaLoaded);
             }
         } catch (JSONException e) {
             // 处理 JSON 解析异常
@@ -301,6 +465,253 @@ public class GTaskManager {
         }
     }
 
+    /**
+     * 以有限的并发度下载多个任务列表的任务，响应在下载线程中以流的方式解析为任务节点。
+     * 每个列表的结果在到达时即加入任务列表，映射表的修改都在调用线程中完成。
+     *
+     * @param listGids 要下载的任务列表gid，对应的任务列表必须已在 mGTaskListHashMap 中。
+     * @param withMeta 是否同时下载元数据列表。
+     * @throws NetworkFailureException 如果网络操作失败，则抛出此异常。
+     */
+    private void loadTaskLists(Collection<String> listGids, boolean withMeta)
+            throws NetworkFailureException {
+        final GTaskClient client = GTaskClient.getInstance();
+        client.commitUpdate();
+
+        String metaGid = withMeta ? mMetaList.getGid() : null;
+        int total = listGids.size() + (metaGid != null ? 1 : 0);
+        if (total == 0) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mFetchParallelism, total));
+        CompletionService<Pair<String, ArrayList<Task>>> completion =
+                new ExecutorCompletionService<Pair<String, ArrayList<Task>>>(executor);
+        try {
+            if (metaGid != null) {
+                submitTaskListFetch(completion, client, metaGid, true);
+            }
+            for (String gid : listGids) {
+                submitTaskListFetch(completion, client, gid, false);
+            }
+
+            for (int i = 0; i < total; i++) {
+                if (mCancelled) {
+                    return;
+                }
+                Pair<String, ArrayList<Task>> result = takeTaskListFetch(completion);
+                mAsyncTask.publishProgess(mContext.getString(R.string.sync_progress_init_list_count,
+                        i + 1, total), i + 1, total);
+                if (result.first.equals(metaGid)) {
+                    addMetaNodes(result.second);
+                } else {
+                    addTaskNodes(result.first, result.second);
+                }
+            }
+
+            // 元数据可能晚于部分任务列表到达，解析完成后再为这些任务设置元数据
+            if (metaGid != null) {
+                for (String gid : listGids) {
+                    for (Task task : mGTaskListHashMap.get(gid).getChildTaskList()) {
+                        task.setMetaInfo(mMetaHashMap.get(task.getGid()));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交一个任务列表的下载请求。响应在下载线程中以流的方式直接解析为任务节点，
+     * 不需要保存的节点会立即丢弃。
+     */
+    private static void submitTaskListFetch(CompletionService<Pair<String, ArrayList<Task>>> completion,
+                                            final GTaskClient client, final String listGid,
+                                            final boolean isMeta) {
+        completion.submit(new Callable<Pair<String, ArrayList<Task>>>() {
+            public Pair<String, ArrayList<Task>> call() throws Exception {
+                final ArrayList<Task> nodes = new ArrayList<Task>();
+                client.fetchTaskList(listGid, new GTaskClient.JSONObjectHandler() {
+                    public void handle(JSONObject js) {
+                        Task node = isMeta ? new MetaData() : new Task();
+                        node.setContentByRemoteJSON(js);
+                        if (node.isWorthSaving()) {
+                            nodes.add(node);
+                        }
+                    }
+                });
+                return new Pair<String, ArrayList<Task>>(listGid, nodes);
+            }
+        });
+    }
+
+    /**
+     * 取出下一个完成的任务列表下载结果，并将下载线程中的异常原样抛出。
+     *
+     * @throws NetworkFailureException 如果下载时网络操作失败，则抛出此异常。
+     */
+    private static Pair<String, ArrayList<Task>> takeTaskListFetch(
+            CompletionService<Pair<String, ArrayList<Task>>> completion) throws NetworkFailureException {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetworkFailureException("fetch task list: interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NetworkFailureException) {
+                throw (NetworkFailureException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ActionFailureException("fetch task list: " + cause);
+        }
+    }
+
+    /**
+     * 将下载的元数据加入元数据列表。
+     *
+     * @param metas 元数据列表中需要保存的元数据。
+     */
+    private void addMetaNodes(ArrayList<Task> metas) {
+        long metaBytes = 0;
+        int compactCount = 0;
+        for (Task node : metas) {
+            MetaData metaData = (MetaData) node;
+            if (metaData.getNotes() != null) {
+                metaBytes += metaData.getNotes().length();
+                if (metaData.getNotes().contains("\"" + GTaskStringUtils.META_HEAD_VERSION + "\"")) {
+                    compactCount++;
+                }
+            }
+            mMetaList.addChildTask(metaData);
+            if (metaData.getGid() != null) {
+                mMetaHashMap.put(metaData.getRelatedGid(), metaData);
+            }
+        }
+        // 记录元数据列表的大小，用于比较紧凑格式和旧格式的下载量
+        Log.d(TAG, "meta list: " + metas.size() + " items (" + compactCount + " compact), "
+                + metaBytes + " chars of notes");
+    }
+
+    /**
+     * 将下载的任务加入任务列表，并记录该列表已下载。
+     *
+     * @param listGid 任务列表的gid，对应的任务列表必须已在 mGTaskListHashMap 中。
+     * @param tasks   任务列表中需要保存的任务。
+     */
+    private void addTaskNodes(String listGid, ArrayList<Task> tasks) {
+        TaskList tasklist = mGTaskListHashMap.get(listGid);
+        for (Task task : tasks) {
+            task.setMetaInfo(mMetaHashMap.get(task.getGid()));
+            tasklist.addChildTask(task);
+            mGTaskHashMap.put(task.getGid(), task);
+        }
+        mFetchedListGids.add(listGid);
+    }
+
+    /**
+     * 查询包含本地修改的任务列表，包括本地修改笔记所在的文件夹，以及回收站中待远程删除的笔记原来所在的文件夹。
+     *
+     * @return 这些文件夹对应的任务列表gid集合。
+     */
+    private HashSet<String> getLocalDirtyListGids() {
+        HashSet<String> gids = new HashSet<String>();
+        Cursor c = null;
+        try {
+            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, new String[]{
+                            NoteColumns.GTASK_ID
+                    }, "(" + NoteColumns.ID + " IN (SELECT " + NoteColumns.PARENT_ID + " FROM "
+                            + TABLE.NOTE + " WHERE " + NoteColumns.TYPE + "=? AND "
+                            + NoteColumns.LOCAL_MODIFIED + "=1) OR " + NoteColumns.ID + " IN (SELECT "
+                            + NoteColumns.ORIGIN_PARENT_ID + " FROM " + TABLE.NOTE + " WHERE "
+                            + NoteColumns.PARENT_ID + "=? AND " + NoteColumns.GTASK_ID + "<>''))",
+                    new String[]{
+                            String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
+                    }, null);
+            if (c != null) {
+                while (c.moveToNext()) {
+                    String gid = c.getString(0);
+                    if (!TextUtils.isEmpty(gid)) {
+                        gids.add(gid);
+                    }
+                }
+            } else {
+                Log.w(TAG, "failed to query locally modified folders");
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+                c = null;
+            }
+        }
+        return gids;
+    }
+
+    /**
+     * 检查是否存在已关联远程任务、但该任务不在已下载任务中的本地修改笔记或待远程删除的笔记。
+     *
+     * @return 存在返回true。
+     */
+    private boolean hasUnresolvedLocalChanges() {
+        Cursor c = null;
+        try {
+            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, new String[]{
+                            NoteColumns.GTASK_ID
+                    }, "(" + NoteColumns.TYPE + "=? AND " + NoteColumns.GTASK_ID + "<>'' AND ("
+                            + NoteColumns.LOCAL_MODIFIED + "=1 OR " + NoteColumns.PARENT_ID + "=?))",
+                    new String[]{
+                            String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
+                    }, null);
+            if (c != null) {
+                while (c.moveToNext()) {
+                    if (!mGTaskHashMap.containsKey(c.getString(0))) {
+                        return true;
+                    }
+                }
+            } else {
+                Log.w(TAG, "failed to query locally modified notes");
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+                c = null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 构造只匹配已下载任务列表中笔记的查询条件，用于增量同步时限定需要遍历的本地笔记。
+     *
+     * @return 查询条件片段，参数为 mFetchedListGids 中的gid。
+     */
+    private String getFetchedListsSelection() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(NoteColumns.PARENT_ID).append(" IN (SELECT ").append(NoteColumns.ID)
+                .append(" FROM ").append(TABLE.NOTE).append(" WHERE ").append(NoteColumns.GTASK_ID)
+                .append(" IN (");
+        for (int i = 0; i < mFetchedListGids.size(); i++) {
+            sb.append(i > 0 ? ",?" : "?");
+        }
+        sb.append("))");
+        return sb.toString();
+    }
+
+    /**
+     * 拼接查询参数。
+     */
+    private static String[] concatArgs(String[] args, HashSet<String> extra) {
+        String[] result = new String[args.length + extra.size()];
+        System.arraycopy(args, 0, result, 0, args.length);
+        int i = args.length;
+        for (String arg : extra) {
+            result[i++] = arg;
+        }
+        return result;
+    }
+
 
     /**
      * 同步内容数据。
@@ -321,10 +732,14 @@ public class GTaskManager {
             return;  // 如果操作已被取消，则直接返回
         }
 
+        // 每个远程节点和每个尚未关联远程节点的本地笔记各处理一次
+        mProgressTotal = mGTaskHashMap.size() + countUnsyncedLocalNodes();
+        reportProgress(true);
+
         // 处理本地删除的笔记
         try {
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type<>? AND parent_id=?)", new String[]{
+                    NoteSelections.SYNC_TRASH, new String[]{
                             String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, null);
             if (c != null) {
@@ -351,12 +766,19 @@ public class GTaskManager {
         // 首先同步文件夹信息
         syncFolder();
 
-        // 处理数据库中存在的笔记
+        // 处理数据库中存在的笔记，增量同步时只处理本地修改过的笔记和已下载任务列表中的笔记
         try {
+            String selection = NoteSelections.SYNC_BY_TYPE;
+            String[] selectionArgs = new String[]{
+                    String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
+            };
+            if (!mFullSync) {
+                selection = "(" + NoteSelections.SYNC_BY_TYPE + " AND (" + NoteColumns.LOCAL_MODIFIED
+                        + "=1 OR " + getFetchedListsSelection() + "))";
+                selectionArgs = concatArgs(selectionArgs, mFetchedListGids);
+            }
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type=? AND parent_id<>?)", new String[]{
-                            String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, NoteColumns.TYPE + " DESC");
+                    selection, selectionArgs, NoteColumns.TYPE + " DESC");
             if (c != null) {
                 while (c.moveToNext()) {
                     gid = c.getString(SqlNote.GTASK_ID_COLUMN);
@@ -365,7 +787,7 @@ public class GTaskManager {
                         mGTaskHashMap.remove(gid); // 从映射表中移除
                         mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN)); // 更新ID映射
                         mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-                        syncType = node.getSyncAction(c); // 获取同步动作
+                        syncType = getSyncAction(node, c); // 获取同步动作
                     } else {
                         if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
                             // 如果没有GTask ID，则视为本地新增
@@ -389,12 +811,21 @@ public class GTaskManager {
         }
 
         // 处理剩余项目
+        // 增量同步时未遍历的本地笔记可能已关联剩余的任务（例如任务在远程被移动到其他列表）
+        if (!mFullSync) {
+            syncUnvisitedLocalNodes();
+        }
+        // 一次性查询剩余任务引用的本地ID是否已被占用，避免逐个查询
+        prefetchExistingIds(mGTaskHashMap.values());
         Iterator<Map.Entry<String, Node>> iter = mGTaskHashMap.entrySet().iterator();
         while (iter.hasNext()) {
             Map.Entry<String, Node> entry = iter.next();
             node = entry.getValue();
             doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null); // 将剩余项目作为本地新增处理
         }
+        if (!mCancelled) {
+            checkpoint();
+        }
 
         // 检查是否取消操作，清理本地删除表，并更新本地同步ID
         if (!mCancelled) {
@@ -406,12 +837,98 @@ public class GTaskManager {
 
         // 刷新本地同步ID
         if (!mCancelled) {
-            GTaskClient.getInstance().commitUpdate(); // 提交更新
+            mAsyncTask.publishProgess(mContext.getString(R.string.sync_progress_refresh));
             refreshLocalSyncId(); // 刷新本地同步ID
         }
 
     }
 
+    /**
+     * 增量同步时处理未被遍历到、但已关联剩余远程任务的本地笔记，处理过的任务从 mGTaskHashMap 中移除。
+     * 按gid分批查询，每批一次查询。
+     *
+     * @throws NetworkFailureException 如果网络操作失败，则抛出此异常。
+     */
+    private void syncUnvisitedLocalNodes() throws NetworkFailureException {
+        ArrayList<String> gids = new ArrayList<String>(mGTaskHashMap.keySet());
+        for (int start = 0; start < gids.size() && !mCancelled; start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, gids.size());
+            StringBuilder selection = new StringBuilder(NoteColumns.GTASK_ID + " IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i > start ? ",?" : "?");
+                selectionArgs[i - start] = gids.get(i);
+            }
+            selection.append(")");
+
+            Cursor c = null;
+            try {
+                c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+                        selection.toString(), selectionArgs, null);
+                if (c == null) {
+                    Log.w(TAG, "failed to query unvisited local notes");
+                    continue;
+                }
+                while (c.moveToNext()) {
+                    // 只处理不在回收站中的笔记，条件在这里判断以便查询走GTASK_ID索引
+                    if (c.getInt(SqlNote.TYPE_COLUMN) != Notes.TYPE_NOTE
+                            || c.getLong(SqlNote.PARENT_ID_COLUMN) == Notes.ID_TRASH_FOLER) {
+                        continue;
+                    }
+                    String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
+                    Node node = mGTaskHashMap.remove(gid);
+                    if (node != null) {
+                        mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
+                        mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
+                        doContentSync(getSyncAction(node, c), node, c);
+                    }
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                    c = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 收集将要在本地新增的任务中引用的笔记ID和数据ID，并批量查询其中已被本地占用的ID。
+     *
+     * @param nodes 将要在本地新增的节点。
+     */
+    private void prefetchExistingIds(Collection<Node> nodes) {
+        HashSet<Long> noteIds = new HashSet<Long>();
+        HashSet<Long> dataIds = new HashSet<Long>();
+        for (Node node : nodes) {
+            if (!(node instanceof Task)) {
+                continue;
+            }
+            JSONObject js = node.getLocalJSONFromContent();
+            try {
+                if (js != null && js.has(GTaskStringUtils.META_HEAD_NOTE)) {
+                    JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+                    if (note.has(NoteColumns.ID)) {
+                        noteIds.add(note.getLong(NoteColumns.ID));
+                    }
+                }
+                if (js != null && js.has(GTaskStringUtils.META_HEAD_DATA)) {
+                    JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                    for (int i = 0; i < dataArray.length(); i++) {
+                        JSONObject data = dataArray.getJSONObject(i);
+                        if (data.has(DataColumns.ID)) {
+                            dataIds.add(data.getLong(DataColumns.ID));
+                        }
+                    }
+                }
+            } catch (JSONException e) {
+                Log.w(TAG, e.toString());
+            }
+        }
+        mExistingNoteIds = DataUtils.getExistingIds(mContentResolver, Notes.CONTENT_NOTE_URI, noteIds);
+        mExistingDataIds = DataUtils.getExistingIds(mContentResolver, Notes.CONTENT_DATA_URI, dataIds);
+    }
+
     /**
      * 同步文件夹数据。
      * 该方法负责同步根文件夹、通话记录文件夹以及本地和远程存在的文件夹。
@@ -496,7 +1013,7 @@ public class GTaskManager {
         // 同步本地已存在的文件夹
         try {
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type=? AND parent_id<>?)", new String[]{
+                    NoteSelections.SYNC_BY_TYPE, new String[]{
                             String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, NoteColumns.TYPE + " DESC");
             if (c != null) {
@@ -508,7 +1025,7 @@ public class GTaskManager {
                         mGTaskHashMap.remove(gid);
                         mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
                         mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-                        syncType = node.getSyncAction(c);
+                        syncType = getSyncAction(node, c);
                     } else {
                         if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
                             // 本地添加
@@ -542,8 +1059,90 @@ public class GTaskManager {
             }
         }
 
-        if (!mCancelled)
-            GTaskClient.getInstance().commitUpdate();
+        if (!mCancelled) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * 获取节点的同步动作。上次中断的同步中已提交、且此后本地和远程都没有修改的节点不再处理。
+     *
+     * @param node 远程节点。
+     * @param c    指向对应本地笔记的游标。
+     * @return 同步动作。
+     */
+    private int getSyncAction(Node node, Cursor c) {
+        if (c.getInt(SqlNote.LOCAL_MODIFIED_COLUMN) == 0
+                && mJournal.isNodeDone(c.getLong(SqlNote.ID_COLUMN), node.getLastModified())) {
+            return Node.SYNC_ACTION_NONE;
+        }
+        return node.getSyncAction(c);
+    }
+
+    /**
+     * 统计尚未关联远程节点的本地文件夹和笔记数量，用于估计同步进度的总数。
+     */
+    private int countUnsyncedLocalNodes() {
+        Cursor c = mContentResolver.query(Notes.CONTENT_NOTE_URI, new String[]{NoteColumns.ID},
+                "(type<>? AND parent_id<>? AND " + NoteColumns.GTASK_ID + "='')", new String[]{
+                        String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
+                }, null);
+        if (c == null) {
+            return 0;
+        }
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 检查点：提交排队的远程动作，再提交等待中的本地笔记，最后将已处理的节点写入同步日志。
+     * 更新了远程节点的笔记以提交时服务器返回的修改时间记录，继续同步时不会再被当作远程修改。
+     *
+     * @throws NetworkFailureException 如果网络操作失败，则抛出此异常。
+     */
+    private void checkpoint() throws NetworkFailureException {
+        GTaskClient.getInstance().commitUpdate();
+        for (SqlNote sqlNote : mPendingLocalCommits) {
+            sqlNote.commit(true);
+            Node node = mRemoteUpdatedNodes.get(sqlNote.getId());
+            if (node != null) {
+                mJournal.addNode(sqlNote.getId(), node.getLastModified());
+            }
+        }
+        mPendingLocalCommits.clear();
+        mJournal.commit();
+        mUncheckpointedCount = 0;
+    }
+
+    /**
+     * 记录同步过程中已使用堆内存的峰值，在报告进度时采样。
+     */
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        mPeakHeap = Math.max(mPeakHeap, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * 报告内容同步的进度，包括已处理的节点数和已传输的字节数。
+     *
+     * @param force 为true时忽略报告间隔。
+     */
+    private void reportProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - mLastProgressTime < PROGRESS_INTERVAL) {
+            return;
+        }
+        mLastProgressTime = now;
+        sampleHeap();
+
+        GTaskClient client = GTaskClient.getInstance();
+        long bytes = client.getSentBytes() + client.getReceivedBytes() - mStartBytes;
+        int total = Math.max(mProgressTotal, mProgressDone);
+        mAsyncTask.publishProgess(mContext.getString(R.string.sync_progress_items, mProgressDone,
+                total, Formatter.formatShortFileSize(mContext, bytes)), mProgressDone, total);
     }
 
     /**
@@ -563,6 +1162,9 @@ public class GTaskManager {
         switch (syncType) {
             case Node.SYNC_ACTION_ADD_LOCAL: // 添加本地节点
                 addLocalNode(node);
+                if (mGidToNid.containsKey(node.getGid())) {
+                    mJournal.addNode(mGidToNid.get(node.getGid()), node.getLastModified());
+                }
                 break;
             case Node.SYNC_ACTION_ADD_REMOTE: // 添加远程节点
                 addRemoteNode(node, c);
@@ -583,13 +1185,14 @@ public class GTaskManager {
                 break;
             case Node.SYNC_ACTION_UPDATE_LOCAL: // 更新本地节点
                 updateLocalNode(node, c);
+                mJournal.addNode(c.getLong(SqlNote.ID_COLUMN), node.getLastModified());
                 break;
             case Node.SYNC_ACTION_UPDATE_REMOTE: // 更新远程节点
                 updateRemoteNode(node, c);
                 break;
             case Node.SYNC_ACTION_UPDATE_CONFLICT: // 处理更新冲突
-                // 目前简单地采用本地更新，未来可能需要合并双方修改
-                updateRemoteNode(node, c);
+                // 以上次同步的内容为基准合并双方的修改
+                mergeConflictNode(node, c);
                 break;
             case Node.SYNC_ACTION_NONE: // 无操作
                 break;
@@ -597,6 +1200,13 @@ public class GTaskManager {
             default:
                 throw new ActionFailureException("unkown sync action type"); // 抛出未知同步操作类型的异常
         }
+
+        // 定期提交已处理的节点，中断后的同步从最近的检查点继续
+        if (++mUncheckpointedCount >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+        mProgressDone++;
+        reportProgress(false);
     }
 
 
@@ -639,9 +1249,12 @@ public class GTaskManager {
                     JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
                     if (note.has(NoteColumns.ID)) {
                         long id = note.getLong(NoteColumns.ID);
-                        if (DataUtils.existInNoteDatabase(mContentResolver, id)) {
+                        if (mExistingNoteIds.contains(id)) {
                             // 如果笔记 ID 已存在，则移除该 ID
                             note.remove(NoteColumns.ID);
+                        } else {
+                            // 该 ID 即将被本节点占用
+                            mExistingNoteIds.add(id);
                         }
                     }
                 }
@@ -652,9 +1265,12 @@ public class GTaskManager {
                         JSONObject data = dataArray.getJSONObject(i);
                         if (data.has(DataColumns.ID)) {
                             long dataId = data.getLong(DataColumns.ID);
-                            if (DataUtils.existInDataDatabase(mContentResolver, dataId)) {
+                            if (mExistingDataIds.contains(dataId)) {
                                 // 如果数据 ID 已存在，则移除该 ID
                                 data.remove(DataColumns.ID);
+                            } else {
+                                // 该 ID 即将被本节点占用
+                                mExistingDataIds.add(dataId);
                             }
                         }
                     }
@@ -676,6 +1292,10 @@ public class GTaskManager {
 
         // 提交 SqlNote 到数据库，并更新 ID 映射关系
         sqlNote.setGtaskId(node.getGid());
+        sqlNote.setSyncId(node.getLastModified());
+        if (node instanceof Task) {
+            sqlNote.setSyncBase(node.getName());
+        }
         sqlNote.commit(false);
 
         mGidToNid.put(node.getGid(), sqlNote.getId());
@@ -701,7 +1321,12 @@ public class GTaskManager {
         SqlNote sqlNote;
         // 根据节点内容更新本地数据库中的笔记
         sqlNote = new SqlNote(mContext, c);
-        sqlNote.setContent(node.getLocalJSONFromContent());
+        JSONObject js = node.getLocalJSONFromContent();
+        if (node instanceof Task) {
+            // 紧凑格式的元数据不包含小部件等列，保留本地原来的值
+            MetaData.fillMissingNoteColumns(js, sqlNote.getContent());
+        }
+        sqlNote.setContent(js);
 
         // 确定父节点ID，任务则查找父任务ID，否则默认为根文件夹ID
         Long parentId = (node instanceof Task) ? mGidToNid.get(((Task) node).getParent().getGid())
@@ -711,6 +1336,10 @@ public class GTaskManager {
             throw new ActionFailureException("cannot update local node");
         }
         sqlNote.setParentId(parentId.longValue());
+        sqlNote.setSyncId(node.getLastModified());
+        if (node instanceof Task) {
+            sqlNote.setSyncBase(node.getName());
+        }
         sqlNote.commit(true);
 
         // 更新远程元数据
@@ -729,13 +1358,13 @@ public class GTaskManager {
             return;
         }
 
-        SqlNote sqlNote = new SqlNote(mContext, c);
-        Node n;
+        final SqlNote sqlNote = new SqlNote(mContext, c);
 
         // 如果是任务类型，则远程创建任务；否则，根据条件判断是否需要创建新的任务列表
         if (sqlNote.isNoteType()) {
             Task task = new Task();
             task.setContentByLocalJSON(sqlNote.getContent());
+            sqlNote.setSyncBase(task.getName());
 
             // 查找任务所属的任务列表ID
             String parentGid = mNidToGid.get(sqlNote.getParentId());
@@ -745,11 +1374,13 @@ public class GTaskManager {
             }
             mGTaskListHashMap.get(parentGid).addChildTask(task);
 
-            GTaskClient.getInstance().createTask(task);
-            n = (Node) task;
-
-            // 更新远程元数据
-            updateRemoteMeta(task.getGid(), sqlNote);
+            // 任务与其他动作合并提交，取得gid后再更新远程元数据和本地笔记
+            GTaskClient.getInstance().addCreateNode(task, new GTaskClient.OnNodeCreatedListener() {
+                public void onNodeCreated(Node n) throws NetworkFailureException {
+                    updateRemoteMeta(n.getGid(), sqlNote);
+                    bindRemoteNode(n, sqlNote);
+                }
+            });
         } else {
             TaskList tasklist = null;
 
@@ -763,19 +1394,9 @@ public class GTaskManager {
                 folderName += sqlNote.getSnippet();
 
             // 在已有的任务列表中查找匹配的条目
-            Iterator<Map.Entry<String, TaskList>> iter = mGTaskListHashMap.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<String, TaskList> entry = iter.next();
-                String gid = entry.getKey();
-                TaskList list = entry.getValue();
-
-                if (list.getName().equals(folderName)) {
-                    tasklist = list;
-                    if (mGTaskHashMap.containsKey(gid)) {
-                        mGTaskHashMap.remove(gid);
-                    }
-                    break;
-                }
+            tasklist = findTaskListByName(folderName);
+            if (tasklist != null) {
+                mGTaskHashMap.remove(tasklist.getGid());
             }
 
             // 如果没有找到匹配的任务列表，则创建新的任务列表
@@ -784,10 +1405,38 @@ public class GTaskManager {
                 tasklist.setContentByLocalJSON(sqlNote.getContent());
                 GTaskClient.getInstance().createTaskList(tasklist);
                 mGTaskListHashMap.put(tasklist.getGid(), tasklist);
+                mGTaskListNameMap.put(tasklist.getName(), tasklist);
             }
-            n = (Node) tasklist;
+            bindRemoteNode(tasklist, sqlNote);
+        }
+    }
+
+    /**
+     * 按名称查找已有的任务列表。任务列表在同步过程中可能被改名，索引项与列表当前名称不一致或未命中时重建索引后再查找。
+     *
+     * @param name 任务列表名称。
+     * @return 匹配的任务列表，没有时返回null。
+     */
+    private TaskList findTaskListByName(String name) {
+        TaskList list = mGTaskListNameMap.get(name);
+        if (list != null && name.equals(list.getName())) {
+            return list;
         }
 
+        mGTaskListNameMap.clear();
+        for (TaskList tasklist : mGTaskListHashMap.values()) {
+            mGTaskListNameMap.put(tasklist.getName(), tasklist);
+        }
+        return mGTaskListNameMap.get(name);
+    }
+
+    /**
+     * 将本地笔记与已创建的远程节点关联，保存gid并清除本地修改标志。
+     *
+     * @param n       已取得gid的远程节点
+     * @param sqlNote 对应的本地笔记
+     */
+    private void bindRemoteNode(Node n, SqlNote sqlNote) {
         // 更新本地数据库中的笔记信息
         sqlNote.setGtaskId(n.getGid());
         sqlNote.commit(false);
@@ -797,6 +1446,7 @@ public class GTaskManager {
         // 更新GID和ID的映射关系
         mGidToNid.put(n.getGid(), sqlNote.getId());
         mNidToGid.put(sqlNote.getId(), n.getGid());
+        mRemoteUpdatedNodes.put(sqlNote.getId(), n);
     }
 
 
@@ -812,13 +1462,26 @@ public class GTaskManager {
             return;
         }
 
-        SqlNote sqlNote = new SqlNote(mContext, c); // 从数据库游标中创建 SqlNote 对象
+        updateRemoteNode(node, new SqlNote(mContext, c)); // 从数据库游标中创建 SqlNote 对象
+    }
 
-        // 使用本地 JSON 格式更新远程节点内容
+    /**
+     * 使用本地笔记的内容更新远程节点，并清除本地修改标志。
+     *
+     * @param node    需要更新的节点
+     * @param sqlNote 本地笔记，未提交的修改会与修改标志一起提交
+     * @throws NetworkFailureException 如果网络操作失败，则抛出此异常
+     */
+    private void updateRemoteNode(Node node, SqlNote sqlNote) throws NetworkFailureException {
+        // 使用本地 JSON 格式更新远程节点内容，只有与远程不同的字段会被标记并发送
         node.setContentByLocalJSON(sqlNote.getContent());
         GTaskClient.getInstance().addUpdateNode(node); // 将节点添加到更新队列
+        mRemoteUpdatedNodes.put(sqlNote.getId(), node);
+        if (node instanceof Task) {
+            sqlNote.setSyncBase(node.getName());
+        }
 
-        // 更新元数据
+        // 更新元数据，内容未变化时不会重新发送
         updateRemoteMeta(node.getGid(), sqlNote);
 
         // 如果是笔记类型，检查并移动任务
@@ -841,9 +1504,63 @@ public class GTaskManager {
             }
         }
 
-        // 重置本地修改标志，并提交更改
+        // 重置本地修改标志，在远程动作提交后的检查点中提交更改
         sqlNote.resetLocalModified();
-        sqlNote.commit(true);
+        mPendingLocalCommits.add(sqlNote);
+    }
+
+    /**
+     * 合并本地与远程同时修改的笔记。
+     * 笔记文本以上次同步记录的内容为基准按行三方合并，只有双方修改了同一段落时才以冲突标记保留两侧内容，
+     * 由用户在笔记中自行取舍；背景色、提醒时间等其他列保留本地的值。
+     * 合并结果同时写入本地和远程。文件夹没有正文，仍以本地为准；没有记录合并基准的笔记
+     * （升级前同步的笔记或更换账户后）无法区分双方的修改，同样以本地为准。
+     *
+     * @param node 远程节点
+     * @param c    数据库游标，指向本地笔记
+     * @throws NetworkFailureException 如果网络操作失败，则抛出此异常
+     */
+    private void mergeConflictNode(Node node, Cursor c) throws NetworkFailureException {
+        if (mCancelled) {
+            return;
+        }
+
+        SqlNote sqlNote = new SqlNote(mContext, c);
+        if (!(node instanceof Task) || !sqlNote.isNoteType()) {
+            updateRemoteNode(node, sqlNote);
+            return;
+        }
+
+        JSONObject js = sqlNote.getContent();
+        Task local = new Task();
+        local.setContentByLocalJSON(js);
+        TextMerger.Result result = TextMerger.merge(c.getString(SqlNote.SYNC_BASE_COLUMN),
+                local.getName(), node.getName());
+        if (result.hasConflicts()) {
+            Log.w(TAG, "note " + sqlNote.getId() + " merged with " + result.getConflictCount()
+                    + " conflicts");
+        }
+
+        // 将合并后的文本写回本地笔记内容
+        if (!TextUtils.equals(result.getText(), local.getName())) {
+            try {
+                JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                for (int i = 0; i < dataArray.length(); i++) {
+                    JSONObject data = dataArray.getJSONObject(i);
+                    if (TextUtils.equals(data.getString(DataColumns.MIME_TYPE),
+                            DataConstants.NOTE)) {
+                        data.put(DataColumns.CONTENT, result.getText());
+                        break;
+                    }
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, e.toString());
+                e.printStackTrace();
+                throw new ActionFailureException("cannot merge conflict note");
+            }
+            sqlNote.setContent(js);
+        }
+        updateRemoteNode(node, sqlNote);
     }
 
     /**
@@ -857,7 +1574,7 @@ public class GTaskManager {
         if (sqlNote != null && sqlNote.isNoteType()) { // 确保是笔记类型
             MetaData metaData = mMetaHashMap.get(gid); // 尝试获取现有的元数据对象
             if (metaData != null) {
-                // 更新元数据内容并加入更新队列
+                // 更新元数据内容并加入更新队列，内容与远程相同时不会产生更新动作
                 metaData.setMeta(gid, sqlNote.getContent());
                 GTaskClient.getInstance().addUpdateNode(metaData);
             } else {
@@ -866,7 +1583,7 @@ public class GTaskManager {
                 metaData.setMeta(gid, sqlNote.getContent());
                 mMetaList.addChildTask(metaData);
                 mMetaHashMap.put(gid, metaData);
-                GTaskClient.getInstance().createTask(metaData);
+                GTaskClient.getInstance().addCreateNode(metaData, null);
             }
         }
     }
@@ -874,58 +1591,39 @@ public class GTaskManager {
 
     /**
      * 刷新本地同步ID。
-     * 该方法首先获取最新的gtask列表，然后通过查询本地笔记内容来更新这些笔记的同步ID。
-     * 如果在查询过程中发现有本地项目在同步后没有对应的gtask ID，则抛出ActionFailureException异常。
+     * 写入本地的节点在提交时已经保存了同步ID，这里只处理本次同步中修改了远程节点的笔记，
+     * 其同步ID取自提交动作时服务器返回的修改时间，不需要重新下载任务列表。
+     * 所有同步ID在一个事务中写入，不增加笔记版本。
+     * 如果同步后仍有本地项目没有对应的gtask ID，则抛出ActionFailureException异常。
      *
-     * @throws NetworkFailureException 如果网络操作失败。
-     * @throws ActionFailureException  如果在同步后发现有本地项目没有对应的gtask ID。
+     * @throws ActionFailureException 如果在同步后发现有本地项目没有对应的gtask ID。
      */
-    private void refreshLocalSyncId() throws NetworkFailureException {
+    private void refreshLocalSyncId() {
         if (mCancelled) {
             return;
         }
 
-        // 清空现有的gtask列表和元数据，准备获取最新的数据
-        mGTaskHashMap.clear();
-        mGTaskListHashMap.clear();
-        mMetaHashMap.clear();
-        initGTaskList();
+        if (countUnsyncedLocalNodes() > 0) {
+            Log.e(TAG, "something is missed");
+            throw new ActionFailureException("some local items don't have gid after sync");
+        }
 
-        Cursor c = null;
-        try {
-            // 查询本地笔记内容，准备更新同步ID
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type<>? AND parent_id<>?)", new String[]{
-                            String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
-                    }, NoteColumns.TYPE + " DESC");
-            if (c != null) {
-                while (c.moveToNext()) {
-                    String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-                    Node node = mGTaskHashMap.get(gid);
-                    if (node != null) {
-                        mGTaskHashMap.remove(gid);
-                        ContentValues values = new ContentValues();
-                        values.put(NoteColumns.SYNC_ID, node.getLastModified());
-                        mContentResolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
-                                c.getLong(SqlNote.ID_COLUMN)), values, null, null);
-                    } else {
-                        // 如果查询到的笔记没有对应的gtask ID，则抛出异常
-                        Log.e(TAG, "something is missed");
-                        throw new ActionFailureException(
-                                "some local items don't have gid after sync");
-                    }
-                }
-            } else {
-                // 如果查询操作失败，记录警告信息
-                Log.w(TAG, "failed to query local note to refresh sync id");
-            }
-        } finally {
-            // 释放Cursor资源
-            if (c != null) {
-                c.close();
-                c = null;
-            }
+        if (mRemoteUpdatedNodes.isEmpty()) {
+            return;
+        }
+        long[] noteIds = new long[mRemoteUpdatedNodes.size()];
+        long[] syncIds = new long[noteIds.length];
+        int i = 0;
+        for (Map.Entry<Long, Node> entry : mRemoteUpdatedNodes.entrySet()) {
+            noteIds[i] = entry.getKey();
+            syncIds[i] = entry.getValue().getLastModified();
+            i++;
         }
+        Bundle extras = new Bundle();
+        extras.putLongArray(Notes.EXTRA_NOTE_IDS, noteIds);
+        extras.putLongArray(Notes.EXTRA_SYNC_IDS, syncIds);
+        mContentResolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_UPDATE_SYNC_IDS, null, extras);
+        mRemoteUpdatedNodes.clear();
     }
 
     /**
@@ -0,0 +1,47 @@
+/*
+ * GTaskSyncJobService类在JobScheduler满足约束条件时执行后台同步。
+ * 同步不关联任何Activity，需要用户授权时由系统发出通知。同步任务由GTaskSyncService统一管理。
+ * 网络错误时请求JobScheduler按任务的退避策略重新调度。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class GTaskSyncJobService extends JobService {
+
+    // 当前执行的同步任务
+    private GTaskASyncTask mSyncTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        GTaskSyncScheduler.onScheduledSyncTriggered();
+        // 没有同步账户时直接结束
+        if (!GTaskSyncScheduler.hasSyncAccount(this)) {
+            return false;
+        }
+
+        // 同步任务与GTaskSyncService共用，已有同步在执行时直接结束
+        mSyncTask = GTaskSyncService.startJobSync(this, new GTaskASyncTask.OnCompleteListener() {
+            public void onComplete() {
+                int result = mSyncTask.getResult();
+                mSyncTask = null;
+                GTaskSyncScheduler.onBackgroundSyncFinished(GTaskSyncJobService.this, result);
+                jobFinished(params, result == GTaskManager.STATE_NETWORK_ERROR);
+            }
+        });
+        return mSyncTask != null;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // 约束条件不再满足时取消同步，已提交的部分由同步日志记录，下次从中断处继续
+        if (mSyncTask != null) {
+            mSyncTask.cancelSync();
+        }
+        return true;
+    }
+}
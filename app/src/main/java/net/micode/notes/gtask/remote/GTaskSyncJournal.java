@@ -0,0 +1,191 @@
+/*
+ * GTaskSyncJournal类用于持久化同步日志，使被取消或被系统终止的同步在下一次同步时从中断处继续。
+ * 日志是追加写入的文本文件，记录同步账户以及已提交的本地节点及其远程修改时间。
+ * 节点只在其远程动作已提交到服务器后才写入日志，下一次同步时跳过内容未变化的已提交节点。
+ * 同步成功或更换同步账户时清除日志。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GTaskSyncJournal {
+    private static final String TAG = GTaskSyncJournal.class.getSimpleName();
+
+    // 日志文件名
+    private static final String JOURNAL_FILE = "gtask_sync.journal";
+
+    // 日志记录的类型
+    private static final String RECORD_ACCOUNT = "account";
+    private static final String RECORD_NODE = "node";
+
+    private final File mFile;
+
+    // 已提交的本地节点ID及其提交时对应远程节点的修改时间
+    private final HashMap<Long, Long> mNodes = new HashMap<Long, Long>();
+
+    // 已处理但远程动作尚未提交的节点，提交后写入日志
+    private final HashMap<Long, Long> mPendingNodes = new HashMap<Long, Long>();
+
+    public GTaskSyncJournal(Context context) {
+        mFile = new File(context.getFilesDir(), JOURNAL_FILE);
+    }
+
+    /**
+     * 开始一次同步。日志属于同一账户时载入上次中断的同步记录，否则丢弃旧日志重新开始。
+     *
+     * @param account 当前同步账户名。
+     * @return 是否从上次中断处继续。
+     */
+    public boolean begin(String account) {
+        mNodes.clear();
+        mPendingNodes.clear();
+
+        boolean resumed = load(account);
+        if (!resumed) {
+            mFile.delete();
+            append(RECORD_ACCOUNT + " " + account);
+        }
+        return resumed;
+    }
+
+    private boolean load(String account) {
+        if (!mFile.exists()) {
+            return false;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            String line = reader.readLine();
+            if (line == null || !line.equals(RECORD_ACCOUNT + " " + account)) {
+                return false;
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = TextUtils.split(line, " ");
+                if (fields.length == 3 && RECORD_NODE.equals(fields[0])) {
+                    mNodes.put(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read sync journal", e);
+        } catch (NumberFormatException e) {
+            // 最后一行可能在写入时被中断，之前的记录仍然有效
+            Log.w(TAG, "truncated sync journal", e);
+            return true;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // 忽略关闭异常
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断本地节点是否已在上次中断的同步中提交，且对应远程节点此后没有修改。
+     *
+     * @param id           本地笔记ID。
+     * @param lastModified 对应远程节点当前的修改时间。
+     */
+    public boolean isNodeDone(long id, long lastModified) {
+        Long stamp = mNodes.get(id);
+        return stamp != null && stamp == lastModified;
+    }
+
+    /**
+     * 记录已处理的本地节点，在{@link #commit()}时写入日志。
+     *
+     * @param id           本地笔记ID。
+     * @param lastModified 对应远程节点的修改时间。
+     */
+    public void addNode(long id, long lastModified) {
+        mPendingNodes.put(id, lastModified);
+    }
+
+    /**
+     * 在远程动作提交成功后将已处理的节点写入日志。
+     */
+    public void commit() {
+        if (mPendingNodes.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Long> entry : mPendingNodes.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(RECORD_NODE).append(' ').append(entry.getKey()).append(' ')
+                    .append(entry.getValue());
+        }
+        if (append(sb.toString())) {
+            mNodes.putAll(mPendingNodes);
+        }
+        mPendingNodes.clear();
+    }
+
+    /**
+     * 获取上次中断的同步中已提交的节点数。
+     */
+    public int getDoneNodeCount() {
+        return mNodes.size();
+    }
+
+    /**
+     * 同步成功后删除日志。
+     */
+    public void finish() {
+        mNodes.clear();
+        mPendingNodes.clear();
+        mFile.delete();
+    }
+
+    private boolean append(String records) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            writer.write(records);
+            writer.write('\n');
+            writer.flush();
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write sync journal", e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // 忽略关闭异常
+                }
+            }
+        }
+    }
+
+    /**
+     * 清除同步日志。在更换或移除同步账户时调用。
+     *
+     * @param context 上下文对象。
+     */
+    public static void clear(Context context) {
+        new File(context.getFilesDir(), JOURNAL_FILE).delete();
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * GTaskSyncReceiver类在API 21以下接收AlarmManager触发的后台同步，并在开机后重新调度周期同步。
+ * 约束条件不满足时，修改触发的同步按指数退避重试，周期同步等待下一个周期。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+public class GTaskSyncReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            // JobScheduler的任务已持久化，只有AlarmManager需要重新设置
+            GTaskSyncScheduler.schedulePeriodic(context);
+        } else if (GTaskSyncScheduler.ACTION_PERIODIC_SYNC.equals(action)) {
+            if (GTaskSyncScheduler.isPeriodicConstraintSatisfied(context)) {
+                GTaskSyncService.startBackgroundSync(context);
+            }
+        } else if (GTaskSyncScheduler.ACTION_CHANGE_SYNC.equals(action)) {
+            GTaskSyncScheduler.onScheduledSyncTriggered();
+            if (GTaskSyncScheduler.isChangeConstraintSatisfied(context)) {
+                GTaskSyncService.startBackgroundSync(context);
+            } else {
+                GTaskSyncScheduler.scheduleRetry(context);
+            }
+        }
+    }
+}
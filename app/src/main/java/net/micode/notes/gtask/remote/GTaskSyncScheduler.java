@@ -0,0 +1,267 @@
+/*
+ * GTaskSyncScheduler类负责在后台调度Google任务同步，使同步不再依赖用户在设置界面手动触发。
+ * 调度分为两类：
+ * 1. 周期同步：在不计流量的网络、充电且设备空闲时执行；
+ * 2. 修改触发的同步：本地笔记第一次被修改后延迟一段时间执行，只调度一个等待中的任务，
+ *    此后的修改合并到这一次同步中。
+ * API 21及以上使用JobScheduler，由系统检查约束条件并在网络错误后按指数退避重试；
+ * 更低版本使用AlarmManager，由GTaskSyncReceiver检查约束条件，退避时间由本类计算。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import net.micode.notes.tool.PreferenceUtils;
+
+public class GTaskSyncScheduler {
+    private static final String TAG = GTaskSyncScheduler.class.getSimpleName();
+
+    // JobScheduler中的任务ID
+    static final int JOB_ID_PERIODIC = 5234236;
+    static final int JOB_ID_CHANGE = 5234237;
+
+    // AlarmManager触发的广播
+    static final String ACTION_PERIODIC_SYNC = "net.micode.notes.gtask.remote.action.PERIODIC_SYNC";
+    static final String ACTION_CHANGE_SYNC = "net.micode.notes.gtask.remote.action.CHANGE_SYNC";
+
+    // 周期同步的间隔
+    private static final long PERIODIC_INTERVAL = 3 * AlarmManager.INTERVAL_HOUR;
+
+    // 第一次修改后等待的时间，期间的修改合并到同一次同步中
+    private static final long DEBOUNCE_DELAY = 2 * 60 * 1000L;
+
+    // 网络错误后重试的初始退避时间和最长退避时间
+    private static final long BACKOFF_INITIAL = 30 * 1000L;
+    private static final long BACKOFF_MAX = 5 * AlarmManager.INTERVAL_HOUR;
+
+    private static final String PREFERENCE_NAME = "gtask_sync_scheduler";
+    private static final String PREFERENCE_FAILURE_COUNT = "failure_count";
+
+    // 修改触发的同步是否已在调度中，调度的同步开始时清除
+    private static volatile boolean sChangeSyncPending;
+
+    /**
+     * 调度周期同步。没有同步账户或周期同步已在调度中时不做任何操作。
+     *
+     * @param context 上下文对象。
+     */
+    public static void schedulePeriodic(Context context) {
+        if (!hasSyncAccount(context)) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            schedulePeriodicJob(context);
+        } else {
+            // 重复设置相同的PendingIntent会替换原来的闹钟，不需要检查是否已调度
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + PERIODIC_INTERVAL, PERIODIC_INTERVAL,
+                    getAlarmIntent(context, ACTION_PERIODIC_SYNC));
+        }
+    }
+
+    /**
+     * 请求在本地笔记修改后同步。已有等待中的同步时直接返回，不访问偏好设置和系统服务，
+     * 连续的修改都包含在这一次同步中。
+     *
+     * @param context 上下文对象。
+     */
+    public static void requestSync(Context context) {
+        if (sChangeSyncPending) {
+            return;
+        }
+        synchronized (GTaskSyncScheduler.class) {
+            if (sChangeSyncPending || !hasSyncAccount(context)) {
+                return;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                scheduleChangeJob(context);
+            } else {
+                setAlarm(context, ACTION_CHANGE_SYNC, DEBOUNCE_DELAY);
+            }
+            sChangeSyncPending = true;
+        }
+    }
+
+    /**
+     * 取消所有已调度的同步。在移除同步账户时调用。
+     *
+     * @param context 上下文对象。
+     */
+    public static void cancel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler scheduler = (JobScheduler) context
+                    .getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            scheduler.cancel(JOB_ID_PERIODIC);
+            scheduler.cancel(JOB_ID_CHANGE);
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.cancel(getAlarmIntent(context, ACTION_PERIODIC_SYNC));
+            alarmManager.cancel(getAlarmIntent(context, ACTION_CHANGE_SYNC));
+        }
+        sChangeSyncPending = false;
+        getPreferences(context).edit().clear().commit();
+    }
+
+    /**
+     * 调度的同步被触发时调用，之后的修改需要重新调度同步。
+     */
+    static void onScheduledSyncTriggered() {
+        sChangeSyncPending = false;
+    }
+
+    /**
+     * 后台同步结束时调用。网络错误时在API 21以下按指数退避调度重试，
+     * 更高版本由JobScheduler根据任务的退避策略重试。
+     *
+     * @param context 上下文对象。
+     * @param result  GTaskManager返回的同步状态。
+     */
+    static void onBackgroundSyncFinished(Context context, int result) {
+        SharedPreferences prefs = getPreferences(context);
+        if (result == GTaskManager.STATE_SUCCESS) {
+            prefs.edit().remove(PREFERENCE_FAILURE_COUNT).commit();
+        } else if (result == GTaskManager.STATE_NETWORK_ERROR) {
+            int failures = prefs.getInt(PREFERENCE_FAILURE_COUNT, 0) + 1;
+            prefs.edit().putInt(PREFERENCE_FAILURE_COUNT, failures).commit();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                scheduleRetry(context, failures);
+            }
+        }
+    }
+
+    /**
+     * 在约束条件不满足时按指数退避调度重试，只用于AlarmManager调度。
+     */
+    static void scheduleRetry(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        int failures = prefs.getInt(PREFERENCE_FAILURE_COUNT, 0) + 1;
+        prefs.edit().putInt(PREFERENCE_FAILURE_COUNT, failures).commit();
+        scheduleRetry(context, failures);
+    }
+
+    private static void scheduleRetry(Context context, int failures) {
+        long delay = BACKOFF_INITIAL << Math.min(failures - 1, 20);
+        delay = Math.min(delay, BACKOFF_MAX);
+        Log.d(TAG, "retry background sync in " + delay + "ms");
+        setAlarm(context, ACTION_CHANGE_SYNC, delay);
+        // 重试会包含此后的修改，不需要再调度
+        sChangeSyncPending = true;
+    }
+
+    /**
+     * 检查周期同步的约束条件：不计流量的网络、正在充电且设备空闲。
+     */
+    static boolean isPeriodicConstraintSatisfied(Context context) {
+        if (!isNetworkConnected(context, true)) {
+            return false;
+        }
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return !powerManager.isScreenOn();
+    }
+
+    /**
+     * 检查修改触发的同步的约束条件：任意可用网络。
+     */
+    static boolean isChangeConstraintSatisfied(Context context) {
+        return isNetworkConnected(context, false);
+    }
+
+    private static boolean isNetworkConnected(Context context, boolean unmetered) {
+        ConnectivityManager cm = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return false;
+        }
+        if (!unmetered) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        return info.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    static boolean hasSyncAccount(Context context) {
+        return !TextUtils.isEmpty(PreferenceUtils.getSyncAccountName(context));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void schedulePeriodicJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID_PERIODIC) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID_PERIODIC,
+                new ComponentName(context, GTaskSyncJobService.class))
+                .setPeriodic(PERIODIC_INTERVAL)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleChangeJob(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        // 其他进程调度或正在退避重试的任务仍在等待时保留原任务，不重置其延迟
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID_CHANGE) {
+                return;
+            }
+        }
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID_CHANGE,
+                new ComponentName(context, GTaskSyncJobService.class))
+                .setMinimumLatency(DEBOUNCE_DELAY)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setBackoffCriteria(BACKOFF_INITIAL, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+        scheduler.schedule(builder.build());
+    }
+
+    private static void setAlarm(Context context, String action, long delay) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delay,
+                getAlarmIntent(context, action));
+    }
+
+    private static PendingIntent getAlarmIntent(Context context, String action) {
+        Intent intent = new Intent(context, GTaskSyncReceiver.class);
+        intent.setAction(action);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+}
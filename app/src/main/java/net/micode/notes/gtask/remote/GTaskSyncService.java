@@ -32,9 +32,21 @@ public class GTaskSyncService extends Service {
     // 广播中的同步进度消息
     public final static String GTASK_SERVICE_BROADCAST_PROGRESS_MSG = "progressMsg";
 
+    // 启动同步时是否忽略水位线执行完整同步
+    public final static String GTASK_SERVICE_FULL_SYNC = "fullSync";
+
+    // 启动同步时是否为不关联Activity的后台同步
+    public final static String GTASK_SERVICE_BACKGROUND = "background";
+
     // 静态变量用于存储当前同步任务实例
     private static GTaskASyncTask mSyncTask = null;
 
+    // 当前同步任务是否为后台同步
+    private static boolean mBackground = false;
+
+    // 当前同步任务是否由GTaskSyncJobService执行
+    private static boolean mJobSync = false;
+
     // 存储同步进度的字符串
     private static String mSyncProgress = "";
 
@@ -42,19 +54,59 @@ public class GTaskSyncService extends Service {
      * 启动同步任务。
      * 如果当前没有同步任务在执行，将创建一个新的同步任务并执行。
      */
-    private void startSync() {
+    private void startSync(boolean background) {
         if (mSyncTask == null) {
+            mBackground = background;
             mSyncTask = new GTaskASyncTask(this, new GTaskASyncTask.OnCompleteListener() {
                 public void onComplete() {
+                    // 后台同步需要根据结果重置或退避重试
+                    if (mBackground) {
+                        GTaskSyncScheduler.onBackgroundSyncFinished(GTaskSyncService.this,
+                                mSyncTask.getResult());
+                    }
                     // 同步任务完成时的处理：重置静态变量，发送广播，停止服务
                     mSyncTask = null;
                     sendBroadcast("");
                     stopSelf();
                 }
             });
+            // 后台同步不显示通知
+            mSyncTask.setShowNotification(!background);
             sendBroadcast("");
             mSyncTask.execute();
+        } else if (mJobSync) {
+            // 同步由GTaskSyncJobService执行，服务本身没有任务需要运行
+            stopSelf();
+        }
+    }
+
+    /*
+     * 由GTaskSyncJobService执行后台同步。同步任务与服务共用，
+     * 使isSyncing()、cancelSync()和进度广播同样适用于JobScheduler触发的同步。
+     * 已有同步在执行时返回null。
+     */
+    static GTaskASyncTask startJobSync(final Context context,
+                                       final GTaskASyncTask.OnCompleteListener listener) {
+        if (mSyncTask != null) {
+            return null;
         }
+        GTaskManager.getInstance().setActivityContext(null);
+        mBackground = true;
+        mJobSync = true;
+        mSyncTask = new GTaskASyncTask(context, new GTaskASyncTask.OnCompleteListener() {
+            public void onComplete() {
+                mSyncTask = null;
+                mJobSync = false;
+                sendBroadcast(context, "");
+                listener.onComplete();
+            }
+        });
+        // 后台同步不显示通知
+        mSyncTask.setShowNotification(false);
+        GTaskASyncTask task = mSyncTask;
+        sendBroadcast(context, "");
+        task.execute();
+        return task;
     }
 
     /*
@@ -71,7 +123,10 @@ public class GTaskSyncService extends Service {
      */
     @Override
     public void onCreate() {
-        mSyncTask = null;
+        // GTaskSyncJobService执行的同步不属于服务，不能重置
+        if (!mJobSync) {
+            mSyncTask = null;
+        }
     }
 
     /*
@@ -84,7 +139,10 @@ public class GTaskSyncService extends Service {
         if (bundle != null && bundle.containsKey(ACTION_STRING_NAME)) {
             switch (bundle.getInt(ACTION_STRING_NAME, ACTION_INVALID)) {
                 case ACTION_START_SYNC:
-                    startSync();
+                    if (bundle.getBoolean(GTASK_SERVICE_FULL_SYNC, false)) {
+                        GTaskManager.getInstance().requestFullSync();
+                    }
+                    startSync(bundle.getBoolean(GTASK_SERVICE_BACKGROUND, false));
                     break;
                 case ACTION_CANCEL_SYNC:
                     cancelSync();
@@ -117,11 +175,18 @@ public class GTaskSyncService extends Service {
      * 更新同步进度，并通过广播发送当前的同步状态和进度消息。
      */
     public void sendBroadcast(String msg) {
+        sendBroadcast(this, msg);
+    }
+
+    /*
+     * 从任意Context发送同步状态的广播，GTaskSyncJobService执行的同步也通过它更新进度。
+     */
+    static void sendBroadcast(Context context, String msg) {
         mSyncProgress = msg;
         Intent intent = new Intent(GTASK_SERVICE_BROADCAST_NAME);
         intent.putExtra(GTASK_SERVICE_BROADCAST_IS_SYNCING, mSyncTask != null);
         intent.putExtra(GTASK_SERVICE_BROADCAST_PROGRESS_MSG, msg);
-        sendBroadcast(intent);
+        context.sendBroadcast(intent);
     }
 
     /*
@@ -129,17 +194,46 @@ public class GTaskSyncService extends Service {
      * 设置活动上下文并启动同步服务。
      */
     public static void startSync(Activity activity) {
+        startSync(activity, false);
+    }
+
+    /*
+     * 从Activity启动同步。
+     * fullSync为true时忽略水位线，对所有任务列表和本地笔记执行完整同步。
+     */
+    public static void startSync(Activity activity, boolean fullSync) {
         GTaskManager.getInstance().setActivityContext(activity);
         Intent intent = new Intent(activity, GTaskSyncService.class);
         intent.putExtra(GTaskSyncService.ACTION_STRING_NAME, GTaskSyncService.ACTION_START_SYNC);
+        intent.putExtra(GTaskSyncService.GTASK_SERVICE_FULL_SYNC, fullSync);
         activity.startService(intent);
     }
 
+    /*
+     * 在后台启动同步，由GTaskSyncReceiver在约束条件满足时调用。
+     * 同步不关联Activity，需要用户授权时由系统发出通知。
+     */
+    public static void startBackgroundSync(Context context) {
+        if (mSyncTask != null) {
+            return;
+        }
+        GTaskManager.getInstance().setActivityContext(null);
+        Intent intent = new Intent(context, GTaskSyncService.class);
+        intent.putExtra(GTaskSyncService.ACTION_STRING_NAME, GTaskSyncService.ACTION_START_SYNC);
+        intent.putExtra(GTaskSyncService.GTASK_SERVICE_BACKGROUND, true);
+        context.startService(intent);
+    }
+
     /*
      * 从Context取消同步。
      * 发送取消同步的意图到服务。
      */
     public static void cancelSync(Context context) {
+        // GTaskSyncJobService执行的同步不经过服务，直接取消
+        if (mJobSync && mSyncTask != null) {
+            mSyncTask.cancelSync();
+            return;
+        }
         Intent intent = new Intent(context, GTaskSyncService.class);
         intent.putExtra(GTaskSyncService.ACTION_STRING_NAME, GTaskSyncService.ACTION_CANCEL_SYNC);
         context.startService(intent);
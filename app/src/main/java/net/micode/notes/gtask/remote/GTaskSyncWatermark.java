@@ -0,0 +1,93 @@
+/*
+ * GTaskSyncWatermark类用于持久化增量同步的水位线。
+ * 记录同步账户、上次完整同步的时间以及每个任务列表在上次同步结束时的远程修改时间。
+ * 增量同步只下载修改时间与水位线不一致的任务列表，水位线无效时退回完整同步。
+ */
+package net.micode.notes.gtask.remote;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.Map;
+
+public class GTaskSyncWatermark {
+    // 保存水位线的偏好设置文件名
+    private static final String PREFERENCE_NAME = "gtask_sync_watermark";
+
+    // 水位线所属的同步账户
+    private static final String KEY_ACCOUNT = "account";
+
+    // 上次完整同步的时间
+    private static final String KEY_FULL_SYNC_TIME = "full_sync_time";
+
+    // 任务列表修改时间的键前缀，后接列表的gid
+    private static final String KEY_LIST_PREFIX = "list_";
+
+    // 超过该时长未做完整同步时水位线失效，用于兜底修正增量同步可能遗漏的变化
+    private static final long FULL_SYNC_INTERVAL = AlarmManager.INTERVAL_DAY;
+
+    // 列表没有记录水位线时的返回值
+    public static final long NO_STAMP = -1;
+
+    private final SharedPreferences mPrefs;
+
+    public GTaskSyncWatermark(Context context) {
+        mPrefs = context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 判断水位线对指定账户是否有效。账户不一致、从未完整同步或距上次完整同步过久时均视为无效。
+     *
+     * @param account 当前同步账户名。
+     * @return 有效返回true，否则需要完整同步。
+     */
+    public boolean isValid(String account) {
+        if (TextUtils.isEmpty(account) || !account.equals(mPrefs.getString(KEY_ACCOUNT, null))) {
+            return false;
+        }
+        long fullSyncTime = mPrefs.getLong(KEY_FULL_SYNC_TIME, 0);
+        long now = System.currentTimeMillis();
+        return fullSyncTime > 0 && fullSyncTime <= now && now - fullSyncTime < FULL_SYNC_INTERVAL;
+    }
+
+    /**
+     * 获取任务列表在上次同步结束时的远程修改时间。
+     *
+     * @param gid 任务列表的gid。
+     * @return 修改时间，没有记录时返回{@link #NO_STAMP}。
+     */
+    public long getListStamp(String gid) {
+        return mPrefs.getLong(KEY_LIST_PREFIX + gid, NO_STAMP);
+    }
+
+    /**
+     * 同步成功后保存新的水位线，替换之前记录的所有列表。
+     *
+     * @param account  同步账户名。
+     * @param stamps   各任务列表的gid及其远程修改时间。
+     * @param fullSync 本次是否为完整同步，是则更新完整同步时间。
+     */
+    public void save(String account, Map<String, Long> stamps, boolean fullSync) {
+        long fullSyncTime = fullSync ? System.currentTimeMillis()
+                : mPrefs.getLong(KEY_FULL_SYNC_TIME, 0);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.clear();
+        editor.putString(KEY_ACCOUNT, account);
+        editor.putLong(KEY_FULL_SYNC_TIME, fullSyncTime);
+        for (Map.Entry<String, Long> entry : stamps.entrySet()) {
+            editor.putLong(KEY_LIST_PREFIX + entry.getKey(), entry.getValue());
+        }
+        editor.commit();
+    }
+
+    /**
+     * 清除水位线，下次同步将执行完整同步。在更换或移除同步账户时调用。
+     *
+     * @param context 上下文对象。
+     */
+    public static void clear(Context context) {
+        context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+}
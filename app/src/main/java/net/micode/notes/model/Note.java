@@ -31,6 +31,7 @@ import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 
 import java.util.ArrayList;
 
@@ -168,6 +169,8 @@ public class Note {
             // 不返回，继续执行
         }
         mNoteDiffValues.clear();
+        // 笔记在本地被修改，请求后台同步
+        GTaskSyncScheduler.requestSync(context);
 
         if (mNoteData.isLocalModified()
                 && (mNoteData.pushIntoContentResolver(context, noteId) == null)) {
@@ -16,6 +16,7 @@
 
 package net.micode.notes.tool;
 
+import android.appwidget.AppWidgetManager;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentResolver;
@@ -23,6 +24,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -32,12 +34,16 @@ import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 
 
 public class DataUtils {
     public static final String TAG = "DataUtils";
 
+    // 单条查询中IN条件的最大参数个数，低于SQLite默认的999个绑定参数上限
+    private static final int MAX_SELECTION_ARGS = 500;
+
     /**
      * 批量删除笔记
      *
@@ -55,16 +61,24 @@ public class DataUtils {
             return true;
         }
 
-        // 构建删除操作的列表
+        // 构建删除操作的列表，每批ID用一个IN条件删除，provider会排除系统文件夹
         ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        ArrayList<Long> idList = new ArrayList<Long>(ids.size());
         for (long id : ids) {
             if (id == Notes.ID_ROOT_FOLDER) {
                 Log.e(TAG, "Don't delete system folder root");
                 continue;
             }
-            ContentProviderOperation.Builder builder = ContentProviderOperation
-                    .newDelete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
-            operationList.add(builder.build());
+            idList.add(id);
+        }
+        for (int start = 0; start < idList.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, idList.size());
+            operationList.add(ContentProviderOperation.newDelete(Notes.CONTENT_NOTE_URI)
+                    .withSelection(buildIdSelection(end - start), buildIdArgs(idList, start, end))
+                    .build());
+        }
+        if (operationList.isEmpty()) {
+            return true;
         }
         try {
             ContentProviderResult[] results = resolver.applyBatch(Notes.AUTHORITY, operationList);
@@ -113,15 +127,21 @@ public class DataUtils {
             return true;
         }
 
-        // 构建更新操作的列表
+        // 构建更新操作的列表，每批ID用一个IN条件更新
         ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
-        for (long id : ids) {
+        ArrayList<Long> idList = new ArrayList<Long>(ids);
+        for (int start = 0; start < idList.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, idList.size());
             ContentProviderOperation.Builder builder = ContentProviderOperation
-                    .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
+                    .newUpdate(Notes.CONTENT_NOTE_URI)
+                    .withSelection(buildIdSelection(end - start), buildIdArgs(idList, start, end));
             builder.withValue(NoteColumns.PARENT_ID, folderId);
             builder.withValue(NoteColumns.LOCAL_MODIFIED, 1);
             operationList.add(builder.build());
         }
+        if (operationList.isEmpty()) {
+            return true;
+        }
 
         try {
             ContentProviderResult[] results = resolver.applyBatch(Notes.AUTHORITY, operationList);
@@ -234,6 +254,50 @@ public class DataUtils {
         return exist;
     }
 
+    /**
+     * 批量检查ID在数据库中是否存在，每批用一次IN查询代替逐个查询
+     *
+     * @param resolver 内容解析器
+     * @param uri      要查询的表的URI，例如{@link Notes#CONTENT_NOTE_URI}或{@link Notes#CONTENT_DATA_URI}
+     * @param ids      要检查的ID集合
+     * @return 其中在数据库中存在的ID集合
+     */
+    public static HashSet<Long> getExistingIds(ContentResolver resolver, Uri uri, Collection<Long> ids) {
+        HashSet<Long> existing = new HashSet<Long>();
+        ArrayList<Long> idList = new ArrayList<Long>(ids);
+        for (int start = 0; start < idList.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, idList.size());
+            Cursor cursor = resolver.query(uri, new String[]{NoteColumns.ID},
+                    buildIdSelection(end - start), buildIdArgs(idList, start, end), null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    existing.add(cursor.getLong(0));
+                }
+                cursor.close();
+            }
+        }
+        return existing;
+    }
+
+    /*
+     * 生成包含count个参数的"_id IN (?,...)"条件
+     */
+    private static String buildIdSelection(int count) {
+        StringBuilder selection = new StringBuilder(NoteColumns.ID + " IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i > 0 ? ",?" : "?");
+        }
+        return selection.append(")").toString();
+    }
+
+    private static String[] buildIdArgs(ArrayList<Long> idList, int start, int end) {
+        String[] args = new String[end - start];
+        for (int i = start; i < end; i++) {
+            args[i - start] = String.valueOf(idList.get(i));
+        }
+        return args;
+    }
+
     /**
      * 检查文件夹名称是否在数据库中已存在（不包括系统文件夹）
      *
@@ -291,6 +355,36 @@ public class DataUtils {
         return set;
     }
 
+    /**
+     * 获取指定笔记中绑定了小部件的小部件信息集合，每批ID用一次IN查询，只查询小部件的两列
+     *
+     * @param resolver 内容解析器
+     * @param ids      笔记ID集合
+     * @return 笔记小部件信息集合
+     */
+    public static HashSet<AppWidgetAttribute> getNotesWidget(ContentResolver resolver, Collection<Long> ids) {
+        HashSet<AppWidgetAttribute> set = new HashSet<AppWidgetAttribute>();
+        ArrayList<Long> idList = new ArrayList<Long>(ids);
+        for (int start = 0; start < idList.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, idList.size());
+            Cursor c = resolver.query(Notes.CONTENT_NOTE_URI,
+                    new String[]{NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE},
+                    buildIdSelection(end - start) + " AND " + NoteColumns.WIDGET_ID + "<>"
+                            + AppWidgetManager.INVALID_APPWIDGET_ID,
+                    buildIdArgs(idList, start, end), null);
+            if (c != null) {
+                while (c.moveToNext()) {
+                    AppWidgetAttribute widget = new AppWidgetAttribute();
+                    widget.widgetId = c.getInt(0);
+                    widget.widgetType = c.getInt(1);
+                    set.add(widget);
+                }
+                c.close();
+            }
+        }
+        return set;
+    }
+
     /**
      * 通过笔记ID获取关联的通话号码
      *
@@ -347,7 +441,7 @@ public class DataUtils {
     }
 
     /**
-     * 根据笔记ID从数据库中获取笔记的摘要。
+     * 根据笔记ID从数据库中获取笔记的摘要，返回的是去掉HTML后截断的预览。
      *
      * @param resolver 内容解析器，用于查询数据库。
      * @param noteId   笔记的ID，用于定位特定的笔记。
@@ -356,7 +450,7 @@ public class DataUtils {
     public static String getSnippetById(ContentResolver resolver, long noteId) {
         // 使用内容解析器查询特定ID的笔记的摘要
         Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI,
-                new String[]{NoteColumns.SNIPPET},
+                new String[]{NoteColumns.PREVIEW},
                 NoteColumns.ID + "=?",
                 new String[]{String.valueOf(noteId)},
                 null);
@@ -55,6 +55,9 @@ public class GTaskStringUtils {
     public final static String META_HEAD_GTASK_ID = "meta_gid"; // GTask ID
     public final static String META_HEAD_NOTE = "meta_note"; // 笔记内容
     public final static String META_HEAD_DATA = "meta_data"; // 元数据
+    public final static String META_HEAD_VERSION = "meta_v"; // 元数据格式版本，旧格式没有该字段
+    // 紧凑元数据格式的版本号
+    public final static int META_VERSION_COMPACT = 2;
     // 元数据笔记名称，不可更新和删除
     public final static String META_NOTE_NAME = "[META INFO] DON'T UPDATE AND DELETE";
 }
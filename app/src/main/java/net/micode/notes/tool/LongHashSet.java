@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * 存储long值的哈希集合，用开放寻址和线性探测实现，不装箱，增删查和取大小都是O(1)。
+ * 用于保存列表中选中的笔记ID，几万个ID也只占用两个数组。该类不是线程安全的。
+ */
+public class LongHashSet {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // 元素个数超过容量的该比例时扩容
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mKeys;
+    private boolean[] mUsed;
+    private int mSize;
+    private int mThreshold;
+
+    public LongHashSet() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean contains(long key) {
+        int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; mUsed[i]; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 添加一个值。
+     *
+     * @return 集合中原来没有该值时返回true。
+     */
+    public boolean add(long key) {
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mUsed[i]) {
+            if (mKeys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mUsed[i] = true;
+        if (++mSize > mThreshold) {
+            rehash(mKeys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * 移除一个值，后面同一探测链上的元素前移填补空位，不留删除标记。
+     *
+     * @return 集合中原来有该值时返回true。
+     */
+    public boolean remove(long key) {
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mUsed[i]) {
+            if (mKeys[i] == key) {
+                shiftDown(i);
+                mSize--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * 清空集合，保留已分配的容量。
+     */
+    public void clear() {
+        Arrays.fill(mUsed, false);
+        mSize = 0;
+    }
+
+    /**
+     * 只保留同时在other中的值。
+     */
+    public void retainAll(LongHashSet other) {
+        for (long key : toArray()) {
+            if (!other.contains(key)) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * 以数组形式返回所有值，顺序不确定。
+     */
+    public long[] toArray() {
+        long[] result = new long[mSize];
+        int n = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mUsed[i]) {
+                result[n++] = mKeys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 转换为装箱的HashSet，供需要集合参数的接口使用。
+     */
+    public HashSet<Long> toHashSet() {
+        HashSet<Long> result = new HashSet<Long>(Math.max(mSize * 2, DEFAULT_CAPACITY));
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mUsed[i]) {
+                result.add(mKeys[i]);
+            }
+        }
+        return result;
+    }
+
+    private void shiftDown(int hole) {
+        int mask = mKeys.length - 1;
+        int i = (hole + 1) & mask;
+        while (mUsed[i]) {
+            int home = hash(mKeys[i]) & mask;
+            // 元素的理想位置不在(hole, i]之间时，可以移到空位上
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mKeys[hole] = mKeys[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        mUsed[hole] = false;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        boolean[] oldUsed = mUsed;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = hash(oldKeys[j]) & mask;
+                while (mUsed[i]) {
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = oldKeys[j];
+                mUsed[i] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mUsed = new boolean[capacity];
+        mThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(long key) {
+        // 笔记ID是连续的整数，打散后再取低位
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+/**
+ * 根据笔记内容生成列表预览用的纯文本。笔记内容是富文本编辑器输出的HTML，
+ * 预览去掉标签、解码常用的字符实体、去掉清单模式的勾选标记并合并连续的空白，
+ * 块级标签转换为换行。预览只扫描到长度上限为止，不处理笔记的其余部分；全文索引使用不截断的纯文本。
+ * 该类不依赖Android接口。
+ */
+public class NotePreview {
+    // 预览的最大长度，足够列表、小部件和搜索建议显示
+    public static final int MAX_LENGTH = 256;
+
+    // 清单模式的勾选标记，与NoteEditActivity中的定义一致
+    private static final char MARK_CHECKED = '√';
+    private static final char MARK_UNCHECKED = '□';
+
+    // 字符实体的最大长度，超过时按普通字符处理
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    // 查找标签结尾时最多向后扫描的字符数，超过时视为内容被截断，预览到此为止
+    private static final int MAX_TAG_LENGTH = 4096;
+
+    /**
+     * 生成预览文本。
+     *
+     * @param content 笔记内容，可以是HTML或纯文本。
+     * @return 不超过{@link #MAX_LENGTH}个字符的纯文本，内容为空时返回空字符串。
+     */
+    public static String build(String content) {
+        return strip(content, MAX_LENGTH);
+    }
+
+    /**
+     * 生成完整的纯文本，处理方式与预览相同但不截断，用于建立全文索引。
+     *
+     * @param content 笔记内容，可以是HTML或纯文本。
+     * @return 纯文本，内容为空时返回空字符串。
+     */
+    public static String toPlainText(String content) {
+        return strip(content, Integer.MAX_VALUE);
+    }
+
+    private static String strip(String content, int maxLength) {
+        if (content == null || content.length() == 0) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder(Math.min(content.length(), maxLength));
+        int length = content.length();
+        int i = 0;
+        while (i < length && sb.length() < maxLength) {
+            char ch = content.charAt(i);
+            if (ch == '<' && isTagStart(content, i + 1)) {
+                int end = indexOf(content, '>', i + 1, i + MAX_TAG_LENGTH);
+                if (end < 0) {
+                    break;
+                }
+                if (isBlockTag(content, i + 1, end)) {
+                    appendNewLine(sb);
+                }
+                i = end + 1;
+            } else if (ch == '&') {
+                int end = indexOf(content, ';', i + 1, i + MAX_ENTITY_LENGTH);
+                char decoded = end > 0
+                        ? decodeEntity(content.substring(i + 1, end)) : 0;
+                if (decoded != 0) {
+                    appendChar(sb, decoded);
+                    i = end + 1;
+                } else {
+                    appendChar(sb, ch);
+                    i++;
+                }
+            } else {
+                if (ch != MARK_CHECKED && ch != MARK_UNCHECKED) {
+                    appendChar(sb, ch);
+                }
+                i++;
+            }
+        }
+
+        // 去掉末尾的空白
+        int end = sb.length();
+        while (end > 0 && Character.isWhitespace(sb.charAt(end - 1))) {
+            end--;
+        }
+        end = Math.min(end, maxLength);
+        // 截断处不保留半个代理对
+        if (end > 0 && Character.isHighSurrogate(sb.charAt(end - 1))) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /*
+     * 在[from, limit]范围内查找字符，不扫描范围之后的内容，找不到时返回-1。
+     */
+    private static int indexOf(String content, char target, int from, int limit) {
+        int end = Math.min(content.length() - 1, limit);
+        for (int i = from; i <= end; i++) {
+            if (content.charAt(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * 追加一个字符，开头的空白被忽略，连续的空格和连续的换行只保留一个。
+     */
+    private static void appendChar(StringBuilder sb, char ch) {
+        if (ch == '\n') {
+            appendNewLine(sb);
+        } else if (ch == '\r') {
+            return;
+        } else if (Character.isWhitespace(ch) || ch == '\u00A0') {
+            int last = sb.length() - 1;
+            if (last >= 0 && sb.charAt(last) != ' ' && sb.charAt(last) != '\n') {
+                sb.append(' ');
+            }
+        } else {
+            sb.append(ch);
+        }
+    }
+
+    private static void appendNewLine(StringBuilder sb) {
+        int last = sb.length() - 1;
+        if (last >= 0 && sb.charAt(last) == ' ') {
+            sb.setLength(last--);
+        }
+        if (last >= 0 && sb.charAt(last) != '\n') {
+            sb.append('\n');
+        }
+    }
+
+    /*
+     * '<'后面是字母、'/'或'!'时才视为标签，避免纯文本中的小于号吞掉后面的内容。
+     */
+    private static boolean isTagStart(String content, int index) {
+        if (index >= content.length()) {
+            return false;
+        }
+        char ch = content.charAt(index);
+        return Character.isLetter(ch) || ch == '/' || ch == '!';
+    }
+
+    /*
+     * 判断标签是否会在显示时换行，富文本编辑器用<br>和<div>分行，其余块级标签按同样方式处理。
+     */
+    private static boolean isBlockTag(String content, int start, int end) {
+        if (start < end && content.charAt(start) == '/') {
+            start++;
+        }
+        int nameEnd = start;
+        while (nameEnd < end && Character.isLetterOrDigit(content.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = content.substring(start, nameEnd).toLowerCase();
+        return name.equals("br") || name.equals("div") || name.equals("p") || name.equals("li")
+                || name.equals("ul") || name.equals("ol") || name.equals("blockquote")
+                || name.equals("hr") || (name.length() == 2 && name.charAt(0) == 'h'
+                && Character.isDigit(name.charAt(1)));
+    }
+
+    /*
+     * 解码字符实体，不认识的实体返回0。
+     */
+    private static char decodeEntity(String entity) {
+        if (entity.length() > 1 && entity.charAt(0) == '#') {
+            try {
+                int code = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                        ? Integer.parseInt(entity.substring(2), 16)
+                        : Integer.parseInt(entity.substring(1));
+                return code > 0 && code <= Character.MAX_VALUE ? (char) code : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        if (entity.equals("nbsp")) {
+            return ' ';
+        } else if (entity.equals("amp")) {
+            return '&';
+        } else if (entity.equals("lt")) {
+            return '<';
+        } else if (entity.equals("gt")) {
+            return '>';
+        } else if (entity.equals("quot")) {
+            return '"';
+        } else if (entity.equals("apos")) {
+            return '\'';
+        }
+        return 0;
+    }
+}
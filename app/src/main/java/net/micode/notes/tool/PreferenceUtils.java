@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+
+/**
+ * 数据层和同步模块需要读取的偏好设置，不依赖界面层。设置界面使用同样的名称和键。
+ */
+public class PreferenceUtils {
+    // 偏好设置的名称
+    public static final String PREFERENCE_NAME = "notes_preferences";
+
+    // 同步账户名称的键
+    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = "pref_key_account_name";
+
+    // 启用数据库预写日志的键，保存在设置界面的默认偏好设置中
+    public static final String PREFERENCE_DB_WAL_KEY = "pref_key_db_wal";
+
+    // 预写日志模式下数据库同步级别的键，值为SQLite的synchronous取值
+    public static final String PREFERENCE_DB_SYNCHRONOUS_KEY = "pref_key_db_synchronous";
+
+    // 默认的同步级别，NORMAL只在检查点时fsync，断电最多丢失最后几个已提交的事务
+    public static final String DEFAULT_DB_SYNCHRONOUS = "NORMAL";
+
+    /**
+     * 获取当前同步账户名，没有设置时返回空字符串。
+     *
+     * @param context 上下文
+     * @return 同步账户名
+     */
+    public static String getSyncAccountName(Context context) {
+        return context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE)
+                .getString(PREFERENCE_SYNC_ACCOUNT_NAME, "");
+    }
+
+    /**
+     * 判断用户是否在设置中开启了数据库预写日志。
+     *
+     * @param context 上下文
+     * @return 是否开启
+     */
+    public static boolean isDatabaseWalEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(PREFERENCE_DB_WAL_KEY, false);
+    }
+
+    /**
+     * 获取预写日志模式下数据库的同步级别。只接受OFF、NORMAL和FULL，其它值按默认值处理，
+     * 避免任意字符串被拼接进PRAGMA语句。
+     *
+     * @param context 上下文
+     * @return 同步级别
+     */
+    public static String getDatabaseSynchronous(Context context) {
+        String level = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(PREFERENCE_DB_SYNCHRONOUS_KEY, DEFAULT_DB_SYNCHRONOUS);
+        if ("OFF".equals(level) || "NORMAL".equals(level) || "FULL".equals(level)) {
+            return level;
+        }
+        return DEFAULT_DB_SYNCHRONOUS;
+    }
+}
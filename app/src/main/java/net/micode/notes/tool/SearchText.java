@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 全文索引的索引文本、查询表达式和结果排序。
+ * FTS4的simple分词器只在ASCII的非字母数字字符处切分，连续的中文会被当作一个词，无法搜索其中的子串。
+ * 因此写入索引和生成查询时都把每个非ASCII的文字字符作为单独的词，中文关键词以相邻字符组成的短语匹配。
+ * 索引的是去掉HTML后的纯文本，标签和字符实体不会被搜索到。该类不依赖Android接口。
+ */
+public class SearchText {
+    // matchinfo()的格式参数，包含计算BM25所需的全部统计值
+    public static final String MATCH_INFO_FORMAT = "pcnalx";
+
+    // BM25的词频饱和参数和文档长度归一化参数
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+
+    /**
+     * 生成写入全文索引的文本。
+     *
+     * @param content 笔记内容，可以是HTML或纯文本。
+     * @return 以空格分隔的词，内容为空时返回空字符串。
+     */
+    public static String forIndex(String content) {
+        String text = NotePreview.toPlainText(content);
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        appendTokens(sb, text);
+        return sb.toString();
+    }
+
+    /**
+     * 将用户输入的关键词转换为MATCH表达式。每个以空白分隔的关键词生成一个短语，
+     * 短语的最后一个词作为前缀查询，多个关键词需要同时匹配。
+     *
+     * @param searchString 用户输入的关键词。
+     * @return MATCH表达式；关键词中没有任何文字或数字时返回null。
+     */
+    public static String toMatchQuery(String searchString) {
+        if (searchString == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        StringBuilder phrase = new StringBuilder();
+        for (String word : searchString.trim().split("\\s+")) {
+            phrase.setLength(0);
+            appendTokens(phrase, word);
+            if (phrase.length() == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('"').append(phrase).append("*\"");
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /*
+     * 追加文本中的词：连续的ASCII字母和数字组成一个词，其他文字字符各自为一个词，其余字符作为分隔。
+     */
+    private static void appendTokens(StringBuilder sb, String text) {
+        boolean inWord = false;
+        int i = 0;
+        while (i < text.length()) {
+            int ch = text.codePointAt(i);
+            int next = i + Character.charCount(ch);
+            if (ch < 0x80 && Character.isLetterOrDigit(ch)) {
+                if (!inWord && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append((char) ch);
+                inWord = true;
+            } else if (ch >= 0x80 && Character.isLetterOrDigit(ch)) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.appendCodePoint(ch);
+                inWord = false;
+            } else {
+                inWord = false;
+            }
+            i = next;
+        }
+    }
+
+    /**
+     * 解析matchinfo()返回的数据，每个值是本机字节序的32位无符号整数。
+     *
+     * @param blob matchinfo()的返回值。
+     * @return 整数数组。
+     */
+    public static int[] parseMatchInfo(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder());
+        int[] values = new int[blob.length / 4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getInt();
+        }
+        return values;
+    }
+
+    /**
+     * 根据以{@link #MATCH_INFO_FORMAT}格式取得的matchinfo计算一行的BM25得分，得分越高越相关。
+     * 逆文档频率使用加1的形式，出现在大多数笔记中的词得分接近0但不会为负。
+     *
+     * @param matchInfo 解析后的matchinfo。
+     * @return BM25得分。
+     */
+    public static double bm25(int[] matchInfo) {
+        int phraseCount = matchInfo[0];
+        int columnCount = matchInfo[1];
+        long rowCount = matchInfo[2] & 0xFFFFFFFFL;
+        int avgOffset = 3;
+        int lengthOffset = avgOffset + columnCount;
+        int hitsOffset = lengthOffset + columnCount;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int hits = hitsOffset + 3 * (phrase * columnCount + column);
+                long termFrequency = matchInfo[hits] & 0xFFFFFFFFL;
+                if (termFrequency == 0) {
+                    continue;
+                }
+                long docsWithHits = matchInfo[hits + 2] & 0xFFFFFFFFL;
+                double avgLength = Math.max(1, matchInfo[avgOffset + column] & 0xFFFFFFFFL);
+                double length = matchInfo[lengthOffset + column] & 0xFFFFFFFFL;
+                double idf = Math.log(1 + (rowCount - docsWithHits + 0.5) / (docsWithHits + 0.5));
+                score += idf * termFrequency * (BM25_K1 + 1)
+                        / (termFrequency + BM25_K1 * (1 - BM25_B + BM25_B * length / avgLength));
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按段落进行三方合并的文本合并器，用于同步时合并本地和远程对同一笔记的修改。
+ * 纯文本按行合并，清单模式的笔记每一项占一行，同样按行合并。
+ * 富文本编辑器保存的HTML通常只有一行，按&lt;div&gt;、&lt;p&gt;、&lt;br&gt;等块边界切分为段落，
+ * 冲突标记也输出为单独的块，显示时各占一行。
+ * 只有双方修改了同一段落且修改内容不同时才产生冲突，冲突段落以标记包围两侧的内容，
+ * 其余段落自动合并。该类不依赖Android接口。
+ */
+public class TextMerger {
+    // 冲突段落的标记行
+    public static final String MARKER_LOCAL = "<<<<<<< local";
+    public static final String MARKER_SEPARATOR = "=======";
+    public static final String MARKER_REMOTE = ">>>>>>> remote";
+
+    // 单次差异计算的最大编辑距离，超过时改用双方各只出现一次的段落作为锚点把范围切小后分别计算，
+    // 只有找不到任何锚点的范围才整体视为修改
+    private static final int MAX_EDIT_DISTANCE = 1000;
+
+    private static final String LINE_SEPARATOR = "\n";
+
+    // 判断文本是否为富文本编辑器保存的HTML
+    private static final Pattern HTML_BLOCK_PATTERN = Pattern.compile("(?i)<(div|p|br)\\b");
+
+    // HTML的块边界：第一组在标签之后切分，第二组在标签之前切分
+    private static final Pattern HTML_BOUNDARY_PATTERN = Pattern.compile(
+            "(?i)(<br\\b[^>]*>|</(?:div|p)\\s*>)|(<(?:div|p)\\b)");
+
+    /**
+     * 合并结果。
+     */
+    public static class Result {
+        private final String mText;
+        private final int mConflictCount;
+
+        private Result(String text, int conflictCount) {
+            mText = text;
+            mConflictCount = conflictCount;
+        }
+
+        // 合并后的文本，冲突段落包含标记行
+        public String getText() {
+            return mText;
+        }
+
+        // 冲突段落的数量
+        public int getConflictCount() {
+            return mConflictCount;
+        }
+
+        public boolean hasConflicts() {
+            return mConflictCount > 0;
+        }
+    }
+
+    /**
+     * 对文本进行三方合并。
+     *
+     * @param base   双方共同的上一个版本。为null时没有可以比较的基准，无法区分双方的修改，
+     *               不做合并，以本地版本为准。
+     * @param local  本地版本。
+     * @param remote 远程版本。
+     * @return 合并结果。
+     */
+    public static Result merge(String base, String local, String remote) {
+        if (local == null) {
+            local = "";
+        }
+        if (remote == null) {
+            remote = "";
+        }
+        if (local.equals(remote) || base == null) {
+            return new Result(local, 0);
+        }
+        if (base.equals(local)) {
+            return new Result(remote, 0);
+        }
+        if (base.equals(remote)) {
+            return new Result(local, 0);
+        }
+
+        boolean html = isHtml(base) || isHtml(local) || isHtml(remote);
+        String[] o = split(base, html);
+        String[] a = split(local, html);
+        String[] b = split(remote, html);
+
+        // 将行映射为整数，差异计算时只比较整数
+        HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+        int[] os = toSymbols(o, symbols);
+        int[] as = toSymbols(a, symbols);
+        int[] bs = toSymbols(b, symbols);
+
+        int[] matchA = match(os, as);
+        int[] matchB = match(os, bs);
+
+        ArrayList<String> out = new ArrayList<String>();
+        int conflicts = 0;
+        int i = 0, ia = 0, ib = 0;
+        while (i < o.length || ia < a.length || ib < b.length) {
+            // 输出三方一致的段落
+            int k = 0;
+            while (i + k < o.length && matchA[i + k] == ia + k && matchB[i + k] == ib + k) {
+                k++;
+            }
+            if (k > 0) {
+                for (int n = 0; n < k; n++) {
+                    out.add(o[i + n]);
+                }
+                i += k;
+                ia += k;
+                ib += k;
+                continue;
+            }
+
+            // 找到下一个三方都包含的行，其前面的部分为一个不稳定段落
+            int j = i;
+            while (j < o.length && (matchA[j] < 0 || matchB[j] < 0)) {
+                j++;
+            }
+            int endA = j < o.length ? matchA[j] : a.length;
+            int endB = j < o.length ? matchB[j] : b.length;
+
+            boolean aChanged = !rangeEquals(os, i, j, as, ia, endA);
+            boolean bChanged = !rangeEquals(os, i, j, bs, ib, endB);
+            if (!aChanged) {
+                addRange(out, b, ib, endB);
+            } else if (!bChanged || rangeEquals(as, ia, endA, bs, ib, endB)) {
+                addRange(out, a, ia, endA);
+            } else if (endA - ia == j - i && endB - ib == j - i) {
+                // 双方都是逐段替换，相邻段落分别被修改时逐段合并，只有同一段落被改成不同内容才冲突
+                conflicts += mergeAligned(out, os, as, a, bs, b, i, ia, ib, j - i, html);
+            } else {
+                out.add(marker(MARKER_LOCAL, html));
+                addRange(out, a, ia, endA);
+                out.add(marker(MARKER_SEPARATOR, html));
+                addRange(out, b, ib, endB);
+                out.add(marker(MARKER_REMOTE, html));
+                conflicts++;
+            }
+            i = j;
+            ia = endA;
+            ib = endB;
+        }
+
+        // HTML段落自带块边界，直接拼接；纯文本段落以换行连接
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < out.size(); n++) {
+            if (n > 0 && !html) {
+                sb.append(LINE_SEPARATOR);
+            }
+            sb.append(out.get(n));
+        }
+        return new Result(sb.toString(), conflicts);
+    }
+
+    /*
+     * 合并长度相同的三段，逐段比较，连续的冲突段落合并为一个冲突，返回冲突的数量。
+     */
+    private static int mergeAligned(ArrayList<String> out, int[] os, int[] as, String[] a,
+                                    int[] bs, String[] b, int i, int ia, int ib, int length,
+                                    boolean html) {
+        int conflicts = 0;
+        int n = 0;
+        while (n < length) {
+            if (as[ia + n] == os[i + n] || as[ia + n] == bs[ib + n]) {
+                out.add(b[ib + n]);
+                n++;
+            } else if (bs[ib + n] == os[i + n]) {
+                out.add(a[ia + n]);
+                n++;
+            } else {
+                int end = n;
+                while (end < length && as[ia + end] != os[i + end] && bs[ib + end] != os[i + end]
+                        && as[ia + end] != bs[ib + end]) {
+                    end++;
+                }
+                out.add(marker(MARKER_LOCAL, html));
+                addRange(out, a, ia + n, ia + end);
+                out.add(marker(MARKER_SEPARATOR, html));
+                addRange(out, b, ib + n, ib + end);
+                out.add(marker(MARKER_REMOTE, html));
+                conflicts++;
+                n = end;
+            }
+        }
+        return conflicts;
+    }
+
+    private static boolean isHtml(String text) {
+        return text != null && HTML_BLOCK_PATTERN.matcher(text).find();
+    }
+
+    /*
+     * 切分为段落。纯文本按换行切分；HTML在块边界处切分，段落保留各自的标签，拼接后与原文相同。
+     */
+    private static String[] split(String text, boolean html) {
+        if (!html) {
+            return text.split(LINE_SEPARATOR, -1);
+        }
+        ArrayList<String> blocks = new ArrayList<String>();
+        Matcher matcher = HTML_BOUNDARY_PATTERN.matcher(text);
+        int start = 0;
+        while (matcher.find()) {
+            int cut = matcher.group(1) != null ? matcher.end() : matcher.start();
+            if (cut > start) {
+                blocks.add(text.substring(start, cut));
+                start = cut;
+            }
+        }
+        if (start < text.length()) {
+            blocks.add(text.substring(start));
+        }
+        return blocks.toArray(new String[blocks.size()]);
+    }
+
+    /*
+     * 冲突标记。HTML中输出为转义后的单独块，保证显示时各占一行。
+     */
+    private static String marker(String marker, boolean html) {
+        if (!html) {
+            return marker;
+        }
+        return "<div>" + marker.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                + "</div>";
+    }
+
+    private static int[] toSymbols(String[] lines, HashMap<String, Integer> symbols) {
+        int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Integer symbol = symbols.get(lines[i]);
+            if (symbol == null) {
+                symbol = symbols.size();
+                symbols.put(lines[i], symbol);
+            }
+            result[i] = symbol;
+        }
+        return result;
+    }
+
+    private static boolean rangeEquals(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd) {
+        if (xEnd - xStart != yEnd - yStart) {
+            return false;
+        }
+        for (int n = 0; n < xEnd - xStart; n++) {
+            if (x[xStart + n] != y[yStart + n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addRange(ArrayList<String> out, String[] lines, int start, int end) {
+        for (int n = start; n < end; n++) {
+            out.add(lines[n]);
+        }
+    }
+
+    /**
+     * 计算x与y的最长公共子序列，返回x中每一行在y中对应的位置，没有对应时为-1。
+     */
+    private static int[] match(int[] x, int[] y) {
+        int[] result = new int[x.length];
+        Arrays.fill(result, -1);
+        matchRange(x, 0, x.length, y, 0, y.length, result);
+        return result;
+    }
+
+    /*
+     * 计算x[xStart, xEnd)与y[yStart, yEnd)的对应关系。公共前缀和后缀直接对应，中间部分用Myers算法计算；
+     * 编辑距离超过上限时，以双方各只出现一次的段落的最长递增序列为锚点，把范围切成小段后分别递归计算，
+     * 因此修改很多的长笔记仍然按段落合并，而不是整体成为一个冲突。
+     */
+    private static void matchRange(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd,
+                                   int[] result) {
+        while (xStart < xEnd && yStart < yEnd && x[xStart] == y[yStart]) {
+            result[xStart++] = yStart++;
+        }
+        while (xStart < xEnd && yStart < yEnd && x[xEnd - 1] == y[yEnd - 1]) {
+            result[--xEnd] = --yEnd;
+        }
+        if (xStart == xEnd || yStart == yEnd) {
+            return;
+        }
+        if (myers(x, xStart, xEnd, y, yStart, yEnd, result)) {
+            return;
+        }
+
+        int[][] anchors = uniqueAnchors(x, xStart, xEnd, y, yStart, yEnd);
+        int px = xStart;
+        int py = yStart;
+        for (int[] anchor : anchors) {
+            matchRange(x, px, anchor[0], y, py, anchor[1], result);
+            result[anchor[0]] = anchor[1];
+            px = anchor[0] + 1;
+            py = anchor[1] + 1;
+        }
+        if (anchors.length > 0) {
+            matchRange(x, px, xEnd, y, py, yEnd, result);
+        }
+    }
+
+    /*
+     * 找出在x和y的范围内都只出现一次的段落，返回其中位置在双方都递增的最长序列，每项为{x位置, y位置}。
+     */
+    private static int[][] uniqueAnchors(int[] x, int xStart, int xEnd, int[] y, int yStart,
+                                         int yEnd) {
+        // 每个符号在x和y中的出现次数和位置
+        HashMap<Integer, int[]> occurrences = new HashMap<Integer, int[]>();
+        for (int i = xStart; i < xEnd; i++) {
+            int[] occ = occurrences.get(x[i]);
+            if (occ == null) {
+                occurrences.put(x[i], new int[]{1, i, 0, -1});
+            } else {
+                occ[0]++;
+            }
+        }
+        for (int i = yStart; i < yEnd; i++) {
+            int[] occ = occurrences.get(y[i]);
+            if (occ != null) {
+                occ[2]++;
+                occ[3] = i;
+            }
+        }
+        ArrayList<int[]> pairs = new ArrayList<int[]>();
+        for (int i = xStart; i < xEnd; i++) {
+            int[] occ = occurrences.get(x[i]);
+            if (occ[0] == 1 && occ[2] == 1) {
+                pairs.add(new int[]{i, occ[3]});
+            }
+        }
+
+        // 按x位置排列后，求y位置的最长递增子序列
+        int size = pairs.size();
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+        for (int n = 0; n < size; n++) {
+            int yPos = pairs.get(n)[1];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < yPos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[n] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = n;
+            if (lo == length) {
+                length++;
+            }
+        }
+        int[][] anchors = new int[length][];
+        for (int n = length - 1, k = length > 0 ? tails[length - 1] : -1; n >= 0; n--) {
+            anchors[n] = pairs.get(k);
+            k = previous[k];
+        }
+        return anchors;
+    }
+
+    /**
+     * 使用Myers差异算法计算x[xStart, xEnd)与y[yStart, yEnd)的对应关系并写入result。
+     * 编辑距离超过上限时不写入任何对应关系并返回false。
+     */
+    private static boolean myers(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd,
+                              int[] result) {
+        int n = xEnd - xStart;
+        int m = yEnd - yStart;
+        if (n == 0 || m == 0) {
+            return true;
+        }
+
+        int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        ArrayList<int[]> trace = new ArrayList<int[]>();
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int px;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    px = v[offset + k + 1];
+                } else {
+                    px = v[offset + k - 1] + 1;
+                }
+                int py = px - k;
+                while (px < n && py < m && x[xStart + px] == y[yStart + py]) {
+                    px++;
+                    py++;
+                }
+                v[offset + k] = px;
+                if (px >= n && py >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+
+        // 从终点回溯，沿对角线的步骤即为对应的行
+        int px = n;
+        int py = m;
+        for (int d = found; d > 0; d--) {
+            int[] prev = trace.get(d);
+            int base = d + 1;
+            int k = px - py;
+            int prevK;
+            if (k == -d || (k != d && prev[base + k - 1] < prev[base + k + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = prev[base + prevK];
+            int prevY = prevX - prevK;
+            // 插入或删除一行之后的位置为对角线段的起点
+            int snakeX = (prevK == k + 1) ? prevX : prevX + 1;
+            while (px > snakeX) {
+                px--;
+                py--;
+                result[xStart + px] = yStart + py;
+            }
+            px = prevX;
+            py = prevY;
+        }
+        while (px > 0 && py > 0) {
+            px--;
+            py--;
+            result[xStart + px] = yStart + py;
+        }
+        return true;
+    }
+}
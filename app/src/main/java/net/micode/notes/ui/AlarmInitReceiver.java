@@ -14,6 +14,7 @@ import android.database.Cursor;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
 
 public class AlarmInitReceiver extends BroadcastReceiver {
 
@@ -40,7 +41,7 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         // 查询数据库中所有需要提醒的笔记
         Cursor c = context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.ALERTED_DATE + ">? AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE,
+                NoteSelections.ALERTED_NOTES,
                 new String[]{String.valueOf(currentDate)},
                 null);
 
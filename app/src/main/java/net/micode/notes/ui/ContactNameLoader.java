@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import net.micode.notes.data.Contact;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * 在后台批量查询通话记录笔记的联系人名称。列表绑定时只读取缓存，缺少的号码交给本类，
+ * 同一帧内请求的号码合并为一批在后台查询，查询完成后在界面线程通知列表重新绑定可见的行。
+ * 本类只能在界面线程使用。
+ */
+class ContactNameLoader {
+    /**
+     * 一批联系人名称查询完成时的回调，在界面线程执行。
+     */
+    interface OnLoadedListener {
+        void onContactNamesLoaded();
+    }
+
+    private final Context mContext;
+
+    private final OnLoadedListener mListener;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // 等待合并为下一批的号码
+    private final HashSet<String> mPending = new HashSet<String>();
+
+    // 正在后台查询的号码
+    private final HashSet<String> mLoading = new HashSet<String>();
+
+    private boolean mFlushScheduled;
+
+    private boolean mReleased;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            mFlushScheduled = false;
+            if (mReleased || mPending.isEmpty()) {
+                return;
+            }
+            ArrayList<String> batch = new ArrayList<String>(mPending);
+            mPending.clear();
+            mLoading.addAll(batch);
+            // 不使用默认的串行队列，避免排在同步任务之后
+            new LoadTask(batch).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    };
+
+    ContactNameLoader(Context context, OnLoadedListener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * 请求查询号码对应的联系人名称。已缓存或已在查询中的号码直接忽略。
+     *
+     * @param phoneNumber 电话号码。
+     */
+    void request(String phoneNumber) {
+        if (mReleased || phoneNumber == null || phoneNumber.length() == 0
+                || mPending.contains(phoneNumber) || mLoading.contains(phoneNumber)
+                || Contact.isCached(phoneNumber)) {
+            return;
+        }
+        mPending.add(phoneNumber);
+        if (!mFlushScheduled) {
+            // 等本次布局中所有可见行绑定完成后再一起查询
+            mFlushScheduled = true;
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    /**
+     * 停止加载，已经开始的后台查询完成后不再回调。
+     */
+    void release() {
+        mReleased = true;
+        mPending.clear();
+        mHandler.removeCallbacks(mFlushRunnable);
+    }
+
+    private class LoadTask extends AsyncTask<Void, Void, Void> {
+        private final ArrayList<String> mBatch;
+
+        LoadTask(ArrayList<String> batch) {
+            mBatch = batch;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            for (String phoneNumber : mBatch) {
+                // 结果写入Contact的缓存，列表重新绑定时从缓存读取
+                Contact.getContact(mContext, phoneNumber);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mLoading.removeAll(mBatch);
+            if (!mReleased) {
+                mListener.onContactNamesLoaded();
+            }
+        }
+    }
+}
@@ -56,6 +56,7 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.model.WorkingNote.NoteSettingChangedListener;
 import net.micode.notes.tool.DataUtils;
@@ -842,6 +843,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
                 if (!DataUtils.batchMoveToFolder(getContentResolver(), ids, Notes.ID_TRASH_FOLER)) {
                     Log.e(TAG, "Move notes to trash folder error, should not happens");
                 }
+                GTaskSyncScheduler.requestSync(this);
             }
         }
         mWorkingNote.markDeleted(true);
@@ -22,14 +22,22 @@ import android.text.TextUtils;
 
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
 
 /**
  * 代表一个笔记项的数据类，用于存储和管理笔记的各种信息。
  */
 public class NoteItemData {
+    // 通话记录笔记的电话号码，在列表查询中用子查询取出，其他笔记为空字符串
+    static final String PHONE_NUMBER_PROJECTION = "(CASE WHEN " + NoteColumns.PARENT_ID + "="
+            + Notes.ID_CALL_RECORD_FOLDER + " THEN (SELECT " + CallNote.PHONE_NUMBER
+            + " FROM " + TABLE.DATA + " WHERE " + TABLE.DATA + "." + CallNote.NOTE_ID + "="
+            + TABLE.NOTE + "." + NoteColumns.ID + " AND " + TABLE.DATA + "." + CallNote.MIME_TYPE
+            + "='" + CallNote.CONTENT_ITEM_TYPE + "' LIMIT 1) ELSE '' END)";
+
     // 定义查询时要投影的列
     static final String[] PROJECTION = new String[]{
             NoteColumns.ID,
@@ -40,10 +48,11 @@ public class NoteItemData {
             NoteColumns.MODIFIED_DATE,
             NoteColumns.NOTES_COUNT,
             NoteColumns.PARENT_ID,
-            NoteColumns.SNIPPET,
+            NoteColumns.PREVIEW,
             NoteColumns.TYPE,
             NoteColumns.WIDGET_ID,
             NoteColumns.WIDGET_TYPE,
+            PHONE_NUMBER_PROJECTION,
     };
 
     // 各列数据的索引
@@ -55,10 +64,11 @@ public class NoteItemData {
     private static final int MODIFIED_DATE_COLUMN = 5;
     private static final int NOTES_COUNT_COLUMN = 6;
     private static final int PARENT_ID_COLUMN = 7;
-    private static final int SNIPPET_COLUMN = 8;
+    private static final int PREVIEW_COLUMN = 8;
     private static final int TYPE_COLUMN = 9;
     private static final int WIDGET_ID_COLUMN = 10;
     private static final int WIDGET_TYPE_COLUMN = 11;
+    private static final int PHONE_NUMBER_COLUMN = 12;
 
     // 笔记的各项数据
     private long mId;
@@ -73,7 +83,6 @@ public class NoteItemData {
     private int mType;
     private int mWidgetId;
     private int mWidgetType;
-    private String mName;
     private String mPhoneNumber;
 
     // 用于标识笔记在列表中的位置状态
@@ -84,7 +93,8 @@ public class NoteItemData {
     private boolean mIsMultiNotesFollowingFolder;
 
     /**
-     * 根据Cursor数据构造一个NoteItemData对象。
+     * 根据Cursor数据构造一个NoteItemData对象。只读取当前行，不移动Cursor，可以在后台线程调用。
+     * 在列表中的位置状态由适配器通过{@link #setPositionState}设置。
      *
      * @param context 上下文对象，用于访问应用全局功能。
      * @param cursor  包含笔记数据的Cursor对象。
@@ -99,65 +109,60 @@ public class NoteItemData {
         mModifiedDate = cursor.getLong(MODIFIED_DATE_COLUMN);
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
-        mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
+        // 预览在写入时已去掉HTML和清单标记
+        mSnippet = cursor.getString(PREVIEW_COLUMN);
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
-        // 如果是通话记录笔记，尝试获取通话号码和联系人名称
-        mPhoneNumber = "";
-        if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
-            if (!TextUtils.isEmpty(mPhoneNumber)) {
-                mName = Contact.getContact(context, mPhoneNumber);
-                if (mName == null) {
-                    mName = mPhoneNumber;
-                }
-            }
-        }
-
-        // 如果没有获取到联系人名称，则默认为空字符串
-        if (mName == null) {
-            mName = "";
+        // 如果是通话记录笔记，号码已在列表查询中取出，联系人名称在显示时从缓存读取
+        mPhoneNumber = cursor.getString(PHONE_NUMBER_COLUMN);
+        if (mPhoneNumber == null) {
+            mPhoneNumber = "";
         }
-        checkPostion(cursor);
     }
 
     /**
-     * 根据当前Cursor位置，更新NoteItemData的状态信息（如是否为列表中的最后一个项目等）。
+     * 根据在列表中的位置更新状态信息（如是否为列表中的最后一个项目等），在绑定视图前调用。
      *
-     * @param cursor 包含笔记数据的Cursor对象。
+     * @param isFirst        是否为第一项。
+     * @param isLast         是否为最后一项。
+     * @param count          列表的总项数。
+     * @param previousFolder 前一项是否为文件夹或系统文件夹。
      */
-    private void checkPostion(Cursor cursor) {
-        // 更新位置状态信息
-        mIsLastItem = cursor.isLast();
-        mIsFirstItem = cursor.isFirst();
-        mIsOnlyOneItem = (cursor.getCount() == 1);
+    void setPositionState(boolean isFirst, boolean isLast, int count, boolean previousFolder) {
+        mIsLastItem = isLast;
+        mIsFirstItem = isFirst;
+        mIsOnlyOneItem = (count == 1);
         mIsMultiNotesFollowingFolder = false;
         mIsOneNoteFollowingFolder = false;
 
         // 检查当前笔记是否跟随文件夹，并更新相应状态
-        if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {
-            int position = cursor.getPosition();
-            if (cursor.moveToPrevious()) {
-                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-                        || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {
-                    if (cursor.getCount() > (position + 1)) {
-                        mIsMultiNotesFollowingFolder = true;
-                    } else {
-                        mIsOneNoteFollowingFolder = true;
-                    }
-                }
-                // 确保Cursor能够回到原来的位置
-                if (!cursor.moveToNext()) {
-                    throw new IllegalStateException("cursor move to previous but can't move back");
-                }
+        if (mType == Notes.TYPE_NOTE && !mIsFirstItem && previousFolder) {
+            if (isLast) {
+                mIsOneNoteFollowingFolder = true;
+            } else {
+                mIsMultiNotesFollowingFolder = true;
             }
         }
     }
 
+    /**
+     * 判断两项显示的内容是否相同，用于列表重新加载后只在有变化时刷新。
+     *
+     * @param other 另一项。
+     * @return 内容相同返回true。
+     */
+    boolean isSameContent(NoteItemData other) {
+        return mId == other.mId && mAlertDate == other.mAlertDate
+                && mBgColorId == other.mBgColorId && mCreatedDate == other.mCreatedDate
+                && mHasAttachment == other.mHasAttachment && mModifiedDate == other.mModifiedDate
+                && mNotesCount == other.mNotesCount && mParentId == other.mParentId
+                && TextUtils.equals(mSnippet, other.mSnippet) && mType == other.mType
+                && mWidgetId == other.mWidgetId && mWidgetType == other.mWidgetType
+                && TextUtils.equals(mPhoneNumber, other.mPhoneNumber);
+    }
+
     // 以下为获取NoteItemData各项属性的方法
 
     public boolean isOneFollowingFolder() {
@@ -172,8 +177,16 @@ public class NoteItemData {
         return mIsLastItem;
     }
 
+    /**
+     * 获取通话记录笔记的联系人名称。名称由列表在后台查询后写入缓存，
+     * 没有缓存时显示号码，不是通话记录笔记时返回空字符串。
+     */
     public String getCallName() {
-        return mName;
+        if (mParentId != Notes.ID_CALL_RECORD_FOLDER || TextUtils.isEmpty(mPhoneNumber)) {
+            return "";
+        }
+        String name = Contact.getCachedContact(mPhoneNumber);
+        return name != null ? name : mPhoneNumber;
     }
 
     public boolean isFirst() {
@@ -240,6 +253,10 @@ public class NoteItemData {
         return (mAlertDate > 0);
     }
 
+    public String getPhoneNumber() {
+        return mPhoneNumber;
+    }
+
     public boolean isCallRecord() {
         return (mParentId == Notes.ID_CALL_RECORD_FOLDER && !TextUtils.isEmpty(mPhoneNumber));
     }
@@ -63,6 +63,8 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.gtask.remote.GTaskSyncService;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.tool.BackupUtils;
@@ -79,9 +81,7 @@ import java.io.InputStreamReader;
 import java.util.HashSet;
 
 public class NotesListActivity extends Activity implements OnClickListener, OnItemLongClickListener {
-    // 定义文件夹中笔记列表查询的标记
     private int mode=-1;
-    private static final int FOLDER_NOTE_LIST_QUERY_TOKEN = 0;
 
     // 定义文件夹列表查询的标记
     private static final int FOLDER_LIST_QUERY_TOKEN = 1;
@@ -151,15 +151,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     // 聚焦的笔记数据项
     private NoteItemData mFocusNoteDataItem;
 
-    // 普通文件夹选择条件
-    private static final String NORMAL_SELECTION = NoteColumns.PARENT_ID + "=?";
-
-    // 根文件夹选择条件
-    private static final String ROOT_FOLDER_SELECTION = "(" + NoteColumns.TYPE + "<>"
-            + Notes.TYPE_SYSTEM + " AND " + NoteColumns.PARENT_ID + "=?)" + " OR ("
-            + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " AND "
-            + NoteColumns.NOTES_COUNT + ">0)";
-
     // 打开节点请求代码
     private final static int REQUEST_CODE_OPEN_NODE = 102;
     // 新建节点请求代码
@@ -180,6 +171,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
         // 用户首次使用时插入介绍信息
         setAppInfoFromRawRes();
+
+        // 确保已设置同步账户时周期同步处于调度中
+        GTaskSyncScheduler.schedulePeriodic(this);
     }
 
     /**
@@ -194,7 +188,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         // 如果返回结果为OK且请求代码为打开节点或新建节点，则刷新列表
         if (resultCode == RESULT_OK
                 && (requestCode == REQUEST_CODE_OPEN_NODE || requestCode == REQUEST_CODE_NEW_NODE)) {
-            mNotesListAdapter.changeCursor(null);
+            mNotesListAdapter.clear();
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
@@ -268,6 +262,15 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         startAsyncNotesListQuery();
     }
 
+    /**
+     * Activity销毁时停止列表的后台加载。
+     */
+    @Override
+    protected void onDestroy() {
+        mNotesListAdapter.release();
+        super.onDestroy();
+    }
+
     /**
      * 初始化资源，包括ListView、适配器和其他UI组件。
      */
@@ -298,6 +301,15 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mTitleBar = (TextView) findViewById(R.id.tv_title_bar);
         mState = ListEditState.NOTE_LIST;
         mModeCallBack = new ModeCallback();
+        // 全选需要等待文件夹中所有笔记的ID在后台加载完成，完成后更新选择菜单
+        mNotesListAdapter.setOnSelectionChangedListener(
+                new NotesListAdapter.OnSelectionChangedListener() {
+                    public void onSelectionChanged() {
+                        if (mNotesListAdapter.isInChoiceMode()) {
+                            mModeCallBack.updateMenu();
+                        }
+                    }
+                });
     }
 
 
@@ -427,7 +439,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
                                               boolean checked) {
             // 更新列表项的选择状态并更新菜单
-            mNotesListAdapter.setCheckedItem(position, checked);
+            mNotesListAdapter.setCheckedItem(id, checked);
             updateMenu();
         }
 
@@ -562,13 +574,17 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 //                }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
 //    }
     private void startAsyncNotesListQuery() {
-        String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
-                : NORMAL_SELECTION;
+        String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER)
+                ? NoteSelections.ROOT_FOLDER_LIST : NoteSelections.FOLDER_LIST;
+        String[] selectionArgs = new String[]{
+                String.valueOf(mCurrentFolderId)
+        };
+        String leadingSelection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER)
+                ? NoteSelections.CALL_RECORD_FOLDER : null;
+        // 列表由适配器按页在后台加载，排序方式为类型降序，修改日期降序
         if(secret_mode == 0) {
-            mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[]{
-                            String.valueOf(mCurrentFolderId)
-                    }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+            mNotesListAdapter.startQuery(NoteItemData.PROJECTION, selection, selectionArgs,
+                    leadingSelection);
         }
         else{
             String str1 = "520";
@@ -586,11 +602,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     NoteColumns.TYPE,
                     NoteColumns.WIDGET_ID,
                     NoteColumns.WIDGET_TYPE,
+                    NoteItemData.PHONE_NUMBER_PROJECTION,
             };
-            mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, PROJECTION, selection, new String[]{
-                            String.valueOf(mCurrentFolderId)
-                    }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+            mNotesListAdapter.startQuery(PROJECTION, selection, selectionArgs, leadingSelection);
 
         }
     }
@@ -614,10 +628,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         @Override
         protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
             switch (token) {
-                case FOLDER_NOTE_LIST_QUERY_TOKEN:
-                    // 更新笔记列表适配器的数据源
-                    mNotesListAdapter.changeCursor(cursor);
-                    break;
                 case FOLDER_LIST_QUERY_TOKEN:
                     // 根据查询结果展示或记录错误
                     if (cursor != null && cursor.getCount() > 0) {
@@ -657,6 +667,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                 // 批量移动选中的笔记到目标文件夹
                 DataUtils.batchMoveToFolder(mContentResolver,
                         mNotesListAdapter.getSelectedItemIds(), adapter.getItemId(which));
+                GTaskSyncScheduler.requestSync(NotesListActivity.this);
                 // 显示移动操作的反馈信息
                 Toast.makeText(
                         NotesListActivity.this,
@@ -690,15 +701,16 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      * 执行删除操作后，会更新相应的widgets。
      */
     private void batchDelete() {
+        // 在界面线程取得选中笔记ID的快照，后台任务执行期间选中状态的变化不影响本次删除
+        final HashSet<Long> ids = mNotesListAdapter.getSelectedItemIds();
         new AsyncTask<Void, Void, HashSet<AppWidgetAttribute>>() {
             // 在后台执行任务，获取选中的widgets并执行删除操作
             protected HashSet<AppWidgetAttribute> doInBackground(Void... unused) {
-                // 获取当前选中的widgets
-                HashSet<AppWidgetAttribute> widgets = mNotesListAdapter.getSelectedWidget();
+                // 获取当前选中的widgets，只查询小部件的两列
+                HashSet<AppWidgetAttribute> widgets = DataUtils.getNotesWidget(mContentResolver, ids);
                 if (!isSyncMode()) {
                     // 如果当前不处于同步模式，直接删除笔记
-                    if (DataUtils.batchDeleteNotes(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds())) {
+                    if (DataUtils.batchDeleteNotes(mContentResolver, ids)) {
                         // 删除成功无需额外操作
                     } else {
                         // 删除失败，记录错误
@@ -706,11 +718,11 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     }
                 } else {
                     // 如果处于同步模式，将笔记移动到回收站文件夹
-                    if (!DataUtils.batchMoveToFolder(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds(), Notes.ID_TRASH_FOLER)) {
+                    if (!DataUtils.batchMoveToFolder(mContentResolver, ids, Notes.ID_TRASH_FOLER)) {
                         // 移动失败，记录错误
                         Log.e(TAG, "Move notes to trash folder error, should not happens");
                     }
+                    GTaskSyncScheduler.requestSync(NotesListActivity.this);
                 }
                 return widgets;
             }
@@ -761,6 +773,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         } else {
             // 同步模式下将文件夹移动到回收站
             DataUtils.batchMoveToFolder(mContentResolver, ids, Notes.ID_TRASH_FOLER);
+            GTaskSyncScheduler.requestSync(this);
         }
 
         // 更新相关小部件
@@ -911,6 +924,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                                 + "=?", new String[]{
                                 String.valueOf(mFocusNoteDataItem.getId())
                         }); // 更新数据库中的文件夹信息
+                        GTaskSyncScheduler.requestSync(NotesListActivity.this); // 请求后台同步
                     }
                 } else if (!TextUtils.isEmpty(name)) { // 如果是创建文件夹
                     ContentValues values = new ContentValues();
@@ -1291,7 +1305,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     if (item.getType() == Notes.TYPE_NOTE) {
                         position = position - mNotesListView.getHeaderViewsCount();
                         mModeCallBack.onItemCheckedStateChanged(null, position, id,
-                                !mNotesListAdapter.isSelectedItem(position));
+                                !mNotesListAdapter.isSelectedItem(id));
                     }
                     return;
                 }
@@ -17,30 +17,102 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
+import net.micode.notes.tool.LongHashSet;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 /**
- * 用于管理笔记列表的适配器，继承自CursorAdapter。
+ * 用于管理笔记列表的适配器。列表按页加载，每页按(TYPE, MODIFIED_DATE, ID)倒序的键集分页查询，
+ * 上一页之后的行拆成几段索引范围依次查询，每页的查询代价与已加载的行数无关，
+ * 滚动接近已加载的末尾时在后台加载下一页，打开很大的文件夹时第一屏的加载时间与文件夹大小无关。
+ * 笔记数据变化时在后台重新加载已加载的行数，与当前数据比较后只在有变化时刷新列表。
+ * 多选状态按笔记ID保存，与已加载的页数无关，全选覆盖当前文件夹中的所有笔记。
  */
-public class NotesListAdapter extends CursorAdapter {
+public class NotesListAdapter extends BaseAdapter {
     private static final String TAG = "NotesListAdapter";
+
+    // 每页加载的行数
+    private static final int PAGE_SIZE = 50;
+
+    // 距已加载末尾不足该行数时开始加载下一页
+    private static final int PREFETCH_DISTANCE = 15;
+
+    // 列表的后台查询在自己的线程中按顺序执行，不排在同步任务使用的AsyncTask默认串行队列之后
+    private static final Executor LIST_EXECUTOR = Executors.newSingleThreadExecutor();
+
     private Context mContext;
-    // 用于存储选中项的索引和状态
-    private HashMap<Integer, Boolean> mSelectedIndex;
-    private int mNotesCount; // 笔记总数
+    // 选中的笔记ID
+    private final LongHashSet mSelectedIds = new LongHashSet();
+    // 选择模式下在后台加载的当前文件夹所有笔记的ID，加载完成前为null
+    private LongHashSet mFolderNoteIds;
+    // 文件夹笔记ID加载完成后是否需要全选
+    private boolean mSelectAllPending;
+    // 每次开始或取消加载文件夹笔记ID时递增，用于丢弃过期的加载结果
+    private int mIdGeneration;
+    private OnSelectionChangedListener mSelectionListener;
+    private int mNotesCount; // 已加载的笔记数量
     private boolean mChoiceMode; // 选择模式标志
+    // 在后台查询通话记录笔记的联系人名称
+    private ContactNameLoader mContactNameLoader;
+
+    // 已加载的列表项
+    private ArrayList<NoteItemData> mItems = new ArrayList<NoteItemData>();
+
+    // 当前查询的投影、条件和参数，为null表示没有查询
+    private String[] mProjection;
+    private String mSelection;
+    private String[] mSelectionArgs;
+    // 排在列表最前面、不参与分页而单独查询的行的条件，例如根文件夹中的通话记录文件夹
+    private String mLeadingSelection;
+
+    // 是否还有未加载的行
+    private boolean mHasMore;
+
+    // 是否正在加载下一页
+    private boolean mLoadingPage;
+
+    // 每次开始新的查询或重新加载时递增，用于丢弃过期的加载结果
+    private int mGeneration;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // 笔记数据变化的观察者，多次变化合并为一次重新加载
+    private final ContentObserver mContentObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mProjection != null) {
+                reload();
+            }
+        }
+    };
+
+    private boolean mObserverRegistered;
+
+    /**
+     * 后台加载完成后选中状态发生变化时的回调，在界面线程执行。
+     */
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged();
+    }
 
     /**
      * AppWidget属性容器，用于存储与小部件相关的数据。
@@ -58,212 +130,527 @@ public class NotesListAdapter extends CursorAdapter {
      * @param context 上下文对象
      */
     public NotesListAdapter(Context context) {
-        super(context, null);
-        mSelectedIndex = new HashMap<Integer, Boolean>();
         mContext = context;
         mNotesCount = 0;
+        mContactNameLoader = new ContactNameLoader(context,
+                new ContactNameLoader.OnLoadedListener() {
+                    public void onContactNamesLoaded() {
+                        // 名称已写入缓存，重新绑定可见的行
+                        notifyDataSetChanged();
+                    }
+                });
     }
 
     /**
-     * 创建新的列表项视图。
+     * 开始新的查询，清空已加载的数据并在后台加载第一页。
      *
-     * @param context 上下文对象
-     * @param cursor  数据游标
-     * @param parent  父视图
-     * @return 新的列表项视图
+     * @param projection    查询的列，必须与{@link NoteItemData#PROJECTION}的列顺序一致。
+     * @param selection     查询条件。
+     * @param selectionArgs 查询条件的参数。
+     * @param leadingSelection 排在列表最前面的行的条件，没有时为null。这些行必须排在selection
+     *                         的所有行之前，单独查询可以让分页查询只有一个可以走索引的条件。
+     */
+    public void startQuery(String[] projection, String selection, String[] selectionArgs,
+                           String leadingSelection) {
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mLeadingSelection = leadingSelection;
+        if (!mObserverRegistered) {
+            mContext.getContentResolver().registerContentObserver(Notes.CONTENT_NOTE_URI, true,
+                    mContentObserver);
+            mObserverRegistered = true;
+        }
+        mGeneration++;
+        mLoadingPage = true;
+        new PageLoadTask(mGeneration, null, false).executeOnExecutor(LIST_EXECUTOR);
+        if (mChoiceMode) {
+            loadFolderNoteIds();
+        }
+    }
+
+    /**
+     * 清空已加载的数据，直到下一次查询前列表为空。
+     */
+    public void clear() {
+        mGeneration++;
+        mProjection = null;
+        mLoadingPage = false;
+        mHasMore = false;
+        mItems = new ArrayList<NoteItemData>();
+        mNotesCount = 0;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * 释放适配器持有的后台加载器和观察者，在Activity销毁时调用。
      */
+    public void release() {
+        mGeneration++;
+        mIdGeneration++;
+        mProjection = null;
+        mContactNameLoader.release();
+        if (mObserverRegistered) {
+            mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+            mObserverRegistered = false;
+        }
+    }
+
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return new NotesListItem(context);
+    public int getCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public NoteItemData getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).getId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     /**
-     * 绑定数据到视图。
+     * 绑定数据到视图。接近已加载的末尾时在后台加载下一页。
      *
-     * @param view    列表项视图
-     * @param context 上下文对象
-     * @param cursor  数据游标
+     * @param position    列表项的位置
+     * @param convertView 可复用的视图
+     * @param parent      父视图
+     * @return 列表项视图
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (view instanceof NotesListItem) {
-            NoteItemData itemData = new NoteItemData(context, cursor);
-            ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-                    isSelectedItem(cursor.getPosition()));
+    public View getView(int position, View convertView, ViewGroup parent) {
+        NotesListItem view = convertView instanceof NotesListItem ? (NotesListItem) convertView
+                : new NotesListItem(mContext);
+        NoteItemData itemData = mItems.get(position);
+        int count = mItems.size();
+        itemData.setPositionState(position == 0, position == count - 1 && !mHasMore,
+                mHasMore ? Integer.MAX_VALUE : count,
+                position > 0 && mItems.get(position - 1).getType() != Notes.TYPE_NOTE);
+        if (itemData.isCallRecord()) {
+            // 绑定时不查询联系人数据库，缺少的名称交给后台批量查询
+            mContactNameLoader.request(itemData.getPhoneNumber());
+        }
+        view.bind(mContext, itemData, mChoiceMode, mSelectedIds.contains(itemData.getId()));
+
+        if (mHasMore && !mLoadingPage && position >= count - PREFETCH_DISTANCE) {
+            mLoadingPage = true;
+            new PageLoadTask(mGeneration, mItems.get(count - 1), true).executeOnExecutor(LIST_EXECUTOR);
         }
+        return view;
     }
 
     /**
-     * 设置指定位置的项为选中或未选中状态。
-     *
-     * @param position 项的位置
-     * @param checked  选中状态
+     * 在后台重新加载已加载的行数，与当前数据比较后只在有变化时刷新列表。
      */
-    public void setCheckedItem(final int position, final boolean checked) {
-        mSelectedIndex.put(position, checked);
-        notifyDataSetChanged();
+    private void reload() {
+        mGeneration++;
+        mLoadingPage = true;
+        new ReloadTask(mGeneration, mItems, Math.max(mItems.size(), PAGE_SIZE)).executeOnExecutor(LIST_EXECUTOR);
+        if (mChoiceMode) {
+            loadFolderNoteIds();
+        }
     }
 
-    /**
-     * 获取当前是否处于选择模式。
-     *
-     * @return 选择模式状态
+    /*
+     * 在后台执行查询，返回不超过limit + 1行，多出的一行只用于判断是否还有更多数据。
+     * 从after之后继续时，按排序先后查询三段索引范围，前一段不足时才查询下一段。
      */
-    public boolean isInChoiceMode() {
-        return mChoiceMode;
+    private ArrayList<NoteItemData> query(String[] projection, String selection,
+                                          String[] selectionArgs, NoteItemData after, int limit) {
+        ArrayList<NoteItemData> items = new ArrayList<NoteItemData>();
+        if (after == null) {
+            queryRange(projection, selection, selectionArgs, limit + 1, items);
+            return items;
+        }
+        String type = String.valueOf(after.getType());
+        String modifiedDate = String.valueOf(after.getModifiedDate());
+        String[] selections = new String[]{
+                NoteSelections.LIST_AFTER_SAME_DATE,
+                NoteSelections.LIST_AFTER_OLDER,
+                NoteSelections.LIST_AFTER_TYPE
+        };
+        String[][] rangeArgs = new String[][]{
+                {type, modifiedDate, String.valueOf(after.getId())},
+                {type, modifiedDate},
+                {type}
+        };
+        for (int i = 0; i < selections.length && items.size() <= limit; i++) {
+            String where = "(" + selection + ") AND (" + selections[i] + ")";
+            int base = selectionArgs == null ? 0 : selectionArgs.length;
+            String[] args = new String[base + rangeArgs[i].length];
+            if (base > 0) {
+                System.arraycopy(selectionArgs, 0, args, 0, base);
+            }
+            System.arraycopy(rangeArgs[i], 0, args, base, rangeArgs[i].length);
+            queryRange(projection, where, args, limit + 1 - items.size(), items);
+        }
+        return items;
     }
 
-    /**
-     * 设置选择模式。
-     *
-     * @param mode 选择模式状态
+    /*
+     * 执行一次不超过limit行的查询，结果追加到items。
      */
-    public void setChoiceMode(boolean mode) {
-        mSelectedIndex.clear();
-        mChoiceMode = mode;
+    private void queryRange(String[] projection, String where, String[] args, int limit,
+                            ArrayList<NoteItemData> items) {
+        Uri uri = Notes.CONTENT_NOTE_URI.buildUpon()
+                .appendQueryParameter(Notes.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, where, args,
+                NoteSelections.LIST_ORDER);
+        if (cursor == null) {
+            Log.e(TAG, "Query notes failed");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new NoteItemData(mContext, cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 在后台查询排在列表最前面的行，这些行数量很少，不分页。
+     */
+    private ArrayList<NoteItemData> queryLeading(String[] projection, String leadingSelection) {
+        ArrayList<NoteItemData> items = new ArrayList<NoteItemData>();
+        if (leadingSelection == null) {
+            return items;
+        }
+        Cursor cursor = mContext.getContentResolver().query(Notes.CONTENT_NOTE_URI, projection,
+                leadingSelection, null, NoteSelections.LIST_ORDER);
+        if (cursor == null) {
+            Log.e(TAG, "Query leading notes failed");
+            return items;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new NoteItemData(mContext, cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    private static int countNotes(Collection<NoteItemData> items) {
+        int count = 0;
+        for (NoteItemData item : items) {
+            if (item.getType() == Notes.TYPE_NOTE) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
-     * 全选或全不选。
-     *
-     * @param checked 选中状态
+     * 加载一页数据，追加到已加载数据的末尾，或在开始新的查询时替换已加载的数据。
      */
-    public void selectAll(boolean checked) {
-        Cursor cursor = getCursor();
-        for (int i = 0; i < getCount(); i++) {
-            if (cursor.moveToPosition(i)) {
-                if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-                    setCheckedItem(i, checked);
-                }
+    private class PageLoadTask extends AsyncTask<Void, Void, ArrayList<NoteItemData>> {
+        private final int mTaskGeneration;
+        private final NoteItemData mAfter;
+        private final boolean mAppend;
+        private final String[] mTaskProjection;
+        private final String mTaskSelection;
+        private final String[] mTaskSelectionArgs;
+        private final String mTaskLeadingSelection;
+        private boolean mTaskHasMore;
+
+        PageLoadTask(int generation, NoteItemData after, boolean append) {
+            mTaskGeneration = generation;
+            mAfter = after;
+            mAppend = append;
+            mTaskProjection = mProjection;
+            mTaskSelection = mSelection;
+            mTaskSelectionArgs = mSelectionArgs;
+            mTaskLeadingSelection = mLeadingSelection;
+        }
+
+        @Override
+        protected ArrayList<NoteItemData> doInBackground(Void... params) {
+            ArrayList<NoteItemData> page = query(mTaskProjection, mTaskSelection,
+                    mTaskSelectionArgs, mAfter, PAGE_SIZE);
+            mTaskHasMore = page.size() > PAGE_SIZE;
+            if (mTaskHasMore) {
+                page.remove(PAGE_SIZE);
+            }
+            if (mAfter == null) {
+                page.addAll(0, queryLeading(mTaskProjection, mTaskLeadingSelection));
+            }
+            return page;
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<NoteItemData> page) {
+            if (mTaskGeneration != mGeneration) {
+                return;
             }
+            mLoadingPage = false;
+            mHasMore = mTaskHasMore;
+            if (mAppend) {
+                mItems.addAll(page);
+                mNotesCount += countNotes(page);
+            } else {
+                mItems = page;
+                mNotesCount = countNotes(page);
+            }
+            notifyDataSetChanged();
         }
     }
 
     /**
-     * 获取所有选中项的ID集合。
-     *
-     * @return 选中项ID的HashSet
+     * 数据变化后重新加载已加载的行数。在后台与当前数据逐项比较，内容相同的项复用原来的对象，
+     * 全部相同时不刷新列表。
      */
-    public HashSet<Long> getSelectedItemIds() {
-        HashSet<Long> itemSet = new HashSet<Long>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Long id = getItemId(position);
-                if (id == Notes.ID_ROOT_FOLDER) {
-                    Log.d(TAG, "Wrong item id, should not happen");
+    private class ReloadTask extends AsyncTask<Void, Void, ArrayList<NoteItemData>> {
+        private final int mTaskGeneration;
+        private final ArrayList<NoteItemData> mOldItems;
+        private final int mLimit;
+        private final String[] mTaskProjection;
+        private final String mTaskSelection;
+        private final String[] mTaskSelectionArgs;
+        private final String mTaskLeadingSelection;
+        private boolean mChanged;
+        private boolean mTaskHasMore;
+        private int mTaskNotesCount;
+
+        ReloadTask(int generation, ArrayList<NoteItemData> oldItems, int limit) {
+            mTaskGeneration = generation;
+            mOldItems = oldItems;
+            mLimit = limit;
+            mTaskProjection = mProjection;
+            mTaskSelection = mSelection;
+            mTaskSelectionArgs = mSelectionArgs;
+            mTaskLeadingSelection = mLeadingSelection;
+        }
+
+        @Override
+        protected ArrayList<NoteItemData> doInBackground(Void... params) {
+            ArrayList<NoteItemData> items = query(mTaskProjection, mTaskSelection,
+                    mTaskSelectionArgs, null, mLimit);
+            mTaskHasMore = items.size() > mLimit;
+            if (mTaskHasMore) {
+                items.remove(mLimit);
+            }
+            items.addAll(0, queryLeading(mTaskProjection, mTaskLeadingSelection));
+            mChanged = items.size() != mOldItems.size();
+            for (int i = 0; i < items.size(); i++) {
+                if (i < mOldItems.size() && items.get(i).isSameContent(mOldItems.get(i))) {
+                    items.set(i, mOldItems.get(i));
                 } else {
-                    itemSet.add(id);
+                    mChanged = true;
                 }
             }
+            mTaskNotesCount = countNotes(items);
+            return items;
         }
 
-        return itemSet;
+        @Override
+        protected void onPostExecute(ArrayList<NoteItemData> items) {
+            if (mTaskGeneration != mGeneration) {
+                return;
+            }
+            mLoadingPage = false;
+            boolean changed = mChanged || mTaskHasMore != mHasMore;
+            mHasMore = mTaskHasMore;
+            mItems = items;
+            mNotesCount = mTaskNotesCount;
+            if (changed) {
+                notifyDataSetChanged();
+            }
+        }
     }
 
     /**
-     * 获取所有选中小部件的属性集合。
-     *
-     * @return 选中小部件属性的HashSet
+     * 在后台加载当前文件夹中所有笔记的ID，只查询ID一列。用于全选和判断是否已全部选中，
+     * 同时去掉已经不在文件夹中的选中项。
      */
-    public HashSet<AppWidgetAttribute> getSelectedWidget() {
-        HashSet<AppWidgetAttribute> itemSet = new HashSet<AppWidgetAttribute>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Cursor c = (Cursor) getItem(position);
-                if (c != null) {
-                    AppWidgetAttribute widget = new AppWidgetAttribute();
-                    NoteItemData item = new NoteItemData(mContext, c);
-                    widget.widgetId = item.getWidgetId();
-                    widget.widgetType = item.getWidgetType();
-                    itemSet.add(widget);
-                } else {
-                    Log.e(TAG, "Invalid cursor");
-                    return null;
+    private void loadFolderNoteIds() {
+        mIdGeneration++;
+        if (mProjection == null) {
+            return;
+        }
+        new FolderNoteIdsTask(mIdGeneration).executeOnExecutor(LIST_EXECUTOR);
+    }
+
+    private class FolderNoteIdsTask extends AsyncTask<Void, Void, LongHashSet> {
+        private final int mTaskGeneration;
+        private final String mTaskSelection;
+        private final String[] mTaskSelectionArgs;
+
+        FolderNoteIdsTask(int generation) {
+            mTaskGeneration = generation;
+            mTaskSelection = "(" + mSelection + ") AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+            mTaskSelectionArgs = mSelectionArgs;
+        }
+
+        @Override
+        protected LongHashSet doInBackground(Void... params) {
+            LongHashSet ids = new LongHashSet();
+            Cursor cursor = mContext.getContentResolver().query(Notes.CONTENT_NOTE_URI,
+                    new String[]{NoteColumns.ID}, mTaskSelection, mTaskSelectionArgs, null);
+            if (cursor == null) {
+                Log.e(TAG, "Query note ids failed");
+                return null;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
                 }
+            } finally {
+                cursor.close();
+            }
+            return ids;
+        }
+
+        @Override
+        protected void onPostExecute(LongHashSet ids) {
+            if (mTaskGeneration != mIdGeneration || ids == null) {
+                return;
+            }
+            mFolderNoteIds = ids;
+            int oldCount = mSelectedIds.size();
+            mSelectedIds.retainAll(ids);
+            boolean changed = mSelectedIds.size() != oldCount;
+            if (mSelectAllPending) {
+                mSelectAllPending = false;
+                for (long id : ids.toArray()) {
+                    changed |= mSelectedIds.add(id);
+                }
+            }
+            if (changed) {
+                notifyDataSetChanged();
+            }
+            if (mSelectionListener != null) {
+                mSelectionListener.onSelectionChanged();
             }
         }
-        return itemSet;
     }
 
     /**
-     * 获取选中项的数量。
+     * 设置后台加载完成后选中状态变化的回调。
+     */
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mSelectionListener = listener;
+    }
+
+    /**
+     * 设置指定笔记为选中或未选中状态，状态有变化时才刷新列表。
      *
-     * @return 选中项数量
+     * @param id      笔记ID
+     * @param checked 选中状态
      */
-    public int getSelectedCount() {
-        Collection<Boolean> values = mSelectedIndex.values();
-        if (null == values) {
-            return 0;
+    public void setCheckedItem(final long id, final boolean checked) {
+        if (id == Notes.ID_ROOT_FOLDER) {
+            Log.d(TAG, "Wrong item id, should not happen");
+            return;
         }
-        Iterator<Boolean> iter = values.iterator();
-        int count = 0;
-        while (iter.hasNext()) {
-            if (true == iter.next()) {
-                count++;
-            }
+        boolean changed = checked ? mSelectedIds.add(id) : mSelectedIds.remove(id);
+        if (changed) {
+            notifyDataSetChanged();
         }
-        return count;
     }
 
     /**
-     * 判断是否全部选中。
+     * 获取当前是否处于选择模式。
      *
-     * @return 全部选中的状态
+     * @return 选择模式状态
      */
-    public boolean isAllSelected() {
-        int checkedCount = getSelectedCount();
-        return (checkedCount != 0 && checkedCount == mNotesCount);
+    public boolean isInChoiceMode() {
+        return mChoiceMode;
     }
 
     /**
-     * 检查指定位置的项是否被选中。
+     * 设置选择模式。进入选择模式时在后台加载当前文件夹所有笔记的ID。
      *
-     * @param position 项的位置
-     * @return 选中状态
+     * @param mode 选择模式状态
      */
-    public boolean isSelectedItem(final int position) {
-        if (null == mSelectedIndex.get(position)) {
-            return false;
+    public void setChoiceMode(boolean mode) {
+        mSelectedIds.clear();
+        mSelectAllPending = false;
+        mFolderNoteIds = null;
+        mChoiceMode = mode;
+        if (mode) {
+            loadFolderNoteIds();
+        } else {
+            mIdGeneration++;
         }
-        return mSelectedIndex.get(position);
     }
 
     /**
-     * 当内容改变时调用，更新笔记数量。
+     * 全选或全不选，覆盖当前文件夹中的所有笔记，包括尚未加载的页，只刷新一次列表。
+     * 文件夹笔记ID还未加载完成时先选中已加载的笔记，加载完成后补全并回调选中状态变化。
+     *
+     * @param checked 选中状态
      */
-    @Override
-    protected void onContentChanged() {
-        super.onContentChanged();
-        calcNotesCount();
+    public void selectAll(boolean checked) {
+        if (!checked) {
+            mSelectAllPending = false;
+            mSelectedIds.clear();
+        } else if (mFolderNoteIds != null) {
+            for (long id : mFolderNoteIds.toArray()) {
+                mSelectedIds.add(id);
+            }
+        } else {
+            mSelectAllPending = true;
+            for (NoteItemData item : mItems) {
+                if (item.getType() == Notes.TYPE_NOTE) {
+                    mSelectedIds.add(item.getId());
+                }
+            }
+        }
+        notifyDataSetChanged();
     }
 
     /**
-     * 当游标改变时调用，更新笔记数量。
+     * 获取所有选中项的ID集合。
      *
-     * @param cursor 新的游标
+     * @return 选中项ID的HashSet
      */
-    @Override
-    public void changeCursor(Cursor cursor) {
-        super.changeCursor(cursor);
-        calcNotesCount();
+    public HashSet<Long> getSelectedItemIds() {
+        return mSelectedIds.toHashSet();
+    }
+
+    /**
+     * 获取选中项的数量。
+     *
+     * @return 选中项数量
+     */
+    public int getSelectedCount() {
+        return mSelectedIds.size();
     }
 
     /**
-     * 计算并更新笔记总数。
+     * 判断是否全部选中。文件夹笔记ID还未加载完成时，只有全部数据都已加载才能判断。
+     *
+     * @return 全部选中的状态
      */
-    private void calcNotesCount() {
-        mNotesCount = 0;
-        for (int i = 0; i < getCount(); i++) {
-            Cursor c = (Cursor) getItem(i);
-            if (c != null) {
-                if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-                    mNotesCount++;
-                }
-            } else {
-                Log.e(TAG, "Invalid cursor");
-                return;
-            }
+    public boolean isAllSelected() {
+        int checkedCount = mSelectedIds.size();
+        if (checkedCount == 0) {
+            return false;
         }
+        if (mFolderNoteIds != null) {
+            return checkedCount == mFolderNoteIds.size();
+        }
+        return !mHasMore && checkedCount == mNotesCount;
     }
-}
 
+    /**
+     * 检查指定笔记是否被选中。
+     *
+     * @param id 笔记ID
+     * @return 选中状态
+     */
+    public boolean isSelectedItem(final long id) {
+        return mSelectedIds.contains(id);
+    }
+}
@@ -45,13 +45,17 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.remote.GTaskSyncJournal;
+import net.micode.notes.gtask.remote.GTaskSyncScheduler;
 import net.micode.notes.gtask.remote.GTaskSyncService;
+import net.micode.notes.gtask.remote.GTaskSyncWatermark;
+import net.micode.notes.tool.PreferenceUtils;
 
 
 public class NotesPreferenceActivity extends PreferenceActivity {
     // 常量定义部分：主要用于设置和同步相关的偏好设置键
-    public static final String PREFERENCE_NAME = "notes_preferences"; // 偏好设置的名称
-    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = "pref_key_account_name"; // 同步账户名称的键
+    public static final String PREFERENCE_NAME = PreferenceUtils.PREFERENCE_NAME; // 偏好设置的名称
+    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = PreferenceUtils.PREFERENCE_SYNC_ACCOUNT_NAME; // 同步账户名称的键
     public static final String PREFERENCE_LAST_SYNC_TIME = "pref_last_sync_time"; // 上次同步时间的键
     public static final String PREFERENCE_SET_BG_COLOR_KEY = "pref_key_bg_random_appear"; // 设置背景颜色的键
     private static final String PREFERENCE_SYNC_ACCOUNT_KEY = "pref_sync_account_key"; // 同步账户的键
@@ -184,6 +188,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
                     GTaskSyncService.cancelSync(NotesPreferenceActivity.this); // 设置点击事件为取消同步
                 }
             });
+            syncButton.setOnLongClickListener(null);
         } else {
             syncButton.setText(getString(R.string.preferences_button_sync_immediately)); // 设置为立即同步文本
             syncButton.setOnClickListener(new View.OnClickListener() {
@@ -191,6 +196,12 @@ public class NotesPreferenceActivity extends PreferenceActivity {
                     GTaskSyncService.startSync(NotesPreferenceActivity.this); // 设置点击事件为开始同步
                 }
             });
+            syncButton.setOnLongClickListener(new View.OnLongClickListener() {
+                public boolean onLongClick(View v) {
+                    GTaskSyncService.startSync(NotesPreferenceActivity.this, true); // 长按执行完整同步
+                    return true;
+                }
+            });
         }
         syncButton.setEnabled(!TextUtils.isEmpty(getSyncAccountName(this))); // 只有在设置了同步账户时才使能同步按钮
 
@@ -353,8 +364,14 @@ public class NotesPreferenceActivity extends PreferenceActivity {
             }
             editor.commit();
 
-            // 清理上次同步时间
+            // 清理上次同步时间、增量同步水位线和同步日志
             setLastSyncTime(this, 0);
+            GTaskSyncWatermark.clear(this);
+            GTaskSyncJournal.clear(this);
+
+            // 为新账户重新调度后台同步
+            GTaskSyncScheduler.cancel(this);
+            GTaskSyncScheduler.schedulePeriodic(this);
 
             // 清理本地相关的gtask信息
             new Thread(new Runnable() {
@@ -362,6 +379,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
                     ContentValues values = new ContentValues();
                     values.put(NoteColumns.GTASK_ID, "");
                     values.put(NoteColumns.SYNC_ID, 0);
+                    values.putNull(NoteColumns.SYNC_BASE);
                     getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
                 }
             }).start();
@@ -389,6 +407,9 @@ public class NotesPreferenceActivity extends PreferenceActivity {
             editor.remove(PREFERENCE_LAST_SYNC_TIME);
         }
         editor.commit();
+        GTaskSyncWatermark.clear(this);
+        GTaskSyncJournal.clear(this);
+        GTaskSyncScheduler.cancel(this);
 
         // 清理本地相关的gtask信息
         new Thread(new Runnable() {
@@ -396,6 +417,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
                 ContentValues values = new ContentValues();
                 values.put(NoteColumns.GTASK_ID, "");
                 values.put(NoteColumns.SYNC_ID, 0);
+                values.putNull(NoteColumns.SYNC_BASE);
                 getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
             }
         }).start();
@@ -409,9 +431,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
      * @return 同步账户名
      */
     public static String getSyncAccountName(Context context) {
-        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
-                Context.MODE_PRIVATE);
-        return settings.getString(PREFERENCE_SYNC_ACCOUNT_NAME, "");
+        return PreferenceUtils.getSyncAccountName(context);
     }
 
     /**
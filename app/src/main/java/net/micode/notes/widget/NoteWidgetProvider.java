@@ -27,6 +27,7 @@ import android.widget.RemoteViews;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.ui.NoteEditActivity;
 import net.micode.notes.ui.NotesListActivity;
@@ -39,13 +40,13 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
     public static final String[] PROJECTION = new String[]{
             NoteColumns.ID,
             NoteColumns.BG_COLOR_ID,
-            NoteColumns.SNIPPET
+            NoteColumns.PREVIEW
     };
 
     // 列的索引常量
     public static final int COLUMN_ID = 0;
     public static final int COLUMN_BG_COLOR_ID = 1;
-    public static final int COLUMN_SNIPPET = 2;
+    public static final int COLUMN_PREVIEW = 2;
 
     // 日志标签
     private static final String TAG = "NoteWidgetProvider";
@@ -75,7 +76,7 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
     private Cursor getNoteWidgetInfo(Context context, int widgetId) {
         return context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.PARENT_ID + "<>?",
+                NoteSelections.WIDGET_NOTE,
                 new String[]{String.valueOf(widgetId), String.valueOf(Notes.ID_TRASH_FOLER)},
                 null);
     }
@@ -117,7 +118,7 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
                         c.close();
                         return;
                     }
-                    snippet = c.getString(COLUMN_SNIPPET);
+                    snippet = c.getString(COLUMN_PREVIEW);
                     bgId = c.getInt(COLUMN_BG_COLOR_ID);
                     intent.putExtra(Intent.EXTRA_UID, c.getLong(COLUMN_ID));
                     intent.setAction(Intent.ACTION_VIEW);
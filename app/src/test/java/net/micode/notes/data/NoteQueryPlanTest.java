@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteSelections;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用EXPLAIN QUERY PLAN检查{@link NoteSelections}中的查询都走索引，
+ * 不出现对note表的全表扫描，也不需要为排序建立临时B树。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteQueryPlanTest {
+    // 对note表的全表扫描，"SCAN note USING INDEX"按索引顺序读取，不算全表扫描
+    private static final Pattern FULL_SCAN_PATTERN =
+            Pattern.compile("SCAN (TABLE )?" + TABLE.NOTE + "\\b(?! USING).*");
+
+    // 为排序或去重建立的临时B树，说明索引没有提供需要的顺序
+    private static final String TEMP_B_TREE = "USE TEMP B-TREE";
+
+    private static final String LIST_PAGE_LIMIT = " LIMIT 51";
+
+    private NotesDatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase("note.db");
+        mHelper = new NotesDatabaseHelper(context);
+        mDb = mHelper.getWritableDatabase();
+        // 写入一些笔记，避免空表上的执行计划与实际使用时不同
+        for (int i = 0; i < 200; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.PARENT_ID, i % 2 == 0 ? Notes.ID_ROOT_FOLDER : 1000);
+            values.put(NoteColumns.TYPE, i % 20 == 0 ? Notes.TYPE_FOLDER : Notes.TYPE_NOTE);
+            values.put(NoteColumns.MODIFIED_DATE, 1000L * i);
+            values.put(NoteColumns.GTASK_ID, "gid" + i);
+            values.put(NoteColumns.ALERTED_DATE, i % 10 == 0 ? 5000L * i : 0);
+            mDb.insert(TABLE.NOTE, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void firstPagesUseIndexes() {
+        assertIndexed(list(NoteSelections.FOLDER_LIST), "1000");
+        assertIndexed(list(NoteSelections.ROOT_FOLDER_LIST), String.valueOf(Notes.ID_ROOT_FOLDER));
+    }
+
+    @Test
+    public void continuationRangesUseIndexes() {
+        String[] folders = new String[]{NoteSelections.FOLDER_LIST, NoteSelections.ROOT_FOLDER_LIST};
+        String[] folderIds = new String[]{"1000", String.valueOf(Notes.ID_ROOT_FOLDER)};
+        for (int i = 0; i < folders.length; i++) {
+            assertIndexed(list("(" + folders[i] + ") AND (" + NoteSelections.LIST_AFTER_SAME_DATE + ")"),
+                    folderIds[i], String.valueOf(Notes.TYPE_NOTE), "50000", "100");
+            assertIndexed(list("(" + folders[i] + ") AND (" + NoteSelections.LIST_AFTER_OLDER + ")"),
+                    folderIds[i], String.valueOf(Notes.TYPE_NOTE), "50000");
+            assertIndexed(list("(" + folders[i] + ") AND (" + NoteSelections.LIST_AFTER_TYPE + ")"),
+                    folderIds[i], String.valueOf(Notes.TYPE_FOLDER));
+        }
+    }
+
+    @Test
+    public void otherSelectionsUseIndexes() {
+        assertIndexed(select(NoteSelections.CALL_RECORD_FOLDER));
+        assertIndexed(select(NoteSelections.SYNC_BY_TYPE) + " ORDER BY " + NoteColumns.TYPE + " DESC",
+                String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER));
+        assertIndexed(select(NoteSelections.SYNC_TRASH),
+                String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER));
+        assertIndexed(select(NoteColumns.GTASK_ID + " IN (?)"), "gid");
+        assertIndexed(select(NoteSelections.ALERTED_NOTES), "0");
+        assertIndexed(select(NoteSelections.WIDGET_NOTE), "1", String.valueOf(Notes.ID_TRASH_FOLER));
+    }
+
+    private static String select(String where) {
+        return "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE + " WHERE " + where;
+    }
+
+    private static String list(String where) {
+        return select(where) + " ORDER BY " + NoteSelections.LIST_ORDER + LIST_PAGE_LIMIT;
+    }
+
+    private void assertIndexed(String sql, String... args) {
+        ArrayList<String> details = new ArrayList<String>();
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumn = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                details.add(c.getString(detailColumn));
+            }
+        } finally {
+            c.close();
+        }
+        assertFalse(sql, details.isEmpty());
+        for (String detail : details) {
+            assertFalse(sql + " -> " + detail, FULL_SCAN_PATTERN.matcher(detail).matches());
+            assertFalse(sql + " -> " + detail, detail.contains(TEMP_B_TREE));
+        }
+        // 至少有一步通过索引或主键读取
+        assertTrue(sql + " -> " + details, details.toString().contains(" USING "));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 更新笔记时版本号在同一条UPDATE语句中增加，并与分两条语句更新的旧做法比较耗时。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteVersionUpdateTest {
+    // 基准测试中更新的次数
+    private static final int UPDATE_COUNT = 10000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(NotesProvider.class, Notes.AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void updateIncreasesVersion() {
+        Uri uri = insertNote("first");
+        assertEquals(0, version(uri));
+
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.BG_COLOR_ID, 2);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+        assertEquals(1, version(uri));
+
+        assertEquals(1, mResolver.update(Notes.CONTENT_NOTE_URI, values,
+                NoteColumns.ID + "=?", new String[]{String.valueOf(ContentUris.parseId(uri))}));
+        assertEquals(2, version(uri));
+    }
+
+    @Test
+    public void explicitVersionTakesPrecedence() {
+        Uri uri = insertNote("first");
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.VERSION, 10);
+        mResolver.update(uri, values, null, null);
+        assertEquals(10, version(uri));
+    }
+
+    // 旧做法把参数用replaceFirst拼接进SQL，参数中的$和\会出错
+    @Test
+    public void selectionArgsAreBound() {
+        Uri uri = insertNote("price $1 \\ path");
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.BG_COLOR_ID, 3);
+        assertEquals(1, mResolver.update(uri, values, NoteColumns.SNIPPET + "=?",
+                new String[]{"price $1 \\ path"}));
+        assertEquals(1, version(uri));
+        assertEquals(0, mResolver.update(uri, values, NoteColumns.SNIPPET + "=?",
+                new String[]{"other"}));
+        assertEquals(1, version(uri));
+    }
+
+    // 在同一个数据库上分别用旧的两条语句和新的一条语句各更新UPDATE_COUNT次
+    @Test
+    public void measureUpdateTime() {
+        Uri uri = insertNote("benchmark");
+        long id = ContentUris.parseId(uri);
+        SQLiteDatabase db = NotesDatabaseHelper.getInstance(RuntimeEnvironment.application)
+                .getWritableDatabase();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.MODIFIED_DATE, i);
+            String selection = NoteColumns.ID + "=?";
+            db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.VERSION + "="
+                    + NoteColumns.VERSION + "+1 WHERE " + selection.replaceFirst("\\?", String.valueOf(id)));
+            db.update(TABLE.NOTE, values, selection, new String[]{String.valueOf(id)});
+        }
+        long twoStatements = (System.nanoTime() - start) / 1000000;
+        assertEquals(UPDATE_COUNT, version(uri));
+
+        start = System.nanoTime();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.MODIFIED_DATE, i);
+            mResolver.update(Notes.CONTENT_NOTE_URI, values, NoteColumns.ID + "=?",
+                    new String[]{String.valueOf(id)});
+        }
+        long oneStatement = (System.nanoTime() - start) / 1000000;
+        assertEquals(2 * UPDATE_COUNT, version(uri));
+
+        System.out.println(String.format("%d note updates: version bump as a separate statement %d ms, "
+                + "folded into the update through the provider %d ms", UPDATE_COUNT, twoStatements,
+                oneStatement));
+    }
+
+    private Uri insertNote(String snippet) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        values.put(NoteColumns.SNIPPET, snippet);
+        return mResolver.insert(Notes.CONTENT_NOTE_URI, values);
+    }
+
+    private long version(Uri uri) {
+        Cursor c = mResolver.query(uri, new String[]{NoteColumns.VERSION}, null, null, null);
+        try {
+            c.moveToFirst();
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+}
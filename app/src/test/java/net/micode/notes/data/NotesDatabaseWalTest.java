@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.preference.PreferenceManager;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.PreferenceUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较关闭和开启预写日志时逐条提交笔记的耗时，并检查同步级别设置和WAL文件的检查点。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NotesDatabaseWalTest {
+    private static final String DB_NAME = "note.db";
+
+    // 逐条提交的笔记数
+    private static final int COMMIT_COUNT = 500;
+
+    private Context mContext;
+    private NotesDatabaseHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @After
+    public void tearDown() {
+        closeHelper();
+    }
+
+    @Test
+    public void walModeFollowsPreferences() {
+        SQLiteDatabase db = openHelper(true, null);
+        assertEquals("wal", queryString(db, "journal_mode").toLowerCase());
+        // synchronous的取值：1为NORMAL，2为FULL
+        assertEquals(1, Integer.parseInt(queryString(db, "synchronous")));
+
+        db = openHelper(true, "FULL");
+        assertEquals(2, Integer.parseInt(queryString(db, "synchronous")));
+
+        assertEquals(4 * 1024 * 1024, Integer.parseInt(queryString(db, "journal_size_limit")));
+
+        // 无效的取值按默认的NORMAL处理
+        db = openHelper(true, "NORMAL; DROP TABLE note");
+        assertEquals(1, Integer.parseInt(queryString(db, "synchronous")));
+    }
+
+    @Test
+    public void measureCommitTime() {
+        // 关闭设置时使用框架的默认日志模式，API 28起可能是兼容WAL，这里显式关闭作为对照
+        SQLiteDatabase db = openHelper(false, null);
+        db.disableWriteAheadLogging();
+        assertNotEquals("wal", queryString(db, "journal_mode").toLowerCase());
+        long rollback = timeCommits(db);
+        long walFull = timeCommits(openHelper(true, "FULL"));
+        long walNormal = timeCommits(openHelper(true, "NORMAL"));
+        System.out.println(String.format(
+                "%d commits: rollback journal %d ms, WAL+FULL %d ms, WAL+NORMAL %d ms",
+                COMMIT_COUNT, rollback, walFull, walNormal));
+    }
+
+    @Test
+    public void checkpointsLargeWal() {
+        SQLiteDatabase db = openHelper(true, null);
+        File wal = new File(db.getPath() + "-wal");
+
+        // 一个事务写入约8MB的数据，超过检查点阈值
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            text.append("0123456789abcdef");
+        }
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < 512; i++) {
+                insertNote(db, text.toString());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long before = wal.length();
+        assertTrue("wal is " + before + " bytes", before > 4 * 1024 * 1024);
+
+        mHelper.checkpointIfLarge();
+        // 检查点之后的下一次写入从头复用WAL文件，并按journal_size_limit截断
+        insertNote(db, "after checkpoint");
+        long after = wal.length();
+        System.out.println("WAL before checkpoint " + before + " bytes, after " + after + " bytes");
+        assertTrue("wal is " + after + " bytes", after <= 4 * 1024 * 1024);
+    }
+
+    private long timeCommits(SQLiteDatabase db) {
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMIT_COUNT; i++) {
+            insertNote(db, "note " + i);
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void insertNote(SQLiteDatabase db, String snippet) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        values.put(NoteColumns.SNIPPET, snippet);
+        db.insert(TABLE.NOTE, null, values);
+    }
+
+    // 按给定的设置重新创建数据库
+    private SQLiteDatabase openHelper(boolean wal, String synchronous) {
+        closeHelper();
+        mContext.deleteDatabase(DB_NAME);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(PreferenceUtils.PREFERENCE_DB_WAL_KEY, wal)
+                .putString(PreferenceUtils.PREFERENCE_DB_SYNCHRONOUS_KEY,
+                        synchronous == null ? PreferenceUtils.DEFAULT_DB_SYNCHRONOUS : synchronous)
+                .commit();
+        mHelper = new NotesDatabaseHelper(mContext);
+        return mHelper.getWritableDatabase();
+    }
+
+    private void closeHelper() {
+        if (mHelper != null) {
+            mHelper.close();
+            mHelper = null;
+        }
+    }
+
+    // 只读语句会使用连接池中的只读连接，在事务中读取才能拿到写入连接上的设置
+    private static String queryString(SQLiteDatabase db, String pragma) {
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("PRAGMA " + pragma);
+            try {
+                return statement.simpleQueryForString();
+            } finally {
+                statement.close();
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
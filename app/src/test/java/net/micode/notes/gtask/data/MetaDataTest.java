@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 元数据紧凑格式的内容和大小。TextUtils在android.jar中只有桩实现，测试在Robolectric上运行。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MetaDataTest {
+    private static final String NOTE_TEXT = "<div>周六上午十点体检，空腹</div><div>带上医保卡和上次的报告</div>"
+            + "<div>下午去超市：牛奶、面包、鸡蛋、苹果</div>";
+
+    @Test
+    public void compactMetaKeepsOnlyColumnsTheTaskCannotCarry() throws JSONException {
+        MetaData meta = new MetaData();
+        meta.setMeta("task-gid", noteContent(42, NOTE_TEXT));
+        assertEquals(GTaskStringUtils.META_NOTE_NAME, meta.getName());
+
+        JSONObject stored = new JSONObject(meta.getNotes());
+        assertEquals(GTaskStringUtils.META_VERSION_COMPACT,
+                stored.getInt(GTaskStringUtils.META_HEAD_VERSION));
+        assertEquals("task-gid", stored.getString(GTaskStringUtils.META_HEAD_GTASK_ID));
+        JSONObject note = stored.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        assertEquals(42, note.getLong(NoteColumns.ID));
+        assertEquals(3, note.getInt(NoteColumns.BG_COLOR_ID));
+        assertFalse(note.has(NoteColumns.SNIPPET));
+        assertFalse(note.has(NoteColumns.WIDGET_ID));
+        assertFalse(note.has(NoteColumns.MODIFIED_DATE));
+        JSONObject data = stored.getJSONArray(GTaskStringUtils.META_HEAD_DATA).getJSONObject(0);
+        assertEquals(420, data.getLong(DataColumns.ID));
+        assertFalse(data.has(DataColumns.CONTENT));
+        assertFalse(data.has(DataColumns.DATA1));
+    }
+
+    @Test
+    public void metaInfoTakesModifiedDateFromTask() throws JSONException {
+        MetaData meta = new MetaData();
+        meta.setMeta("task-gid", noteContent(42, NOTE_TEXT));
+        JSONObject info = meta.getMetaInfo(123456789L);
+        assertEquals(123456789L, info.getJSONObject(GTaskStringUtils.META_HEAD_NOTE)
+                .getLong(NoteColumns.MODIFIED_DATE));
+    }
+
+    @Test
+    public void legacyMetaIsReturnedAsIs() throws JSONException {
+        JSONObject legacy = noteContent(42, NOTE_TEXT);
+        legacy.put(GTaskStringUtils.META_HEAD_GTASK_ID, "task-gid");
+        MetaData meta = new MetaData();
+        meta.setNotes(legacy.toString());
+        JSONObject info = meta.getMetaInfo(1L);
+        JSONObject note = info.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        assertEquals(5000L, note.getLong(NoteColumns.MODIFIED_DATE));
+        assertEquals(7, note.getInt(NoteColumns.WIDGET_ID));
+    }
+
+    @Test
+    public void missingColumnsAreFilledFromLocalNote() throws JSONException {
+        MetaData meta = new MetaData();
+        meta.setMeta("task-gid", noteContent(42, NOTE_TEXT));
+        JSONObject remote = meta.getMetaInfo(1L);
+        MetaData.fillMissingNoteColumns(remote, noteContent(42, "local"));
+        JSONObject note = remote.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        assertEquals(7, note.getInt(NoteColumns.WIDGET_ID));
+        assertEquals(1L, note.getLong(NoteColumns.MODIFIED_DATE));
+    }
+
+    // 比较1000条笔记的元数据在旧格式和紧凑格式下上传的字节数
+    @Test
+    public void measureSizeReduction() throws JSONException {
+        long legacyBytes = 0;
+        long compactBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            JSONObject content = noteContent(i + 1, NOTE_TEXT + "<div>" + i + "</div>");
+            JSONObject legacy = new JSONObject(content.toString());
+            legacy.put(GTaskStringUtils.META_HEAD_GTASK_ID, "gid" + i);
+            legacyBytes += utf8Length(legacy.toString());
+
+            MetaData meta = new MetaData();
+            meta.setMeta("gid" + i, content);
+            compactBytes += utf8Length(meta.getNotes());
+        }
+        System.out.println(String.format("meta for 1000 notes: legacy %d bytes, compact %d bytes (%.0f%%)",
+                legacyBytes, compactBytes, 100.0 * compactBytes / legacyBytes));
+        assertTrue(compactBytes * 2 < legacyBytes);
+    }
+
+    private static long utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // 与SqlNote.getContent()相同格式的笔记内容
+    private static JSONObject noteContent(long id, String text) throws JSONException {
+        JSONObject note = new JSONObject();
+        note.put(NoteColumns.ID, id);
+        note.put(NoteColumns.ALERTED_DATE, 0);
+        note.put(NoteColumns.BG_COLOR_ID, 3);
+        note.put(NoteColumns.CREATED_DATE, 1000L);
+        note.put(NoteColumns.HAS_ATTACHMENT, 0);
+        note.put(NoteColumns.MODIFIED_DATE, 5000L);
+        note.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        note.put(NoteColumns.SNIPPET, text);
+        note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        note.put(NoteColumns.WIDGET_ID, 7);
+        note.put(NoteColumns.WIDGET_TYPE, Notes.TYPE_WIDGET_4X);
+        note.put(NoteColumns.ORIGIN_PARENT_ID, 0);
+
+        JSONObject data = new JSONObject();
+        data.put(DataColumns.ID, id * 10);
+        data.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        data.put(DataColumns.CONTENT, text);
+        data.put(DataColumns.DATA1, 0);
+        data.put(DataColumns.DATA3, "");
+
+        JSONObject js = new JSONObject();
+        js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+        js.put(GTaskStringUtils.META_HEAD_DATA, new JSONArray().put(data));
+        return js;
+    }
+}
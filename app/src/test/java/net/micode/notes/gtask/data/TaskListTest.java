@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TaskListTest {
+    // 基准测试中一个任务列表的任务数
+    private static final int BENCHMARK_TASKS = 20000;
+
+    @Test
+    public void addLinksPriorSiblings() {
+        TaskList list = new TaskList();
+        Task a = task("a");
+        Task b = task("b");
+        Task c = task("c");
+        list.addChildTask(a);
+        list.addChildTask(c);
+        list.addChildTask(b, 1);
+
+        assertEquals(3, list.getChildTaskCount());
+        assertNull(a.getPriorSibling());
+        assertSame(a, b.getPriorSibling());
+        assertSame(b, c.getPriorSibling());
+        assertSame(list, b.getParent());
+        assertEquals(1, list.getChildTaskIndex(b));
+        assertEquals(2, list.getChildTaskIndex(c));
+    }
+
+    @Test
+    public void removeAndMoveKeepIndexes() {
+        TaskList list = new TaskList();
+        Task[] tasks = new Task[5];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = task("t" + i);
+            list.addChildTask(tasks[i]);
+        }
+
+        list.removeChildTask(tasks[1]);
+        assertEquals(-1, list.getChildTaskIndex(tasks[1]));
+        assertNull(tasks[1].getParent());
+        assertSame(tasks[0], tasks[2].getPriorSibling());
+        assertEquals(1, list.getChildTaskIndex(tasks[2]));
+        assertNull(list.findChildTaskByGid("t1"));
+
+        list.moveChildTask(tasks[4], 0);
+        assertEquals(0, list.getChildTaskIndex(tasks[4]));
+        assertNull(tasks[4].getPriorSibling());
+        assertSame(tasks[4], tasks[0].getPriorSibling());
+        assertSame(tasks[3], list.getChildTaskByIndex(3));
+        assertSame(tasks[3], list.findChildTaskByGid("t3"));
+    }
+
+    @Test
+    public void findsTasksThatGetGidAfterAdding() {
+        TaskList list = new TaskList();
+        Task task = new Task();
+        list.addChildTask(task);
+        assertNull(list.findChildTaskByGid("late"));
+
+        task.setGid("late");
+        assertSame(task, list.findChildTaskByGid("late"));
+    }
+
+    // 在2万个任务的列表上执行同步时的典型操作，并与按顺序扫描子任务列表的查找方式比较
+    @Test
+    public void benchmarkLargeList() {
+        long start = System.nanoTime();
+        TaskList list = new TaskList();
+        Task[] tasks = new Task[BENCHMARK_TASKS];
+        for (int i = 0; i < BENCHMARK_TASKS; i++) {
+            tasks[i] = task("gid" + i);
+            list.addChildTask(tasks[i]);
+        }
+        long addTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_TASKS; i++) {
+            assertSame(tasks[i], list.findChildTaskByGid("gid" + i));
+            assertEquals(i, list.getChildTaskIndex(tasks[i]));
+        }
+        long lookupTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        ArrayList<Task> children = list.getChildTaskList();
+        for (int i = 0; i < BENCHMARK_TASKS; i++) {
+            assertSame(tasks[i], scanByGid(children, "gid" + i));
+            assertEquals(i, children.indexOf(tasks[i]));
+        }
+        long scanTime = System.nanoTime() - start;
+
+        // 从末尾移除一部分任务，再把一部分任务移到列表开头
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            list.removeChildTask(tasks[BENCHMARK_TASKS - 1 - i]);
+        }
+        for (int i = 0; i < 100; i++) {
+            list.moveChildTask(tasks[BENCHMARK_TASKS / 2 + i], 0);
+        }
+        long editTime = System.nanoTime() - start;
+
+        assertEquals(BENCHMARK_TASKS - 1000, list.getChildTaskCount());
+        assertSame(tasks[BENCHMARK_TASKS / 2 + 99], list.getChildTaskByIndex(0));
+        assertSame(tasks[0], list.getChildTaskByIndex(100));
+        assertSame(tasks[0], list.findChildTaskByGid("gid0"));
+
+        System.out.println(String.format("%d tasks: add %d ms, indexed lookups %d ms, "
+                        + "scanning lookups %d ms, 1000 removes and 100 moves %d ms",
+                BENCHMARK_TASKS, addTime / 1000000, lookupTime / 1000000, scanTime / 1000000,
+                editTime / 1000000));
+    }
+
+    private static Task scanByGid(ArrayList<Task> children, String gid) {
+        for (Task task : children) {
+            if (gid.equals(task.getGid())) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private static Task task(String gid) {
+        Task task = new Task();
+        task.setGid(gid);
+        return task;
+    }
+}
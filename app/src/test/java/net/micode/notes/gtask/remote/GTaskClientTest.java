@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.gtask.data.TaskList;
+import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.tool.PreferenceUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在桩服务器上测试GTaskClient的登录、动作批量提交和任务列表下载。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GTaskClientTest {
+    static final String ACCOUNT_NAME = "stub@gmail.com";
+
+    // 内存测试中生成的列表大小，压缩前的响应约30MB
+    private static final int LARGE_LIST_TASKS = 20000;
+    private static final int LARGE_LIST_NOTES_LENGTH = 1500;
+
+    private GTaskStubServer mServer;
+    private GTaskClient mClient;
+
+    /**
+     * 添加同步账户及其授权令牌，并在设置中选择该账户。
+     */
+    static void setUpAccount(Context context) {
+        Account account = new Account(ACCOUNT_NAME, "com.google");
+        AccountManager accountManager = AccountManager.get(context);
+        accountManager.addAccountExplicitly(account, null, null);
+        accountManager.setAuthToken(account, "goanna_mobile", "stub-token");
+        context.getSharedPreferences(PreferenceUtils.PREFERENCE_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PreferenceUtils.PREFERENCE_SYNC_ACCOUNT_NAME, ACCOUNT_NAME).commit();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        setUpAccount(context);
+        mServer = new GTaskStubServer();
+        mServer.start();
+        mClient = GTaskClient.getInstance();
+        mClient.setServerUrl(mServer.getUrl());
+        mClient.resetUpdateArray();
+        assertTrue(mClient.login(context, null));
+    }
+
+    @After
+    public void tearDown() {
+        mClient.setServerUrl(null);
+        mServer.stop();
+    }
+
+    private static TaskList newList(String name) {
+        TaskList list = new TaskList();
+        list.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX + name);
+        return list;
+    }
+
+    private static Task newTask(TaskList list, String name) {
+        Task task = new Task();
+        task.setName(name);
+        list.addChildTask(task);
+        return task;
+    }
+
+    private static String names(List<GTaskStubServer.StubTask> tasks) {
+        StringBuilder sb = new StringBuilder();
+        for (GTaskStubServer.StubTask task : tasks) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(task.name);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void loginReadsSetupPage() {
+        assertEquals(1, mServer.getPageRequestCount());
+        assertEquals(0, mServer.getActionRequestCount());
+    }
+
+    // 任务依赖等待创建的任务列表和前一个兄弟任务，依赖所在的批次先提交，任务按顺序插入列表
+    @Test
+    public void createsListBeforeItsTasks() throws Exception {
+        TaskList list = newList("Work");
+        mClient.addCreateNode(list, null);
+        Task first = newTask(list, "first");
+        mClient.addCreateNode(first, null);
+        Task second = newTask(list, "second");
+        mClient.addCreateNode(second, null);
+        mClient.commitUpdate();
+
+        assertEquals(3, mServer.getActionRequestCount());
+        assertNotNull(list.getGid());
+        GTaskStubServer.StubList stubList = mServer.findList(list.getName());
+        assertEquals("first,second", names(mServer.getTasks(stubList)));
+        assertEquals(mServer.getTask(second.getGid()).lastModified, second.getLastModified());
+    }
+
+    // 同一批次中的更新动作只包含修改过的字段
+    @Test
+    public void updatesOnlyDirtyFields() throws Exception {
+        TaskList list = newList("Work");
+        mClient.createTaskList(list);
+        Task task = newTask(list, "title");
+        task.setNotes("{\"body\":1}");
+        mClient.createTask(task);
+        mServer.editTask(task.getGid(), "title", "{\"body\":2}");
+
+        task.setName("renamed");
+        mClient.addUpdateNode(task);
+        mClient.addUpdateNode(task);
+        mClient.commitUpdate();
+
+        GTaskStubServer.StubTask stubTask = mServer.getTask(task.getGid());
+        assertEquals("renamed", stubTask.name);
+        assertEquals("{\"body\":2}", stubTask.notes);
+        assertEquals(stubTask.lastModified, task.getLastModified());
+    }
+
+    @Test
+    public void movesTasksWithinAndAcrossLists() throws Exception {
+        TaskList work = newList("Work");
+        TaskList home = newList("Home");
+        mClient.addCreateNode(work, null);
+        mClient.addCreateNode(home, null);
+        Task a = newTask(work, "a");
+        Task b = newTask(work, "b");
+        Task c = newTask(work, "c");
+        mClient.addCreateNode(a, null);
+        mClient.addCreateNode(b, null);
+        mClient.addCreateNode(c, null);
+        mClient.commitUpdate();
+
+        // c移到a之后
+        work.moveChildTask(c, 1);
+        mClient.moveTask(c, work, work);
+        // b移到另一个列表
+        work.removeChildTask(b);
+        home.addChildTask(b);
+        mClient.moveTask(b, work, home);
+        mClient.commitUpdate();
+
+        assertEquals("a,c", names(mServer.getTasks(mServer.findList(work.getName()))));
+        assertEquals("b", names(mServer.getTasks(mServer.findList(home.getName()))));
+    }
+
+    @Test
+    public void deletedTasksAreNotDownloaded() throws Exception {
+        TaskList list = newList("Work");
+        mClient.addCreateNode(list, null);
+        Task keep = newTask(list, "keep");
+        Task drop = newTask(list, "drop");
+        mClient.addCreateNode(keep, null);
+        mClient.addCreateNode(drop, null);
+        mClient.deleteNode(drop);
+        mClient.commitUpdate();
+
+        JSONArray tasks = mClient.getTaskList(list.getGid());
+        assertEquals(1, tasks.length());
+        assertEquals(keep.getGid(), tasks.getJSONObject(0).getString(GTaskStringUtils.GTASK_JSON_ID));
+        assertTrue(mServer.getTask(drop.getGid()).deleted);
+    }
+
+    @Test
+    public void getTaskListsReadsSetupPage() throws Exception {
+        TaskList work = newList("Work");
+        TaskList home = newList("Home");
+        mClient.addCreateNode(work, null);
+        mClient.addCreateNode(home, null);
+        mClient.commitUpdate();
+
+        JSONArray lists = mClient.getTaskLists();
+        assertEquals(2, lists.length());
+        assertEquals(work.getGid(), lists.getJSONObject(0).getString(GTaskStringUtils.GTASK_JSON_ID));
+        assertEquals(home.getName(), lists.getJSONObject(1).getString(GTaskStringUtils.GTASK_JSON_NAME));
+    }
+
+    // 一次请求中的动作数有上限，超过时分成多个请求
+    @Test
+    public void splitsLargeBatches() throws Exception {
+        TaskList list = newList("Work");
+        mClient.createTaskList(list);
+        int count = GTaskClient.DEFAULT_MAX_BATCH_ACTIONS * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            mClient.addCreateNode(newTask(list, "task " + i), null);
+        }
+        mClient.commitUpdate();
+
+        int before = mServer.getActionRequestCount();
+        for (Task task : list.getChildTaskList()) {
+            task.setName(task.getName() + " renamed");
+            mClient.addUpdateNode(task);
+        }
+        mClient.commitUpdate();
+
+        assertEquals(3, mServer.getActionRequestCount() - before);
+        List<GTaskStubServer.StubTask> tasks = mServer.getTasks(mServer.findList(list.getName()));
+        assertEquals(count, tasks.size());
+        assertEquals("task " + (count - 1) + " renamed", tasks.get(count - 1).name);
+    }
+
+    // 下载一个很大的任务列表，处理器逐个丢弃任务，解析期间保留的内存应远小于响应的大小
+    @Test
+    public void streamsLargeListInBoundedMemory() throws Exception {
+        GTaskStubServer.StubList list = mServer.addGeneratedList("Large", LARGE_LIST_TASKS,
+                LARGE_LIST_NOTES_LENGTH);
+        final long baseline = usedHeapAfterGc();
+        final long[] retained = new long[1];
+        final int[] count = new int[1];
+        mClient.fetchTaskList(list.gid, new GTaskClient.JSONObjectHandler() {
+            public void handle(JSONObject js) {
+                if (++count[0] % (LARGE_LIST_TASKS / 5) == 0) {
+                    retained[0] = Math.max(retained[0], usedHeapAfterGc() - baseline);
+                }
+            }
+        });
+        long responseBytes = mServer.getGeneratedBytes();
+        System.out.println(String.format("streamed %d tasks: response %d bytes, %d bytes on the wire, "
+                        + "at most %d bytes retained while parsing",
+                count[0], responseBytes, mClient.getReceivedBytes(), retained[0]));
+        assertEquals(LARGE_LIST_TASKS, count[0]);
+        assertTrue(retained[0] < responseBytes / 8);
+    }
+
+    // 服务器线程压缩数据时处于JNI临界区，System.gc()可能被跳过，重试直到确实执行了一次回收
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long collections = gcCount();
+        for (int i = 0; i < 100; i++) {
+            System.gc();
+            if (gcCount() > collections) {
+                break;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本地HTTP服务器上测试重试、压缩和熔断。
+ */
+public class GTaskHttpClientTest {
+
+    // 服务器按请求序号决定返回的状态码，返回0时正常响应
+    private interface Fault {
+        int status(int request, HttpExchange exchange);
+    }
+
+    private HttpServer mServer;
+    private String mUrl;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private volatile Fault mFault;
+    private volatile String mLastBody;
+    private GTaskHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int request = mRequests.incrementAndGet();
+                mLastBody = readBody(exchange);
+                int status = mFault == null ? 0 : mFault.status(request, exchange);
+                byte[] response = ("ok " + request).getBytes("UTF-8");
+                if (status != 0) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, response.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(response);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+        mClient = new GTaskHttpClient(4);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private HttpPost post(String body) throws IOException {
+        HttpPost post = new HttpPost(mUrl);
+        post.setEntity(new StringEntity(body, "UTF-8"));
+        return post;
+    }
+
+    private static final GTaskHttpClient.ResponseReader<String> STRING_READER =
+            new GTaskHttpClient.ResponseReader<String>() {
+                @Override
+                public String read(HttpEntity entity) throws IOException {
+                    return EntityUtils.toString(entity);
+                }
+            };
+
+    // 每十个请求失败一个，非幂等的动作列表在服务器返回503后同样重试，全部请求最终成功
+    @Test
+    public void survivesTenPercentFailures() throws Exception {
+        mFault = new Fault() {
+            public int status(int request, HttpExchange exchange) {
+                return request % 10 == 0 ? 503 : 0;
+            }
+        };
+        int count = 100;
+        for (int i = 0; i < count; i++) {
+            String result = mClient.execute(post("action " + i), false, STRING_READER);
+            assertEquals(true, result.startsWith("ok "));
+        }
+        int failures = mRequests.get() - count;
+        assertEquals(true, failures >= count / 10);
+    }
+
+    @Test
+    public void largeBodiesAreGzipped() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            body.append("content ").append(i).append(' ');
+        }
+        final AtomicInteger gzipped = new AtomicInteger();
+        mFault = new Fault() {
+            public int status(int request, HttpExchange exchange) {
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    gzipped.incrementAndGet();
+                }
+                return 0;
+            }
+        };
+        HttpPost post = post(body.toString());
+        long plainLength = post.getEntity().getContentLength();
+        mClient.execute(post, true, STRING_READER);
+        assertEquals(1, gzipped.get());
+        assertEquals(body.toString(), mLastBody);
+        assertEquals(true, mClient.getSentBytes() < plainLength);
+    }
+
+    // 服务器以415拒绝压缩的请求体后，非幂等请求不自动重新发送，之后的请求不再压缩
+    @Test
+    public void rejectedGzipIsNotReplayedForActionLists() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            body.append("action ").append(i).append(' ');
+        }
+        mFault = new Fault() {
+            public int status(int request, HttpExchange exchange) {
+                return "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                        ? 415 : 0;
+            }
+        };
+        try {
+            mClient.execute(post(body.toString()), false, STRING_READER);
+            fail("non-idempotent request must not be replayed");
+        } catch (IOException e) {
+            // 预期的失败
+        }
+        assertEquals(1, mRequests.get());
+
+        assertEquals("ok 2", mClient.execute(post(body.toString()), false, STRING_READER));
+        assertEquals(body.toString(), mLastBody);
+    }
+
+    @Test
+    public void rejectedGzipIsResentForIdempotentRequests() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            body.append("query ").append(i).append(' ');
+        }
+        mFault = new Fault() {
+            public int status(int request, HttpExchange exchange) {
+                return "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                        ? 415 : 0;
+            }
+        };
+        assertEquals("ok 2", mClient.execute(post(body.toString()), true, STRING_READER));
+        assertEquals(body.toString(), mLastBody);
+    }
+
+    // 熔断后的试探请求因响应内容无法解析而失败时，熔断器仍然恢复，之后的请求可以正常执行
+    @Test
+    public void trialFailureDoesNotKeepCircuitOpen() throws Exception {
+        mClient.setCircuitOpenTime(50);
+        mFault = new Fault() {
+            public int status(int request, HttpExchange exchange) {
+                return request <= 5 ? 500 : 0;
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            try {
+                mClient.execute(post("create"), false, STRING_READER);
+                fail("server error expected");
+            } catch (IOException e) {
+                // 非幂等请求遇到500不重试
+            }
+        }
+        try {
+            mClient.execute(post("create"), false, STRING_READER);
+            fail("circuit should be open");
+        } catch (GTaskHttpClient.CircuitOpenException e) {
+            // 熔断期间立即失败
+        }
+
+        Thread.sleep(100);
+        try {
+            mClient.execute(post("trial"), true, new GTaskHttpClient.ResponseReader<String>() {
+                @Override
+                public String read(HttpEntity entity) throws IOException, JSONException {
+                    EntityUtils.consume(entity);
+                    throw new JSONException("unexpected response");
+                }
+            });
+            fail("reader failure expected");
+        } catch (JSONException e) {
+            // 试探请求已经得到响应
+        }
+        assertEquals("ok 7", mClient.execute(post("after"), true, STRING_READER));
+    }
+}
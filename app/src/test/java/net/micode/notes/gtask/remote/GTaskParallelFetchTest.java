@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在桩服务器上测试同步时并行下载任务列表：下载请求同时进行，结果与逐个下载相同。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GTaskParallelFetchTest {
+    private static final int FOLDER_COUNT = 8;
+    private static final int NOTES_PER_FOLDER = 5;
+
+    // 每个下载请求的模拟往返时间
+    private static final long GET_ALL_DELAY = 200;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private GTaskStubServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(NotesProvider.class, Notes.AUTHORITY);
+        mResolver = mContext.getContentResolver();
+        GTaskClientTest.setUpAccount(mContext);
+        mServer = new GTaskStubServer();
+        mServer.start();
+        GTaskClient.getInstance().setServerUrl(mServer.getUrl());
+
+        for (int i = 0; i < FOLDER_COUNT; i++) {
+            ContentValues folder = new ContentValues();
+            folder.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+            folder.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+            folder.put(NoteColumns.SNIPPET, "folder " + i);
+            folder.put(NoteColumns.LOCAL_MODIFIED, 1);
+            long folderId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, folder));
+            for (int j = 0; j < NOTES_PER_FOLDER; j++) {
+                ContentValues note = new ContentValues();
+                note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+                note.put(NoteColumns.PARENT_ID, folderId);
+                note.put(NoteColumns.LOCAL_MODIFIED, 1);
+                long noteId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, note));
+                ContentValues data = new ContentValues();
+                data.put(DataColumns.NOTE_ID, noteId);
+                data.put(DataColumns.MIME_TYPE, Notes.TextNote.CONTENT_ITEM_TYPE);
+                data.put(DataColumns.CONTENT, "note " + i + "." + j);
+                mResolver.insert(Notes.CONTENT_DATA_URI, data);
+            }
+        }
+        // 首次同步把本地笔记上传到服务器
+        assertEquals(GTaskManager.STATE_SUCCESS, sync(GTaskManager.DEFAULT_FETCH_PARALLELISM));
+    }
+
+    @After
+    public void tearDown() {
+        GTaskManager.getInstance().setFetchParallelism(GTaskManager.DEFAULT_FETCH_PARALLELISM);
+        GTaskClient.getInstance().setServerUrl(null);
+        mServer.stop();
+    }
+
+    @Test
+    public void fetchesListsConcurrently() {
+        mServer.setGetAllDelay(GET_ALL_DELAY);
+
+        mServer.takeMaxConcurrentGetAll();
+        long start = System.nanoTime();
+        assertEquals(GTaskManager.STATE_SUCCESS, sync(1));
+        long serialTime = (System.nanoTime() - start) / 1000000;
+        assertEquals(1, mServer.takeMaxConcurrentGetAll());
+        assertLocalNotesUnchanged();
+
+        start = System.nanoTime();
+        assertEquals(GTaskManager.STATE_SUCCESS, sync(4));
+        long parallelTime = (System.nanoTime() - start) / 1000000;
+        int concurrent = mServer.takeMaxConcurrentGetAll();
+        assertLocalNotesUnchanged();
+
+        System.out.println(String.format("full sync of %d lists with %d ms per download: "
+                        + "serial %d ms, 4 parallel %d ms (at most %d at once)",
+                FOLDER_COUNT + 1, GET_ALL_DELAY, serialTime, parallelTime, concurrent));
+        assertEquals(4, concurrent);
+        assertTrue(parallelTime < serialTime);
+    }
+
+    private int sync(int parallelism) {
+        GTaskManager manager = GTaskManager.getInstance();
+        manager.setFetchParallelism(parallelism);
+        // 完整同步下载所有任务列表
+        manager.requestFullSync();
+        return manager.sync(mContext, new GTaskASyncTask(mContext, null));
+    }
+
+    // 下载的结果与本地一致，同步不会新建或删除笔记，也不会再上传
+    private void assertLocalNotesUnchanged() {
+        assertEquals(FOLDER_COUNT, count(NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER));
+        assertEquals(FOLDER_COUNT * NOTES_PER_FOLDER, count(NoteColumns.TYPE + "=" + Notes.TYPE_NOTE));
+        assertEquals(0, count(NoteColumns.LOCAL_MODIFIED + "=1 AND " + NoteColumns.TYPE + "<>"
+                + Notes.TYPE_SYSTEM));
+        int remote = 0;
+        for (GTaskStubServer.StubList list : mServer.getLists()) {
+            remote += mServer.getTasks(list).size();
+        }
+        // 每条笔记一个任务，元数据列表中每条笔记还有一个元数据任务
+        assertEquals(2 * FOLDER_COUNT * NOTES_PER_FOLDER, remote);
+    }
+
+    private int count(String selection) {
+        Cursor c = mResolver.query(Notes.CONTENT_NOTE_URI, new String[]{NoteColumns.ID},
+                selection, null, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
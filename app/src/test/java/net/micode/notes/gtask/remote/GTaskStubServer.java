@@ -0,0 +1,628 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 在本机端口上模拟Google任务服务的桩服务器，实现GTaskClient使用的协议：
+ * 登录页面"ig"返回包含"_setup("对象的页面，动作请求"r/ig"处理create、update、move和get_all动作。
+ * 任务列表和任务只保存在内存中，用于测试同步流程和测量同步的请求数与流量。
+ */
+public class GTaskStubServer {
+    // 登录页面返回的客户端版本
+    private static final long CLIENT_VERSION = 20120101;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    // 按创建顺序排列的任务列表
+    private final ArrayList<StubList> mLists = new ArrayList<StubList>();
+    private final HashMap<String, StubList> mListsByGid = new HashMap<String, StubList>();
+    private final HashMap<String, StubTask> mTasksByGid = new HashMap<String, StubTask>();
+
+    // 分配gid和修改时间的计数器，修改时间严格递增
+    private int mNextId = 1;
+    private long mClock = 1000000;
+
+    private final AtomicInteger mPageRequests = new AtomicInteger();
+    private final AtomicInteger mActionRequests = new AtomicInteger();
+    private final AtomicInteger mActions = new AtomicInteger();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mGeneratedBytes = new AtomicLong();
+
+    // 下载任务列表请求的模拟延迟，以及同时处理中的下载请求数
+    private volatile long mGetAllDelay;
+    private final AtomicInteger mConcurrentGetAll = new AtomicInteger();
+    private final AtomicInteger mMaxConcurrentGetAll = new AtomicInteger();
+
+    // 服务器上的任务列表
+    public static class StubList {
+        public final String gid;
+        public String name;
+        public long lastModified;
+        public boolean deleted;
+        public final ArrayList<StubTask> tasks = new ArrayList<StubTask>();
+        // 生成的列表不保存任务，下载时按数量和备注长度边生成边发送
+        public int generatedTasks;
+        public int generatedNotesLength;
+
+        StubList(String gid) {
+            this.gid = gid;
+        }
+    }
+
+    // 服务器上的任务
+    public static class StubTask {
+        public final String gid;
+        public String name;
+        public String notes;
+        public boolean deleted;
+        public boolean completed;
+        public long lastModified;
+        public StubList list;
+
+        StubTask(String gid) {
+            this.gid = gid;
+        }
+    }
+
+    /**
+     * 在随机端口上启动服务器。
+     */
+    public void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/ig", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                mPageRequests.incrementAndGet();
+                readBody(exchange);
+                exchange.getResponseHeaders().add("Set-Cookie", "GTL=stub; Path=/");
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+                send(exchange, "<html><head><title>Tasks</title></head><body>"
+                        + "<script>_setup(" + setupObject() + ")</script></body></html>");
+            }
+        });
+        mServer.createContext("/r/ig", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                mActionRequests.incrementAndGet();
+                String body = readBody(exchange);
+                String response;
+                try {
+                    JSONObject request = new JSONObject(formValue(body, "r"));
+                    StubList generated = findGeneratedList(request);
+                    if (generated != null) {
+                        sendGeneratedList(exchange, request, generated);
+                        return;
+                    }
+                    if (isGetAll(request)) {
+                        response = handleGetAll(request).toString();
+                    } else {
+                        response = handleActions(request).toString();
+                    }
+                } catch (JSONException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+                send(exchange, response);
+            }
+        });
+        // 并发下载任务列表时多个请求同时到达
+        mExecutor = Executors.newFixedThreadPool(GTaskClient.MAX_CONNECTIONS_PER_ROUTE);
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /**
+     * 停止服务器。
+     */
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取服务地址，传给{@link GTaskClient#setServerUrl}。
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+    }
+
+    public int getPageRequestCount() {
+        return mPageRequests.get();
+    }
+
+    public int getActionRequestCount() {
+        return mActionRequests.get();
+    }
+
+    public int getActionCount() {
+        return mActions.get();
+    }
+
+    public long getReceivedBytes() {
+        return mReceivedBytes.get();
+    }
+
+    /**
+     * 设置每个下载任务列表请求的延迟，模拟网络往返时间。
+     */
+    public void setGetAllDelay(long delayMillis) {
+        mGetAllDelay = delayMillis;
+    }
+
+    /**
+     * 获取同时处理中的下载任务列表请求数的最大值，并重新开始统计。
+     */
+    public int takeMaxConcurrentGetAll() {
+        return mMaxConcurrentGetAll.getAndSet(0);
+    }
+
+    /**
+     * 生成的列表在压缩前的响应字节数之和。
+     */
+    public long getGeneratedBytes() {
+        return mGeneratedBytes.get();
+    }
+
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    /**
+     * 按名称查找未删除的任务列表，不存在时返回null。
+     */
+    public synchronized StubList findList(String name) {
+        for (StubList list : mLists) {
+            if (!list.deleted && name.equals(list.name)) {
+                return list;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取任务列表中未删除的任务，按列表中的顺序排列。
+     */
+    public synchronized List<StubTask> getTasks(StubList list) {
+        ArrayList<StubTask> tasks = new ArrayList<StubTask>();
+        for (StubTask task : list.tasks) {
+            if (!task.deleted) {
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * 获取所有未删除的任务列表。
+     */
+    /**
+     * 添加一个生成的任务列表。列表中的任务不保存在服务器上，下载时边生成边发送，
+     * 服务器的内存占用与列表大小无关，用于测试客户端在大列表上的内存占用。
+     */
+    public synchronized StubList addGeneratedList(String name, int taskCount, int notesLength) {
+        StubList list = new StubList("stub." + (mNextId++));
+        list.name = name;
+        list.lastModified = ++mClock;
+        list.generatedTasks = taskCount;
+        list.generatedNotesLength = notesLength;
+        mLists.add(list);
+        mListsByGid.put(list.gid, list);
+        return list;
+    }
+
+    public synchronized List<StubList> getLists() {
+        ArrayList<StubList> lists = new ArrayList<StubList>();
+        for (StubList list : mLists) {
+            if (!list.deleted) {
+                lists.add(list);
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * 获取任务，不存在时返回null。
+     */
+    public synchronized StubTask getTask(String gid) {
+        return mTasksByGid.get(gid);
+    }
+
+    /**
+     * 模拟其他客户端在服务器上修改任务。
+     */
+    public synchronized void editTask(String gid, String name, String notes) {
+        StubTask task = mTasksByGid.get(gid);
+        task.name = name;
+        task.notes = notes;
+        touch(task);
+    }
+
+    private synchronized String setupObject() {
+        try {
+            JSONArray lists = new JSONArray();
+            for (StubList list : mLists) {
+                if (!list.deleted) {
+                    JSONObject js = new JSONObject();
+                    js.put(GTaskStringUtils.GTASK_JSON_ID, list.gid);
+                    js.put(GTaskStringUtils.GTASK_JSON_NAME, list.name);
+                    js.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, list.lastModified);
+                    lists.put(js);
+                }
+            }
+            JSONObject t = new JSONObject();
+            t.put(GTaskStringUtils.GTASK_JSON_LISTS, lists);
+            JSONObject setup = new JSONObject();
+            setup.put("v", CLIENT_VERSION);
+            setup.put("t", t);
+            return setup.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized JSONObject handleActions(JSONObject request) throws JSONException {
+        JSONArray actions = request.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST);
+        JSONArray results = new JSONArray();
+        JSONArray tasks = null;
+        for (int i = 0; i < actions.length(); i++) {
+            mActions.incrementAndGet();
+            JSONObject action = actions.getJSONObject(i);
+            String type = action.getString(GTaskStringUtils.GTASK_JSON_ACTION_TYPE);
+            JSONObject result = new JSONObject();
+            result.put(GTaskStringUtils.GTASK_JSON_ACTION_ID,
+                    action.getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID));
+            if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE.equals(type)) {
+                String gid = create(action);
+                result.put(GTaskStringUtils.GTASK_JSON_NEW_ID, gid);
+                result.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, lastModified(gid));
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE.equals(type)) {
+                String gid = action.getString(GTaskStringUtils.GTASK_JSON_ID);
+                update(gid, action.getJSONObject(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA));
+                result.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, lastModified(gid));
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE.equals(type)) {
+                String gid = action.getString(GTaskStringUtils.GTASK_JSON_ID);
+                move(action);
+                result.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, lastModified(gid));
+            } else if (GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL.equals(type)) {
+                tasks = getAll(action.getString(GTaskStringUtils.GTASK_JSON_LIST_ID),
+                        action.optBoolean(GTaskStringUtils.GTASK_JSON_GET_DELETED));
+            } else {
+                throw new JSONException("unknown action type " + type);
+            }
+            results.put(result);
+        }
+        JSONObject response = new JSONObject();
+        response.put(GTaskStringUtils.GTASK_JSON_RESULTS, results);
+        if (tasks != null) {
+            response.put(GTaskStringUtils.GTASK_JSON_TASKS, tasks);
+        }
+        response.put(GTaskStringUtils.GTASK_JSON_LATEST_SYNC_POINT, mClock);
+        return response;
+    }
+
+    private String create(JSONObject action) throws JSONException {
+        JSONObject entity = action.getJSONObject(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        String gid = "stub." + (mNextId++);
+        if (GTaskStringUtils.GTASK_JSON_TYPE_GROUP.equals(
+                entity.getString(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE))) {
+            StubList list = new StubList(gid);
+            list.name = entity.getString(GTaskStringUtils.GTASK_JSON_NAME);
+            list.lastModified = ++mClock;
+            mLists.add(list);
+            mListsByGid.put(gid, list);
+            return gid;
+        }
+
+        StubList list = requireList(action.getString(GTaskStringUtils.GTASK_JSON_LIST_ID));
+        StubTask task = new StubTask(gid);
+        task.name = entity.getString(GTaskStringUtils.GTASK_JSON_NAME);
+        task.notes = entity.has(GTaskStringUtils.GTASK_JSON_NOTES)
+                ? entity.getString(GTaskStringUtils.GTASK_JSON_NOTES) : null;
+        mTasksByGid.put(gid, task);
+        insert(list, task, action.optString(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, null));
+        touch(task);
+        return gid;
+    }
+
+    private void update(String gid, JSONObject entity) throws JSONException {
+        StubList list = mListsByGid.get(gid);
+        if (list != null) {
+            if (entity.has(GTaskStringUtils.GTASK_JSON_NAME)) {
+                list.name = entity.getString(GTaskStringUtils.GTASK_JSON_NAME);
+            }
+            if (entity.has(GTaskStringUtils.GTASK_JSON_DELETED)) {
+                list.deleted = entity.getBoolean(GTaskStringUtils.GTASK_JSON_DELETED);
+            }
+            list.lastModified = ++mClock;
+            return;
+        }
+
+        StubTask task = requireTask(gid);
+        if (entity.has(GTaskStringUtils.GTASK_JSON_NAME)) {
+            task.name = entity.getString(GTaskStringUtils.GTASK_JSON_NAME);
+        }
+        if (entity.has(GTaskStringUtils.GTASK_JSON_NOTES)) {
+            task.notes = entity.getString(GTaskStringUtils.GTASK_JSON_NOTES);
+        }
+        if (entity.has(GTaskStringUtils.GTASK_JSON_DELETED)) {
+            task.deleted = entity.getBoolean(GTaskStringUtils.GTASK_JSON_DELETED);
+        }
+        if (entity.has(GTaskStringUtils.GTASK_JSON_COMPLETED)) {
+            task.completed = entity.getBoolean(GTaskStringUtils.GTASK_JSON_COMPLETED);
+        }
+        touch(task);
+    }
+
+    private void move(JSONObject action) throws JSONException {
+        StubTask task = requireTask(action.getString(GTaskStringUtils.GTASK_JSON_ID));
+        StubList source = requireList(action.getString(GTaskStringUtils.GTASK_JSON_SOURCE_LIST));
+        StubList dest = action.has(GTaskStringUtils.GTASK_JSON_DEST_LIST)
+                ? requireList(action.getString(GTaskStringUtils.GTASK_JSON_DEST_LIST)) : source;
+        source.tasks.remove(task);
+        source.lastModified = ++mClock;
+        insert(dest, task, action.optString(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, null));
+        touch(task);
+    }
+
+    private JSONArray getAll(String listGid, boolean withDeleted) throws JSONException {
+        JSONArray tasks = new JSONArray();
+        for (StubTask task : requireList(listGid).tasks) {
+            if (task.deleted && !withDeleted) {
+                continue;
+            }
+            JSONObject js = new JSONObject();
+            js.put(GTaskStringUtils.GTASK_JSON_ID, task.gid);
+            js.put(GTaskStringUtils.GTASK_JSON_NAME, task.name);
+            if (task.notes != null) {
+                js.put(GTaskStringUtils.GTASK_JSON_NOTES, task.notes);
+            }
+            js.put(GTaskStringUtils.GTASK_JSON_DELETED, task.deleted);
+            js.put(GTaskStringUtils.GTASK_JSON_COMPLETED, task.completed);
+            js.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, task.lastModified);
+            js.put(GTaskStringUtils.GTASK_JSON_LIST_ID, listGid);
+            js.put(GTaskStringUtils.GTASK_JSON_TYPE, GTaskStringUtils.GTASK_JSON_TYPE_TASK);
+            tasks.put(js);
+        }
+        return tasks;
+    }
+
+    // 插入到前一个兄弟任务之后，没有前一个兄弟任务时插入到列表开头
+    private void insert(StubList list, StubTask task, String priorSiblingGid) throws JSONException {
+        int index = 0;
+        if (priorSiblingGid != null) {
+            index = list.tasks.indexOf(requireTask(priorSiblingGid)) + 1;
+            if (index == 0) {
+                throw new JSONException("prior sibling " + priorSiblingGid + " is not in list");
+            }
+        }
+        list.tasks.add(index, task);
+        task.list = list;
+    }
+
+    // 任务修改后更新任务和所在列表的修改时间
+    private void touch(StubTask task) {
+        task.lastModified = ++mClock;
+        task.list.lastModified = task.lastModified;
+    }
+
+    private long lastModified(String gid) {
+        StubList list = mListsByGid.get(gid);
+        return list != null ? list.lastModified : mTasksByGid.get(gid).lastModified;
+    }
+
+    private StubList requireList(String gid) throws JSONException {
+        StubList list = mListsByGid.get(gid);
+        if (list == null) {
+            throw new JSONException("no list " + gid);
+        }
+        return list;
+    }
+
+    private StubTask requireTask(String gid) throws JSONException {
+        StubTask task = mTasksByGid.get(gid);
+        if (task == null) {
+            throw new JSONException("no task " + gid);
+        }
+        return task;
+    }
+
+    private String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            raw.write(buffer, 0, n);
+        }
+        mReceivedBytes.addAndGet(raw.size());
+        byte[] bytes = raw.toByteArray();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes));
+            raw.reset();
+            while ((n = gzip.read(buffer)) > 0) {
+                raw.write(buffer, 0, n);
+            }
+            bytes = raw.toByteArray();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String formValue(String body, String name) throws IOException {
+        for (String pair : body.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return "{}";
+    }
+
+    private static boolean isGetAll(JSONObject request) throws JSONException {
+        JSONArray actions = request.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST);
+        return actions.length() == 1 && GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL.equals(
+                actions.getJSONObject(0).getString(GTaskStringUtils.GTASK_JSON_ACTION_TYPE));
+    }
+
+    // 延迟在锁外等待，并发的下载请求可以同时等待
+    private JSONObject handleGetAll(JSONObject request) throws JSONException {
+        int concurrent = mConcurrentGetAll.incrementAndGet();
+        try {
+            int max;
+            while (concurrent > (max = mMaxConcurrentGetAll.get())
+                    && !mMaxConcurrentGetAll.compareAndSet(max, concurrent)) {
+                // 重试直到记录下最大值
+            }
+            if (mGetAllDelay > 0) {
+                try {
+                    Thread.sleep(mGetAllDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return handleActions(request);
+        } finally {
+            mConcurrentGetAll.decrementAndGet();
+        }
+    }
+
+    // 只包含一个get_all动作且目标是生成的列表时返回该列表
+    private synchronized StubList findGeneratedList(JSONObject request) throws JSONException {
+        if (!isGetAll(request)) {
+            return null;
+        }
+        JSONObject action = request.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST)
+                .getJSONObject(0);
+        StubList list = mListsByGid.get(action.getString(GTaskStringUtils.GTASK_JSON_LIST_ID));
+        return list != null && list.generatedTasks > 0 ? list : null;
+    }
+
+    // 以分块传输发送生成的列表，每个任务生成后立即写出
+    private void sendGeneratedList(HttpExchange exchange, JSONObject request, StubList list)
+            throws IOException, JSONException {
+        mActions.incrementAndGet();
+        JSONObject action = request.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST)
+                .getJSONObject(0);
+        StringBuilder notes = new StringBuilder(list.generatedNotesLength);
+        while (notes.length() < list.generatedNotesLength) {
+            notes.append("generated note text ");
+        }
+        notes.setLength(list.generatedNotesLength);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = accept != null && accept.contains("gzip");
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = new FilterOutputStream(exchange.getResponseBody()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                mSentBytes.addAndGet(len);
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                mSentBytes.incrementAndGet();
+                out.write(b);
+            }
+        };
+        if (gzip) {
+            out = new GZIPOutputStream(out, 8192);
+        }
+        Writer writer = new OutputStreamWriter(new BufferedOutputStream(out, 8192), "UTF-8");
+        StringBuilder head = new StringBuilder();
+        head.append("{\"").append(GTaskStringUtils.GTASK_JSON_RESULTS).append("\":[{\"")
+                .append(GTaskStringUtils.GTASK_JSON_ACTION_ID).append("\":")
+                .append(action.getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID)).append("}],\"")
+                .append(GTaskStringUtils.GTASK_JSON_TASKS).append("\":[");
+        writeGenerated(writer, head.toString());
+        for (int i = 0; i < list.generatedTasks; i++) {
+            JSONObject js = new JSONObject();
+            js.put(GTaskStringUtils.GTASK_JSON_ID, list.gid + ".task" + i);
+            js.put(GTaskStringUtils.GTASK_JSON_NAME, "generated task " + i);
+            js.put(GTaskStringUtils.GTASK_JSON_NOTES, notes.toString());
+            js.put(GTaskStringUtils.GTASK_JSON_DELETED, false);
+            js.put(GTaskStringUtils.GTASK_JSON_COMPLETED, false);
+            js.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, list.lastModified);
+            js.put(GTaskStringUtils.GTASK_JSON_LIST_ID, list.gid);
+            js.put(GTaskStringUtils.GTASK_JSON_TYPE, GTaskStringUtils.GTASK_JSON_TYPE_TASK);
+            writeGenerated(writer, (i > 0 ? "," : "") + js.toString());
+        }
+        writeGenerated(writer, "],\"" + GTaskStringUtils.GTASK_JSON_LATEST_SYNC_POINT + "\":"
+                + list.lastModified + "}");
+        writer.close();
+    }
+
+    private void writeGenerated(Writer writer, String content) throws IOException {
+        mGeneratedBytes.addAndGet(content.getBytes("UTF-8").length);
+        writer.write(content);
+    }
+
+    // 客户端接受gzip时压缩响应，与Google服务器的行为一致
+    private void send(HttpExchange exchange, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(bytes);
+            gzip.close();
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        mSentBytes.addAndGet(bytes.length);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesProvider;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 在桩服务器上对合成账户执行完整的同步流程，报告每次同步的耗时、请求数、流量和堆内存峰值。
+ * 账户大小默认为100、1000和10000条笔记，可以用系统属性gtask.benchmark.sizes指定，以逗号分隔。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GTaskSyncBenchmarkTest {
+    private static final String TAG = "GTaskSyncBenchmark";
+
+    // 合成账户中的文件夹数，笔记平均分布在各文件夹中
+    private static final int FOLDER_COUNT = 10;
+
+    private static final String DEFAULT_SIZES = "100,1000,10000";
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private GTaskStubServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(NotesProvider.class, Notes.AUTHORITY);
+        mResolver = mContext.getContentResolver();
+        GTaskClientTest.setUpAccount(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        GTaskClient.getInstance().setServerUrl(null);
+        if (mServer != null) {
+            mServer.stop();
+        }
+    }
+
+    @Test
+    public void syncSyntheticAccounts() throws Exception {
+        String[] sizes = System.getProperty("gtask.benchmark.sizes", DEFAULT_SIZES).split(",");
+        for (String size : sizes) {
+            runAccount(Integer.parseInt(size.trim()));
+        }
+    }
+
+    private void runAccount(int noteCount) throws Exception {
+        clearNotes();
+        if (mServer != null) {
+            mServer.stop();
+        }
+        mServer = new GTaskStubServer();
+        mServer.start();
+        GTaskClient.getInstance().setServerUrl(mServer.getUrl());
+        GTaskManager.getInstance().requestFullSync();
+
+        long[] folderIds = createFolders();
+        ArrayList<Long> noteIds = createNotes(folderIds, noteCount);
+
+        // 首次同步上传所有笔记
+        report(noteCount, "initial upload", sync());
+        assertEquals(noteCount, countRemoteNotes());
+
+        // 没有变化时的增量同步
+        report(noteCount, "no changes", sync());
+
+        // 修改十分之一的笔记后同步
+        int edited = 0;
+        for (int i = 0; i < noteIds.size(); i += 10) {
+            editNote(noteIds.get(i), "edited note " + i);
+            edited++;
+        }
+        report(noteCount, "edit " + edited + " notes", sync());
+        assertEquals(edited, countRemoteNotesStartingWith("edited note "));
+        assertEquals(noteCount, countRemoteNotes());
+    }
+
+    // 一次同步的测量结果
+    private static class Measurement {
+        long wallTime;
+        int requests;
+        long sentBytes;
+        long receivedBytes;
+        long peakHeap;
+    }
+
+    private Measurement sync() {
+        GTaskClient client = GTaskClient.getInstance();
+        int requests = client.getRequestCount();
+        long sent = client.getSentBytes();
+        long received = client.getReceivedBytes();
+        int pageRequests = mServer.getPageRequestCount();
+
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        int state = GTaskManager.getInstance().sync(mContext, new GTaskASyncTask(mContext, null));
+        long wallTime = System.nanoTime() - start;
+        assertEquals(GTaskManager.STATE_SUCCESS, state);
+
+        Measurement m = new Measurement();
+        m.wallTime = wallTime / 1000000;
+        m.requests = client.getRequestCount() - requests
+                + mServer.getPageRequestCount() - pageRequests;
+        m.sentBytes = client.getSentBytes() - sent;
+        m.receivedBytes = client.getReceivedBytes() - received;
+        m.peakHeap = peakHeap();
+        return m;
+    }
+
+    private static void report(int noteCount, String phase, Measurement m) {
+        String line = String.format("%6d notes, %-16s %7d ms %7d requests %10d bytes sent %10d bytes received %6d MB peak heap",
+                noteCount, phase + ":", m.wallTime, m.requests, m.sentBytes, m.receivedBytes,
+                m.peakHeap / (1024 * 1024));
+        Log.i(TAG, line);
+        System.out.println(line);
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // 各堆内存池峰值之和，是整个堆峰值的上界
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private void clearNotes() {
+        mResolver.delete(Notes.CONTENT_DATA_URI, null, null);
+        mResolver.delete(Notes.CONTENT_NOTE_URI, NoteColumns.ID + ">0", null);
+    }
+
+    private long[] createFolders() {
+        long[] ids = new long[FOLDER_COUNT];
+        for (int i = 0; i < FOLDER_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+            values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+            values.put(NoteColumns.SNIPPET, "folder " + i);
+            values.put(NoteColumns.LOCAL_MODIFIED, 1);
+            ids[i] = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+        }
+        return ids;
+    }
+
+    // 笔记和数据在一个批量操作中插入，笔记内容约为一段短文本
+    private ArrayList<Long> createNotes(long[] folderIds, int count) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < count; i++) {
+            int noteIndex = operations.size();
+            operations.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                    .withValue(NoteColumns.TYPE, Notes.TYPE_NOTE)
+                    .withValue(NoteColumns.PARENT_ID, folderIds[i % folderIds.length])
+                    .withValue(NoteColumns.LOCAL_MODIFIED, 1)
+                    .build());
+            operations.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                    .withValueBackReference(DataColumns.NOTE_ID, noteIndex)
+                    .withValue(DataColumns.MIME_TYPE, Notes.TextNote.CONTENT_ITEM_TYPE)
+                    .withValue(DataColumns.CONTENT, "note " + i
+                            + " <p>shopping list, meeting notes and a reminder for tomorrow</p>")
+                    .build());
+        }
+        mResolver.applyBatch(Notes.AUTHORITY, operations);
+
+        ArrayList<Long> ids = new ArrayList<Long>();
+        Cursor c = mResolver.query(Notes.CONTENT_NOTE_URI, new String[]{NoteColumns.ID},
+                NoteColumns.TYPE + "=" + Notes.TYPE_NOTE, null, NoteColumns.ID);
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return ids;
+    }
+
+    private void editNote(long noteId, String content) {
+        ContentValues data = new ContentValues();
+        data.put(DataColumns.CONTENT, content);
+        mResolver.update(Notes.CONTENT_DATA_URI, data, DataColumns.NOTE_ID + "=?",
+                new String[]{String.valueOf(noteId)});
+        ContentValues note = new ContentValues();
+        note.put(NoteColumns.LOCAL_MODIFIED, 1);
+        note.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+        mResolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), note, null, null);
+    }
+
+    // 服务器上除元数据列表外的任务数
+    private int countRemoteNotes() {
+        return countRemoteNotesStartingWith("");
+    }
+
+    private int countRemoteNotesStartingWith(String prefix) {
+        int count = 0;
+        for (GTaskStubServer.StubList list : mServer.getLists()) {
+            if (list.name.equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_META)) {
+                continue;
+            }
+            for (GTaskStubServer.StubTask task : mServer.getTasks(list)) {
+                if (task.name.startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
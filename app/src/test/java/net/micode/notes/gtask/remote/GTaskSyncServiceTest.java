@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.Context;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.NotesProvider;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 测试JobScheduler触发的同步与GTaskSyncService共用同步状态：
+ * 执行期间isSyncing()为真，不会再启动其它同步，并且可以通过cancelSync()取消。
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GTaskSyncServiceTest {
+    // 下载任务列表的模拟往返时间，保证取消时同步仍在执行
+    private static final long GET_ALL_DELAY = 1000;
+
+    private static final long TIMEOUT = 30000;
+
+    private Context mContext;
+    private GTaskStubServer mServer;
+    private boolean mCompleted;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(NotesProvider.class, Notes.AUTHORITY);
+        GTaskClientTest.setUpAccount(mContext);
+        mServer = new GTaskStubServer();
+        mServer.start();
+        mServer.addGeneratedList(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "list", 10, 10);
+        mServer.setGetAllDelay(GET_ALL_DELAY);
+        GTaskClient.getInstance().setServerUrl(mServer.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        GTaskClient.getInstance().setServerUrl(null);
+        mServer.stop();
+    }
+
+    @Test
+    public void jobSyncSharesStateWithService() throws Exception {
+        final GTaskASyncTask task = GTaskSyncService.startJobSync(mContext,
+                new GTaskASyncTask.OnCompleteListener() {
+                    public void onComplete() {
+                        mCompleted = true;
+                    }
+                });
+        assertNotNull(task);
+        assertTrue(GTaskSyncService.isSyncing());
+        // 同步执行期间不会再启动另一个同步
+        assertNull(GTaskSyncService.startJobSync(mContext, null));
+
+        // 等到同步开始请求服务器后再取消
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (mServer.getActionRequestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        GTaskSyncService.cancelSync(mContext);
+        while (!mCompleted && System.currentTimeMillis() < deadline) {
+            ShadowLooper.idleMainLooper();
+            Thread.sleep(50);
+        }
+
+        assertTrue(mCompleted);
+        assertFalse(GTaskSyncService.isSyncing());
+        assertEquals(GTaskManager.STATE_SYNC_CANCELLED, task.getResult());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.add(-3));
+        assertTrue(set.add(0));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(5));
+        assertTrue(set.contains(-3));
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(6));
+
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertFalse(set.contains(5));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        LongHashSet set = new LongHashSet();
+        for (long id = 1; id <= 50000; id++) {
+            assertTrue(set.add(id));
+        }
+        assertEquals(50000, set.size());
+        for (long id = 1; id <= 50000; id++) {
+            assertTrue(set.contains(id));
+        }
+        assertFalse(set.contains(50001));
+    }
+
+    // 随机增删并与HashSet比较，删除时前移探测链上元素的逻辑会在环绕数组末尾时被覆盖到
+    @Test
+    public void matchesHashSetUnderRandomOperations() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        HashSet<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            assertEquals(expected.size(), set.size());
+            long probe = random.nextInt(2000) - 1000;
+            assertEquals(expected.contains(probe), set.contains(probe));
+        }
+        assertEquals(expected, set.toHashSet());
+    }
+
+    @Test
+    public void toArrayReturnsAllValues() {
+        LongHashSet set = new LongHashSet();
+        set.add(3);
+        set.add(1);
+        set.add(2);
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(new long[]{1, 2, 3}, values);
+    }
+
+    @Test
+    public void retainAllKeepsCommonValues() {
+        LongHashSet set = new LongHashSet();
+        LongHashSet other = new LongHashSet();
+        for (long id = 0; id < 100; id++) {
+            set.add(id);
+            if (id % 3 == 0) {
+                other.add(id);
+            }
+        }
+        other.add(1000);
+        set.retainAll(other);
+        assertEquals(34, set.size());
+        for (long id = 0; id < 100; id++) {
+            assertEquals(id % 3 == 0, set.contains(id));
+        }
+        assertFalse(set.contains(1000));
+    }
+
+    @Test
+    public void clearKeepsSetUsable() {
+        LongHashSet set = new LongHashSet();
+        for (long id = 0; id < 100; id++) {
+            set.add(id);
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1));
+        assertTrue(set.add(1));
+        assertEquals(1, set.size());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NotePreviewTest {
+
+    @Test
+    public void stripsTagsAndSplitsBlocks() {
+        assertEquals("买菜\n开会", NotePreview.build("<div style=\"color:red\">买菜</div><div>开会</div>"));
+        assertEquals("a\nb", NotePreview.build("a<br>b<br/><br>"));
+        assertEquals("bold text", NotePreview.build("<b>bold</b> <i>text</i>"));
+        assertEquals("", NotePreview.build("<div><br></div>"));
+        assertEquals("", NotePreview.build(null));
+    }
+
+    @Test
+    public void decodesEntitiesAndCollapsesWhitespace() {
+        assertEquals("a & b < c", NotePreview.build("a&nbsp;&amp;&nbsp;b &lt; c"));
+        assertEquals("A B", NotePreview.build("&#65;   \t&#x42;"));
+        assertEquals("&unknown; x", NotePreview.build("&unknown; x"));
+    }
+
+    @Test
+    public void dropsChecklistMarks() {
+        assertEquals("牛奶\n面包", NotePreview.build("√ 牛奶\n□ 面包"));
+    }
+
+    @Test
+    public void keepsLessThanInPlainText() {
+        assertEquals("1 < 2 and 3 <4", NotePreview.build("1 < 2 and 3 <4"));
+    }
+
+    @Test
+    public void stopsAtUnclosedTag() {
+        assertEquals("text", NotePreview.build("text<div style=\"unterminated"));
+    }
+
+    @Test
+    public void truncatesToMaxLength() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < NotePreview.MAX_LENGTH; i++) {
+            content.append("<div>ab</div>");
+        }
+        String preview = NotePreview.build(content.toString());
+        assertEquals(NotePreview.MAX_LENGTH, preview.length());
+        // 全文索引使用的纯文本不截断
+        assertEquals(NotePreview.MAX_LENGTH * 3 - 1, NotePreview.toPlainText(content.toString()).length());
+    }
+
+    @Test
+    public void doesNotSplitSurrogatePairs() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < NotePreview.MAX_LENGTH - 1; i++) {
+            content.append('a');
+        }
+        content.append("😀");
+        String preview = NotePreview.build(content.toString());
+        assertEquals(NotePreview.MAX_LENGTH - 1, preview.length());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchTextTest {
+
+    @Test
+    public void indexTextDropsMarkupAndSplitsChinese() {
+        assertEquals("我 爱 北 京 hello world",
+                SearchText.forIndex("<div style=\"color:red\">我爱北京</div><div>hello&nbsp;world</div>"));
+        assertEquals("", SearchText.forIndex("<div><br></div>"));
+        assertEquals("a1 b2", SearchText.forIndex("a1&amp;b2"));
+    }
+
+    @Test
+    public void matchQueryUsesPhrasePrefixPerKeyword() {
+        assertEquals("\"hel*\"", SearchText.toMatchQuery("hel"));
+        assertEquals("\"北 京*\" \"abc*\"", SearchText.toMatchQuery(" 北京  abc "));
+        assertEquals("\"foo bar*\"", SearchText.toMatchQuery("foo-bar"));
+        assertEquals("\"caf é*\"", SearchText.toMatchQuery("café"));
+        assertNull(SearchText.toMatchQuery("!!! ??"));
+        assertNull(SearchText.toMatchQuery(null));
+    }
+
+    @Test
+    public void parseMatchInfoUsesNativeByteOrder() {
+        ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+        buffer.putInt(1).putInt(2).putInt(300);
+        assertArrayEquals(new int[]{1, 2, 300}, SearchText.parseMatchInfo(buffer.array()));
+    }
+
+    // 以下matchinfo取自SQLite对四行索引执行"北 京*"查询的结果，格式为pcnalx
+    @Test
+    public void bm25PrefersMoreHits() {
+        double once = SearchText.bm25(new int[]{1, 1, 4, 6, 9, 1, 4, 2});
+        double threeTimes = SearchText.bm25(new int[]{1, 1, 4, 6, 6, 3, 4, 2});
+        assertTrue(threeTimes > once);
+    }
+
+    @Test
+    public void bm25PrefersShorterNotes() {
+        double shortNote = SearchText.bm25(new int[]{1, 1, 4, 6, 3, 1, 4, 2});
+        double longNote = SearchText.bm25(new int[]{1, 1, 4, 6, 30, 1, 4, 2});
+        assertTrue(shortNote > longNote);
+    }
+
+    @Test
+    public void bm25PrefersRarerTerms() {
+        double rare = SearchText.bm25(new int[]{1, 1, 100, 6, 6, 1, 1, 1});
+        double common = SearchText.bm25(new int[]{1, 1, 100, 6, 6, 1, 90, 90});
+        assertTrue(rare > common);
+        assertTrue(common > 0);
+    }
+
+    @Test
+    public void bm25SumsAllKeywords() {
+        double one = SearchText.bm25(new int[]{1, 1, 4, 6, 9, 1, 4, 2});
+        double two = SearchText.bm25(new int[]{2, 1, 4, 6, 9, 1, 4, 2, 1, 4, 2});
+        assertEquals(2 * one, two, 1e-9);
+    }
+}
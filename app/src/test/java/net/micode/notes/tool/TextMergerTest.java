@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TextMergerTest {
+
+    private static String lines(String... lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(lines[i]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void withoutBaseLocalWins() {
+        TextMerger.Result result = TextMerger.merge(null, lines("a", "b", "c", "d"),
+                lines("a", "b", "c", "e"));
+        assertEquals(lines("a", "b", "c", "d"), result.getText());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void oneSideChangedTakesThatSide() {
+        String base = lines("a", "b", "c");
+        assertEquals(lines("a", "x", "c"),
+                TextMerger.merge(base, base, lines("a", "x", "c")).getText());
+        assertEquals(lines("a", "x", "c"),
+                TextMerger.merge(base, lines("a", "x", "c"), base).getText());
+    }
+
+    @Test
+    public void editsToDifferentLinesMergeCleanly() {
+        TextMerger.Result result = TextMerger.merge(lines("a", "b", "c", "d"),
+                lines("A", "b", "c", "d"), lines("a", "b", "c", "D"));
+        assertEquals(lines("A", "b", "c", "D"), result.getText());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void insertionsOnBothSidesMergeCleanly() {
+        TextMerger.Result result = TextMerger.merge(lines("a", "b", "c"),
+                lines("a", "x", "b", "c"), lines("a", "b", "c", "y"));
+        assertEquals(lines("a", "x", "b", "c", "y"), result.getText());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void sameEditOnBothSidesIsNotAConflict() {
+        TextMerger.Result result = TextMerger.merge(lines("a", "b"), lines("a", "x"),
+                lines("a", "x"));
+        assertEquals(lines("a", "x"), result.getText());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void conflictingEditKeepsBothSidesOfThatLineOnly() {
+        TextMerger.Result result = TextMerger.merge(lines("a", "b", "c"),
+                lines("a", "local", "c"), lines("a", "remote", "c"));
+        assertEquals(lines("a", TextMerger.MARKER_LOCAL, "local", TextMerger.MARKER_SEPARATOR,
+                "remote", TextMerger.MARKER_REMOTE, "c"), result.getText());
+        assertEquals(1, result.getConflictCount());
+    }
+
+    @Test
+    public void htmlBlocksMergeIndependently() {
+        String base = "<div>one</div><div>two</div><div>three</div>";
+        String local = "<div>ONE</div><div>two</div><div>three</div>";
+        String remote = "<div>one</div><div>two</div><div>THREE</div>";
+        TextMerger.Result result = TextMerger.merge(base, local, remote);
+        assertEquals("<div>ONE</div><div>two</div><div>THREE</div>", result.getText());
+        assertFalse(result.hasConflicts());
+    }
+
+    @Test
+    public void htmlConflictMarkersAreEscapedBlocks() {
+        TextMerger.Result result = TextMerger.merge("a<br>b<br>c", "a<br>x<br>c", "a<br>y<br>c");
+        assertEquals(1, result.getConflictCount());
+        assertTrue(result.getText().contains("<div>&lt;&lt;&lt;&lt;&lt;&lt;&lt; local</div>"));
+        assertTrue(result.getText().startsWith("a<br>"));
+        assertTrue(result.getText().endsWith("c"));
+    }
+
+    // 两万行的笔记，双方各修改两千行，超过单次差异计算的编辑距离，按锚点分段合并
+    @Test
+    public void largeNoteThroughput() {
+        int count = 20000;
+        StringBuilder base = new StringBuilder();
+        StringBuilder local = new StringBuilder();
+        StringBuilder remote = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                base.append('\n');
+                local.append('\n');
+                remote.append('\n');
+            }
+            base.append("line ").append(i);
+            local.append(i % 10 == 1 ? "local " + i : "line " + i);
+            remote.append(i % 10 == 6 ? "remote " + i : "line " + i);
+        }
+
+        long start = System.nanoTime();
+        TextMerger.Result result = TextMerger.merge(base.toString(), local.toString(),
+                remote.toString());
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        System.out.println("merged " + count + " lines in " + elapsed + "ms");
+
+        assertFalse(result.hasConflicts());
+        String[] merged = result.getText().split("\n", -1);
+        assertEquals(count, merged.length);
+        assertEquals("local 1", merged[1]);
+        assertEquals("remote 6", merged[6]);
+        assertEquals("line 19999", merged[19999]);
+        assertTrue("merge took " + elapsed + "ms", elapsed < 5000);
+    }
+}